@@ -0,0 +1,443 @@
+package com.arkoisystems.captcha.server;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaCanvas;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import com.arkoisystems.captcha.CaptchaWarmUp;
+import com.arkoisystems.captcha.metrics.LatencyHistogram;
+import com.arkoisystems.captcha.metrics.MetricsRecorder;
+import com.arkoisystems.captcha.metrics.Stage;
+import com.arkoisystems.captcha.store.AnswerStore;
+import com.arkoisystems.captcha.token.CaptchaTokens;
+import com.arkoisystems.captcha.utils.ThreadUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A captcha server based on the {@link HttpServer} of the JDK. Every request is handled by
+ * its own virtual thread (or a pooled thread on runtimes without virtual threads). The
+ * server has the following endpoints:
+ * <ul>
+ *     <li>{@code GET /captcha} renders a new captcha and streams the image directly into
+ *     the response. The id needed to verify it is sent in the header "X-Captcha-Id".</li>
+ *     <li>{@code GET /token} issues a signed token of a stateless captcha (see {@link
+ *     CaptchaTokens}) without rendering or storing anything.</li>
+ *     <li>{@code GET /captcha?token=...} renders the captcha of a token. Every node with
+ *     the same key renders the same image.</li>
+ *     <li>{@code POST /verify} verifies the answer of a captcha. The parameters "id" (or
+ *     "token") and "answer" are read from the form encoded body or the query. Every
+ *     captcha can only be verified once (a token once per node).</li>
+ *     <li>{@code GET /metrics} returns the measurements of the captchas as plain
+ *     text.</li>
+ *     <li>{@code GET /ready} responds with 200 once the captcha template is warmed up
+ *     (see {@link CaptchaWarmUp}) and with 503 before, e.g. for a readiness probe.</li>
+ * </ul>
+ */
+public class CaptchaServer implements Closeable
+{
+    
+    /**
+     * The logger of the failed requests.
+     */
+    private static final System.Logger LOGGER = System.getLogger(CaptchaServer.class.getName());
+    
+    /**
+     * The maximum size of a verification request body.
+     */
+    private static final int MAX_BODY_SIZE = 4096;
+    
+    /**
+     * The settings of the server.
+     */
+    @Getter
+    private final ServerConfig config;
+    
+    /**
+     * The template, encoder and answer store used by the endpoints.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    @Getter
+    private final CaptchaEncoder encoder;
+    
+    @Getter
+    private final AnswerStore store;
+    
+    @Getter
+    private final CaptchaTokens tokens;
+    
+    /**
+     * The warm-up of the template which runs when the server is started.
+     */
+    @Getter
+    private final CaptchaWarmUp warmUp;
+    
+    /**
+     * The metrics of the captchas.
+     */
+    @Getter
+    private final MetricsRecorder metrics = new MetricsRecorder();
+    
+    /**
+     * The canvases which are currently not used by a request. Virtual threads are not
+     * reused, so the canvases are pooled instead of being stored per thread.
+     */
+    private final ConcurrentLinkedQueue<CaptchaCanvas> canvases = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * The HTTP server and the executor which runs the requests.
+     */
+    private final HttpServer server;
+    
+    private final ExecutorService executor;
+    
+    /**
+     * Creates a new server from the provided settings. The server doesn't accept requests
+     * until {@link #start()} is called.
+     *
+     * @param config
+     *         the settings of the server.
+     *
+     * @throws IOException
+     *         if the server can't bind to the configured address.
+     */
+    public CaptchaServer(final ServerConfig config) throws IOException {
+        this.config = config;
+        this.captcha = config.createCaptcha(this.getMetrics());
+        this.encoder = config.createEncoder();
+        this.store = config.createStore();
+        this.tokens = config.createTokens();
+        this.warmUp = config.createWarmUp(this.captcha, this.encoder);
+        
+        // The server streams the images itself, so ImageIO shouldn't cache them on disk.
+        ImageIO.setUseCache(false);
+        
+        this.executor = ThreadUtils.newVirtualThreadExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(config.getHost(), config.getPort()), config.getBacklog());
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/captcha", this.handle("GET", this::issue));
+        this.server.createContext("/token", this.handle("GET", this::token));
+        this.server.createContext("/verify", this.handle("POST", this::verify));
+        this.server.createContext("/metrics", this.handle("GET", this::metrics));
+        this.server.createContext("/ready", this.handle("GET", this::ready));
+    }
+    
+    /**
+     * Starts the server with the settings of the properties file passed as the first
+     * argument (optional). If "warmup.exit" is set, the server only warms up and exits
+     * without accepting requests, which is used to create an AppCDS archive.
+     *
+     * @param args
+     *         the arguments of the program.
+     *
+     * @throws IOException
+     *         if the server can't bind to the configured address.
+     */
+    public static void main(final String[] args) throws IOException {
+        final ServerConfig config = ServerConfig.load(args.length > 0 ? Path.of(args[0]) : null);
+        final CaptchaServer server = new CaptchaServer(config);
+        if (config.isWarmUpExit()) {
+            System.out.println("Captcha server warmed up: " + server.getWarmUp().run());
+            server.close();
+            return;
+        }
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "captcha-server-shutdown"));
+        
+        server.start();
+        System.out.println("Captcha server listening on " + server.getAddress()
+                + " (virtual threads: " + ThreadUtils.isVirtualThreadSupported() + ")");
+    }
+    
+    /**
+     * Starts accepting requests and warms up the captcha template in the background. The
+     * server reports that it is ready (see {@code GET /ready}) once the warm-up is done.
+     */
+    public void start() {
+        this.server.start();
+        this.getWarmUp().start();
+    }
+    
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return the address the server is bound to.
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+    
+    /**
+     * Stops accepting requests, waits up to one second for running requests and releases
+     * the canvases.
+     */
+    @Override
+    public void close() {
+        this.server.stop(1);
+        this.executor.shutdown();
+        
+        CaptchaCanvas canvas;
+        while ((canvas = this.canvases.poll()) != null)
+            canvas.close();
+    }
+    
+    /**
+     * Renders a new captcha, stores its answer and streams the image into the response. If
+     * the query contains a token, the captcha of the token is rendered instead and nothing
+     * is stored.
+     *
+     * @param exchange
+     *         the exchange of the request.
+     *
+     * @throws IOException
+     *         if the response can't be written.
+     */
+    private void issue(final HttpExchange exchange) throws IOException {
+        final String token = parseParameters(exchange.getRequestURI().getRawQuery()).get("token");
+        final String text;
+        final long seed;
+        if (token != null) {
+            final CaptchaTokens.Token parsed;
+            try {
+                parsed = this.getTokens().parse(token);
+            } catch (final IllegalArgumentException exception) {
+                this.send(exchange, 400, "text/plain", exception.getMessage());
+                return;
+            }
+            
+            text = this.getCaptcha().nextText(parsed.getTextSeed());
+            seed = parsed.getImageSeed();
+        } else {
+            text = this.getCaptcha().nextText();
+            seed = 0;
+            exchange.getResponseHeaders().set("X-Captcha-Id", Long.toHexString(this.getStore().put(text)));
+        }
+        
+        exchange.getResponseHeaders().set("Content-Type", this.getEncoder().getMimeType());
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, 0);
+        
+        CaptchaCanvas canvas = this.canvases.poll();
+        if (canvas == null)
+            canvas = this.getCaptcha().createCanvas();
+        
+        try (final OutputStream outputStream = new BufferedOutputStream(exchange.getResponseBody(), 8192)) {
+            if (token != null)
+                this.getEncoder().encode(this.getCaptcha(), canvas, text, seed, outputStream);
+            else this.getEncoder().encode(this.getCaptcha(), canvas, text, outputStream);
+        } finally {
+            this.canvases.offer(canvas);
+        }
+    }
+    
+    /**
+     * Issues a new token of a stateless captcha and responds with {@code
+     * {"token":"..."}}.
+     *
+     * @param exchange
+     *         the exchange of the request.
+     *
+     * @throws IOException
+     *         if the response can't be written.
+     */
+    private void token(final HttpExchange exchange) throws IOException {
+        this.send(exchange, 200, "application/json", "{\"token\":\"" + this.getTokens().issue() + "\"}");
+    }
+    
+    /**
+     * Responds with {@code {"ready":true}} if the warm-up is done or with status 503 and
+     * {@code {"ready":false}} if it isn't.
+     *
+     * @param exchange
+     *         the exchange of the request.
+     *
+     * @throws IOException
+     *         if the response can't be written.
+     */
+    private void ready(final HttpExchange exchange) throws IOException {
+        final boolean ready = this.getWarmUp().isReady();
+        this.send(exchange, ready ? 200 : 503, "application/json", "{\"ready\":" + ready + "}");
+    }
+    
+    /**
+     * Verifies the answer of a captcha and responds with {@code {"success":true}} or
+     * {@code {"success":false}}.
+     *
+     * @param exchange
+     *         the exchange of the request.
+     *
+     * @throws IOException
+     *         if the request can't be read or the response can't be written.
+     */
+    private void verify(final HttpExchange exchange) throws IOException {
+        final Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+        try (final InputStream inputStream = exchange.getRequestBody()) {
+            final byte[] body = inputStream.readNBytes(MAX_BODY_SIZE + 1);
+            if (body.length > MAX_BODY_SIZE) {
+                this.send(exchange, 413, "text/plain", "Request body too large");
+                return;
+            }
+            parameters.putAll(parseParameters(new String(body, StandardCharsets.UTF_8)));
+        }
+        
+        final String id = parameters.get("id"), token = parameters.get("token"), answer = parameters.get("answer");
+        if ((id == null && token == null) || answer == null) {
+            this.send(exchange, 400, "text/plain", "Missing parameter \"id\" (or \"token\") or \"answer\"");
+            return;
+        }
+        
+        if (token != null) {
+            final boolean success = this.getTokens().verify(this.getCaptcha(), token, answer);
+            this.send(exchange, 200, "application/json", "{\"success\":" + success + "}");
+            return;
+        }
+        
+        final boolean success;
+        try {
+            success = this.getStore().verify(Long.parseUnsignedLong(id, 16), answer);
+        } catch (final NumberFormatException ignored) {
+            this.send(exchange, 400, "text/plain", "Invalid parameter \"id\"");
+            return;
+        }
+        
+        this.send(exchange, 200, "application/json", "{\"success\":" + success + "}");
+    }
+    
+    /**
+     * Responds with the measurements of the captchas in a plain text format (one value
+     * per line).
+     *
+     * @param exchange
+     *         the exchange of the request.
+     *
+     * @throws IOException
+     *         if the response can't be written.
+     */
+    private void metrics(final HttpExchange exchange) throws IOException {
+        final MetricsRecorder metrics = this.getMetrics();
+        final StringBuilder builder = new StringBuilder();
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = metrics.getHistogram(stage);
+            final String name = "captcha_stage_" + stage.name().toLowerCase(Locale.ROOT);
+            builder.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            builder.append(name).append("_mean_ns ").append((long) histogram.getMean()).append('\n');
+            builder.append(name).append("_p99_ns ").append(histogram.getPercentile(0.99)).append('\n');
+        }
+        
+        builder.append("captcha_frames ").append(metrics.getFrames()).append('\n');
+        builder.append("captcha_encoded ").append(metrics.getEncoded()).append('\n');
+        builder.append("captcha_bytes ").append(metrics.getBytes()).append('\n');
+        builder.append("captcha_store_size ").append(this.getStore().size()).append('\n');
+        builder.append("captcha_store_evictions ").append(this.getStore().getEvictions()).append('\n');
+        this.send(exchange, 200, "text/plain; version=0.0.4", builder.toString());
+    }
+    
+    /**
+     * Wraps an endpoint, so it only accepts the provided method, answers failures with a
+     * status 500 and always closes the exchange.
+     *
+     * @param method
+     *         the HTTP method accepted by the endpoint.
+     * @param endpoint
+     *         the endpoint which handles the request.
+     *
+     * @return the handler which is registered at the server.
+     */
+    private HttpHandler handle(final String method, final HttpHandler endpoint) {
+        return exchange -> {
+            try {
+                if (!method.equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", method);
+                    this.send(exchange, 405, "text/plain", "Method not allowed");
+                    return;
+                }
+                
+                endpoint.handle(exchange);
+            } catch (final Exception exception) {
+                LOGGER.log(System.Logger.Level.ERROR, "The request " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed.", exception);
+                
+                // If the headers were sent already, closing the exchange aborts the response.
+                if (exchange.getResponseCode() == -1) {
+                    try {
+                        this.send(exchange, 500, "text/plain", "Internal server error");
+                    } catch (final IOException ignored) {
+                        // The client is gone, the exchange gets closed below.
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+    
+    /**
+     * Sends a complete response.
+     *
+     * @param exchange
+     *         the exchange of the request.
+     * @param status
+     *         the status code of the response.
+     * @param contentType
+     *         the content type of the body.
+     * @param body
+     *         the body of the response.
+     *
+     * @throws IOException
+     *         if the response can't be written.
+     */
+    private void send(final HttpExchange exchange, final int status, final String contentType, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+    
+    /**
+     * Parses form encoded parameters (e.g. "id=1f&answer=abc").
+     *
+     * @param encoded
+     *         the form encoded parameters or null.
+     *
+     * @return the decoded parameters.
+     */
+    private static Map<String, String> parseParameters(final String encoded) {
+        final Map<String, String> parameters = new HashMap<>();
+        if (encoded == null || encoded.isEmpty())
+            return parameters;
+        
+        for (final String pair : encoded.split("&")) {
+            final int separator = pair.indexOf('=');
+            if (separator <= 0)
+                continue;
+            
+            parameters.put(
+                    URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8)
+            );
+        }
+        return parameters;
+    }
+    
+}
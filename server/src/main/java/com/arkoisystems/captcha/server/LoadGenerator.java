@@ -0,0 +1,228 @@
+package com.arkoisystems.captcha.server;
+
+import com.arkoisystems.captcha.metrics.LatencyHistogram;
+import com.arkoisystems.captcha.utils.ThreadUtils;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A load generator for the {@link CaptchaServer}. A fixed amount of workers request
+ * captchas (and optionally verify them with a wrong answer) as fast as possible, and the
+ * throughput and latency percentiles are printed at the end. Measurements are only taken
+ * after the warm-up.
+ * <p>
+ * Arguments (all optional): {@code --url http://localhost:8080 --concurrency 32 --duration
+ * 30 --warmup 5 --verify}. If no url is given, a server with the default settings is
+ * started in the same process.
+ */
+public class LoadGenerator
+{
+    
+    /**
+     * The latencies of the requests.
+     */
+    private final LatencyHistogram issueLatency = new LatencyHistogram(), verifyLatency = new LatencyHistogram();
+    
+    /**
+     * The amount of failed requests and received image bytes.
+     */
+    private final LongAdder errors = new LongAdder(), bytes = new LongAdder();
+    
+    /**
+     * The flag if the measurements are taken (false during the warm-up).
+     */
+    private volatile boolean recording;
+    
+    /**
+     * The flag if the workers should stop.
+     */
+    private volatile boolean stopped;
+    
+    /**
+     * Runs the load generator.
+     *
+     * @param args
+     *         the arguments of the program.
+     *
+     * @throws Exception
+     *         if the load generator was interrupted or the server couldn't be started.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = parseOptions(args);
+        final int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        final int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        final int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        final boolean verify = options.containsKey("verify");
+        
+        CaptchaServer server = null;
+        String url = options.get("url");
+        if (url == null) {
+            System.setProperty("server.host", "127.0.0.1");
+            System.setProperty("server.port", "0");
+            server = new CaptchaServer(ServerConfig.load(null));
+            server.start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+        
+        System.out.printf("Running %d workers against %s for %ds (warm-up %ds, verify %b)%n", concurrency, url, duration, warmup, verify);
+        try {
+            new LoadGenerator().run(URI.create(url), concurrency, warmup, duration, verify);
+        } finally {
+            if (server != null)
+                server.close();
+        }
+    }
+    
+    /**
+     * Runs the workers and prints the results.
+     *
+     * @param base
+     *         the base url of the server.
+     * @param concurrency
+     *         the amount of workers.
+     * @param warmup
+     *         the seconds before the measurements are taken.
+     * @param duration
+     *         the seconds in which the measurements are taken.
+     * @param verify
+     *         the flag if every captcha should be verified.
+     *
+     * @throws InterruptedException
+     *         if the load generator was interrupted.
+     */
+    private void run(final URI base, final int concurrency, final int warmup, final int duration, final boolean verify) throws InterruptedException {
+        final ExecutorService executor = ThreadUtils.newVirtualThreadExecutor();
+        final HttpClient client = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        
+        for (int index = 0; index < concurrency; index++)
+            executor.execute(() -> this.work(client, base, verify));
+        
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        this.recording = true;
+        final long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        this.recording = false;
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        
+        this.stopped = true;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        
+        print("GET /captcha", this.issueLatency, seconds);
+        if (verify)
+            print("POST /verify", this.verifyLatency, seconds);
+        System.out.printf("errors: %d, image bytes: %.1f MB/s%n", this.errors.sum(), this.bytes.sum() / seconds / 1e6);
+    }
+    
+    /**
+     * The loop of a worker.
+     *
+     * @param client
+     *         the client used to send the requests.
+     * @param base
+     *         the base url of the server.
+     * @param verify
+     *         the flag if every captcha should be verified.
+     */
+    private void work(final HttpClient client, final URI base, final boolean verify) {
+        final HttpRequest issue = HttpRequest.newBuilder(base.resolve("/captcha")).GET().build();
+        while (!this.stopped) {
+            try {
+                long start = System.nanoTime();
+                final HttpResponse<byte[]> response = client.send(issue, HttpResponse.BodyHandlers.ofByteArray());
+                long end = System.nanoTime();
+                
+                final String id = response.headers().firstValue("X-Captcha-Id").orElse(null);
+                if (response.statusCode() != 200 || id == null) {
+                    this.errors.increment();
+                    continue;
+                }
+                if (this.recording) {
+                    this.issueLatency.record(end - start);
+                    this.bytes.add(response.body().length);
+                }
+                
+                if (!verify)
+                    continue;
+                
+                final HttpRequest verification = HttpRequest.newBuilder(base.resolve("/verify"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("id=" + id + "&answer=wrong"))
+                        .build();
+                start = System.nanoTime();
+                final HttpResponse<Void> verifyResponse = client.send(verification, HttpResponse.BodyHandlers.discarding());
+                end = System.nanoTime();
+                
+                if (verifyResponse.statusCode() != 200)
+                    this.errors.increment();
+                else if (this.recording)
+                    this.verifyLatency.record(end - start);
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception ignored) {
+                this.errors.increment();
+            }
+        }
+    }
+    
+    /**
+     * Prints the throughput and latency percentiles of an endpoint. The percentiles are the
+     * upper bounds of the histogram buckets (powers of two).
+     *
+     * @param name
+     *         the name of the endpoint.
+     * @param histogram
+     *         the latencies of the endpoint.
+     * @param seconds
+     *         the seconds in which the measurements were taken.
+     */
+    private static void print(final String name, final LatencyHistogram histogram, final double seconds) {
+        System.out.printf(
+                "%s: %d requests, %.1f req/s, mean %.2f ms, p50 <= %.2f ms, p90 <= %.2f ms, p99 <= %.2f ms, p99.9 <= %.2f ms%n",
+                name,
+                histogram.getCount(),
+                histogram.getCount() / seconds,
+                histogram.getMean() / 1e6,
+                histogram.getPercentile(0.5) / 1e6,
+                histogram.getPercentile(0.9) / 1e6,
+                histogram.getPercentile(0.99) / 1e6,
+                histogram.getPercentile(0.999) / 1e6
+        );
+    }
+    
+    /**
+     * Parses arguments of the form "--name value" or "--flag".
+     *
+     * @param args
+     *         the arguments of the program.
+     *
+     * @return the parsed options.
+     */
+    private static Map<String, String> parseOptions(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int index = 0; index < args.length; index++) {
+            if (!args[index].startsWith("--"))
+                throw new IllegalArgumentException("Unexpected argument \"" + args[index] + "\".");
+            
+            final String name = args[index].substring(2);
+            if (index + 1 < args.length && !args[index + 1].startsWith("--"))
+                options.put(name, args[++index]);
+            else options.put(name, "true");
+        }
+        return options;
+    }
+    
+}
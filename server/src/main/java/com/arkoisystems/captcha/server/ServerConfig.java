@@ -0,0 +1,297 @@
+package com.arkoisystems.captcha.server;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import com.arkoisystems.captcha.CaptchaWarmUp;
+import com.arkoisystems.captcha.PNGWriter;
+import com.arkoisystems.captcha.RenderBackend;
+import com.arkoisystems.captcha.metrics.CaptchaMetrics;
+import com.arkoisystems.captcha.store.AnswerStore;
+import com.arkoisystems.captcha.token.CaptchaTokens;
+import com.arkoisystems.captcha.utils.Alphabet;
+import com.arkoisystems.captcha.utils.RandomStrategy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.awt.*;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The settings of the {@link CaptchaServer}. They are read from properties whose keys are
+ * named after the settings of the {@link Captcha} builder (e.g. "captcha.strokeNoise"), see
+ * the "captcha-server.properties" resource for every key and its default.
+ */
+@AllArgsConstructor
+public class ServerConfig
+{
+    
+    /**
+     * The resource containing the default settings.
+     */
+    private static final String DEFAULTS = "/captcha-server.properties";
+    
+    /**
+     * The properties the settings are read from.
+     */
+    @Getter
+    private final Properties properties;
+    
+    /**
+     * Loads the default settings, overrides them with the provided file (if any) and then
+     * with the system properties.
+     *
+     * @param file
+     *         the properties file which overrides the defaults or null.
+     *
+     * @return the loaded settings.
+     */
+    @SneakyThrows
+    public static ServerConfig load(final Path file) {
+        final Properties properties = new Properties();
+        try (final InputStream inputStream = ServerConfig.class.getResourceAsStream(DEFAULTS)) {
+            if (inputStream != null)
+                properties.load(inputStream);
+        }
+        
+        if (file != null) {
+            try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        
+        for (final String key : System.getProperties().stringPropertyNames()) {
+            if (properties.containsKey(key) || key.startsWith("captcha.") || key.startsWith("store.") || key.startsWith("token.") || key.startsWith("warmup."))
+                properties.setProperty(key, System.getProperty(key));
+        }
+        
+        return new ServerConfig(properties);
+    }
+    
+    /**
+     * Returns the address the server binds to.
+     *
+     * @return the address the server binds to.
+     */
+    public String getHost() {
+        return this.getString("server.host", "0.0.0.0");
+    }
+    
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port the server listens on.
+     */
+    public int getPort() {
+        return this.get("server.port", Integer::parseInt, 8080);
+    }
+    
+    /**
+     * Returns the maximum amount of queued incoming connections.
+     *
+     * @return the maximum amount of queued incoming connections.
+     */
+    public int getBacklog() {
+        return this.get("server.backlog", Integer::parseInt, 1024);
+    }
+    
+    /**
+     * Creates the captcha template from the settings with the prefix "captcha.".
+     *
+     * @param metrics
+     *         the metrics which receive the measurements of the captchas.
+     *
+     * @return the captcha template.
+     */
+    public Captcha createCaptcha(final CaptchaMetrics metrics) {
+        final Captcha.CaptchaBuilder builder = Captcha.builder(
+                this.get("captcha.width", Integer::parseInt, 300),
+                this.get("captcha.height", Integer::parseInt, 100)
+        ).metrics(metrics);
+        
+        this.apply("captcha.font", Font::decode, builder::font);
+        this.apply("captcha.alphabet", Alphabet::valueOf, builder::textGenerator);
+        this.apply("captcha.textLength", Integer::parseInt, builder::textLength);
+        this.apply("captcha.textHalfRotation", Integer::parseInt, builder::textHalfRotation);
+        this.apply("captcha.glyphCache", Boolean::parseBoolean, builder::glyphCache);
+        this.apply("captcha.grayscale", Boolean::parseBoolean, builder::grayscale);
+        this.apply("captcha.renderBackend", value -> RenderBackend.valueOf(value.toUpperCase(Locale.ROOT)), builder::renderBackend);
+        this.apply("captcha.randomStrategy", value -> RandomStrategy.valueOf(value.toUpperCase(Locale.ROOT)), builder::randomStrategy);
+        this.apply("captcha.gaussianNoise", Boolean::parseBoolean, builder::gaussianNoise);
+        this.apply("captcha.gaussianNoiseMean", Float::parseFloat, builder::gaussianNoiseMean);
+        this.apply("captcha.gaussianNoiseSigma", Float::parseFloat, builder::gaussianNoiseSigma);
+        this.apply("captcha.strokeNoise", Boolean::parseBoolean, builder::strokeNoise);
+        this.apply("captcha.strokeNoiseAmount", Integer::parseInt, builder::strokeNoiseAmount);
+        this.apply("captcha.noisePlateCount", Integer::parseInt, builder::noisePlateCount);
+        this.apply("captcha.noisePlateRotation", Duration::parse, builder::noisePlateRotation);
+        this.apply("captcha.noisePlateFile", Path::of, builder::noisePlateFile);
+        return builder.build();
+    }
+    
+    /**
+     * Creates the encoder from the setting "format" (png or gif) and the settings with the
+     * prefix "png." or "gif.".
+     *
+     * @return the encoder of the captchas.
+     */
+    public CaptchaEncoder createEncoder() {
+        final String format = this.getString("format", "png").toLowerCase(Locale.ROOT);
+        switch (format) {
+            case "png":
+                final PNGWriter.PNGWriterBuilder builder = PNGWriter.builder();
+                this.apply("png.level", Integer::parseInt, builder::level);
+                this.apply("png.filter", value -> PNGWriter.Filter.valueOf(value.toUpperCase(Locale.ROOT)), builder::filter);
+                this.apply("png.palette", Boolean::parseBoolean, builder::palette);
+                return CaptchaEncoder.png(builder.build());
+            case "gif":
+                return CaptchaEncoder.gif(
+                        this.get("gif.frames", Integer::parseInt, 10),
+                        this.get("gif.speed", Integer::parseInt, 100),
+                        this.get("gif.deltaFrames", Boolean::parseBoolean, false)
+                );
+            default:
+                throw new IllegalArgumentException("Unknown format \"" + format + "\" (expected png or gif).");
+        }
+    }
+    
+    /**
+     * Creates the answer store from the settings with the prefix "store.".
+     *
+     * @return the answer store.
+     */
+    public AnswerStore createStore() {
+        final AnswerStore.AnswerStoreBuilder builder = AnswerStore.builder();
+        this.apply("store.capacity", Integer::parseInt, builder::capacity);
+        this.apply("store.timeToLive", Duration::parse, builder::timeToLive);
+        this.apply("store.stripes", Integer::parseInt, builder::stripes);
+        this.apply("store.caseSensitive", Boolean::parseBoolean, builder::caseSensitive);
+        return builder.build();
+    }
+    
+    /**
+     * Creates the signed tokens of stateless captchas from the settings with the prefix
+     * "token.". The key is base64 encoded, without one a random key is generated (which
+     * only works if there is a single node).
+     *
+     * @return the signed tokens of stateless captchas.
+     */
+    public CaptchaTokens createTokens() {
+        final CaptchaTokens.CaptchaTokensBuilder builder = CaptchaTokens.builder();
+        this.apply("token.key", Base64.getDecoder()::decode, builder::key);
+        this.apply("token.timeToLive", Duration::parse, builder::timeToLive);
+        this.apply("token.caseSensitive", Boolean::parseBoolean, builder::caseSensitive);
+        this.apply("token.replayable", Boolean::parseBoolean, builder::replayable);
+        this.apply("token.spentCapacity", Integer::parseInt, builder::spentCapacity);
+        return builder.build();
+    }
+    
+    /**
+     * Creates the warm-up of the captcha template from the settings with the prefix
+     * "warmup.".
+     *
+     * @param captcha
+     *         the template which gets warmed up.
+     * @param encoder
+     *         the encoder the throwaway captchas are run through.
+     *
+     * @return the warm-up of the captcha template.
+     */
+    public CaptchaWarmUp createWarmUp(final Captcha captcha, final CaptchaEncoder encoder) {
+        final CaptchaWarmUp.CaptchaWarmUpBuilder builder = CaptchaWarmUp.builder()
+                .captcha(captcha)
+                .encoders(List.of(encoder));
+        this.apply("warmup.renders", Integer::parseInt, builder::renders);
+        this.apply("warmup.characters", Function.identity(), builder::characters);
+        return builder.build();
+    }
+    
+    /**
+     * Returns the flag if the server should exit after the warm-up instead of accepting
+     * requests (used to create an AppCDS archive).
+     *
+     * @return the flag if the server should exit after the warm-up.
+     */
+    public boolean isWarmUpExit() {
+        return this.get("warmup.exit", Boolean::parseBoolean, false);
+    }
+    
+    /**
+     * Returns a setting as a string.
+     *
+     * @param key
+     *         the key of the setting.
+     * @param defaultValue
+     *         the value which is returned if the setting isn't set.
+     *
+     * @return the setting or the default value.
+     */
+    private String getString(final String key, final String defaultValue) {
+        final String value = this.getProperties().getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+    
+    /**
+     * Returns a setting converted by the parser.
+     *
+     * @param key
+     *         the key of the setting.
+     * @param parser
+     *         the function which converts the string.
+     * @param defaultValue
+     *         the value which is returned if the setting isn't set.
+     *
+     * @return the converted setting or the default value.
+     */
+    private <T> T get(final String key, final Function<String, T> parser, final T defaultValue) {
+        final String value = this.getString(key, null);
+        return value == null ? defaultValue : this.parse(key, value, parser);
+    }
+    
+    /**
+     * Passes a setting converted by the parser to the consumer if it is set.
+     *
+     * @param key
+     *         the key of the setting.
+     * @param parser
+     *         the function which converts the string.
+     * @param consumer
+     *         the consumer which receives the converted setting (e.g. a builder method).
+     */
+    private <T> void apply(final String key, final Function<String, T> parser, final Consumer<T> consumer) {
+        final String value = this.getString(key, null);
+        if (value != null)
+            consumer.accept(this.parse(key, value, parser));
+    }
+    
+    /**
+     * Converts a setting and names the key if it is invalid.
+     *
+     * @param key
+     *         the key of the setting.
+     * @param value
+     *         the value of the setting.
+     * @param parser
+     *         the function which converts the string.
+     *
+     * @return the converted setting.
+     */
+    private <T> T parse(final String key, final String value, final Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (final RuntimeException exception) {
+            throw new IllegalArgumentException("Invalid value \"" + value + "\" for the setting \"" + key + "\".", exception);
+        }
+    }
+    
+}
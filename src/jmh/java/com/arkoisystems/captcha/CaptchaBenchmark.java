@@ -0,0 +1,44 @@
+package com.arkoisystems.captcha;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Captcha#generate()} with every combination of the noise options.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CaptchaBenchmark
+{
+    
+    @Param({ "false", "true" })
+    public boolean gaussianNoise;
+    
+    @Param({ "false", "true" })
+    public boolean strokeNoise;
+    
+    private Captcha captcha;
+    
+    @Setup
+    public void setup() {
+        this.captcha = Captcha.builder(300, 100)
+                .gaussianNoise(this.gaussianNoise)
+                .gaussianNoiseMean(0.1f)
+                .gaussianNoiseSigma(15f)
+                .strokeNoise(this.strokeNoise)
+                .strokeNoiseAmount(3)
+                .textHalfRotation(30)
+                .build();
+    }
+    
+    @Benchmark
+    public CaptchaResult generate() {
+        return this.captcha.generate();
+    }
+    
+}
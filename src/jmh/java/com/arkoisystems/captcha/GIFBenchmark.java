@@ -0,0 +1,59 @@
+package com.arkoisystems.captcha;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the GIF output of the {@link CaptchaGenerator#generateGIF(Captcha,
+ * CaptchaCanvas, int, int, boolean, OutputStream)} (rendering included) for different image
+ * sizes, frame counts and with or without delta frames.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GIFBenchmark
+{
+    
+    @Param({ "150x50", "300x100", "600x200" })
+    public String size;
+    
+    @Param({ "1", "5", "10" })
+    public int frames;
+    
+    @Param({ "false", "true" })
+    public boolean deltaFrames;
+    
+    private Captcha captcha;
+    
+    private CaptchaCanvas canvas;
+    
+    @Setup
+    public void setup() {
+        final String[] dimensions = this.size.split("x");
+        this.captcha = Captcha.builder(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]))
+                .gaussianNoise(true)
+                .gaussianNoiseMean(0.1f)
+                .gaussianNoiseSigma(15f)
+                .strokeNoise(true)
+                .strokeNoiseAmount(3)
+                .textHalfRotation(30)
+                .build();
+        this.canvas = this.captcha.createCanvas();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        this.canvas.close();
+    }
+    
+    @Benchmark
+    public String generateGIF() {
+        return CaptchaGenerator.generateGIF(this.captcha, this.canvas, this.frames, 250, this.deltaFrames, OutputStream.nullOutputStream());
+    }
+    
+}
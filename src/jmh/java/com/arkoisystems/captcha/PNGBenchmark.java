@@ -0,0 +1,63 @@
+package com.arkoisystems.captcha;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the PNG output of the {@link CaptchaGenerator#writeImage(Captcha, CaptchaCanvas,
+ * String, PNGWriter, OutputStream)} (rendering included) for different image sizes and
+ * compression levels.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PNGBenchmark
+{
+    
+    @Param({ "150x50", "300x100", "600x200" })
+    public String size;
+    
+    @Param({ "false", "true" })
+    public boolean grayscale;
+    
+    @Param({ "1", "4", "9" })
+    public int level;
+    
+    private Captcha captcha;
+    
+    private CaptchaCanvas canvas;
+    
+    private PNGWriter writer;
+    
+    @Setup
+    public void setup() {
+        final String[] dimensions = this.size.split("x");
+        this.captcha = Captcha.builder(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]))
+                .gaussianNoise(true)
+                .gaussianNoiseMean(0.1f)
+                .gaussianNoiseSigma(15f)
+                .strokeNoise(true)
+                .strokeNoiseAmount(3)
+                .textHalfRotation(30)
+                .grayscale(this.grayscale)
+                .build();
+        this.canvas = this.captcha.createCanvas();
+        this.writer = PNGWriter.builder().level(this.level).build();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        this.canvas.close();
+    }
+    
+    @Benchmark
+    public String writeImage() {
+        return CaptchaGenerator.writeImage(this.captcha, this.canvas, this.captcha.nextText(), this.writer, OutputStream.nullOutputStream());
+    }
+    
+}
@@ -0,0 +1,86 @@
+package com.arkoisystems.captcha;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every rendering stage of the {@link Captcha} on its own. Every invocation
+ * draws onto the same image, which is fine because the cost of the stages doesn't depend
+ * on the content of the image.
+ * <p>
+ * Every thread has its own canvas, so running with more threads (e.g. "-t 8") shows how
+ * well the {@link RenderBackend} scales.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark
+{
+    
+    @Param({ "true", "false" })
+    public boolean glyphCache;
+    
+    @Param({ "0", "32" })
+    public int noisePlateCount;
+    
+    @Param({ "false", "true" })
+    public boolean grayscale;
+    
+    @Param({ "JAVA2D", "SOFTWARE" })
+    public RenderBackend renderBackend;
+    
+    private Captcha captcha;
+    
+    private CaptchaCanvas canvas;
+    
+    private String text;
+    
+    @Setup
+    public void setup() {
+        this.captcha = Captcha.builder(300, 100)
+                .gaussianNoise(true)
+                .gaussianNoiseMean(0.1f)
+                .gaussianNoiseSigma(15f)
+                .strokeNoise(true)
+                .strokeNoiseAmount(3)
+                .textHalfRotation(30)
+                .grayscale(this.grayscale)
+                .glyphCache(this.glyphCache)
+                .renderBackend(this.renderBackend)
+                .noisePlateCount(this.noisePlateCount)
+                .build();
+        this.captcha.getNoisePlates().prepare();
+        
+        this.canvas = this.captcha.createCanvas();
+        this.text = this.captcha.nextText();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        this.canvas.close();
+    }
+    
+    @Benchmark
+    public CaptchaCanvas drawText() {
+        this.captcha.drawText(this.canvas, ThreadLocalRandom.current(), this.text);
+        return this.canvas;
+    }
+    
+    @Benchmark
+    public CaptchaCanvas drawStrokeNoise() {
+        this.captcha.drawStrokeNoise(this.canvas, ThreadLocalRandom.current());
+        return this.canvas;
+    }
+    
+    @Benchmark
+    public CaptchaCanvas drawGaussianNoise() {
+        this.captcha.drawGaussianNoise(this.canvas, ThreadLocalRandom.current());
+        return this.canvas;
+    }
+    
+}
@@ -0,0 +1,95 @@
+package com.arkoisystems.captcha.store;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures issuing and verifying a captcha answer while millions of answers are stored.
+ * Every invocation stores a new answer and verifies the one stored 1024 invocations
+ * earlier (by the same thread), so the size of the store stays the same. The {@link
+ * ConcurrentHashMap} of strings is the baseline. Run it with multiple threads (e.g.
+ * {@code -t 4}) and the gc profiler to compare the contention and allocations.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnswerStoreBenchmark
+{
+    
+    private static final String ANSWER = "aB3dE6";
+    
+    @State(Scope.Benchmark)
+    public static class StoreState
+    {
+        
+        @Param({ "1000000", "4000000" })
+        public int entries;
+        
+        private AnswerStore store;
+        
+        @Setup
+        public void setup() {
+            this.store = AnswerStore.builder()
+                    .capacity(this.entries + (this.entries >> 2))
+                    .build();
+            for (int index = 0; index < this.entries; index++)
+                this.store.put(ANSWER);
+        }
+        
+    }
+    
+    @State(Scope.Benchmark)
+    public static class MapState
+    {
+        
+        @Param({ "1000000", "4000000" })
+        public int entries;
+        
+        private ConcurrentHashMap<Long, String> map;
+        
+        @Setup
+        public void setup() {
+            this.map = new ConcurrentHashMap<>();
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (this.map.size() < this.entries)
+                this.map.put(random.nextLong(), ANSWER);
+        }
+        
+    }
+    
+    @State(Scope.Thread)
+    public static class IdRing
+    {
+        
+        private final long[] ids = new long[1024];
+        
+        private int position;
+        
+        long swap(final long id) {
+            final int slot = this.position++ & (this.ids.length - 1);
+            final long old = this.ids[slot];
+            this.ids[slot] = id;
+            return old;
+        }
+        
+    }
+    
+    @Benchmark
+    public boolean answerStore(final StoreState state, final IdRing ring) {
+        final long id = state.store.put(ANSWER);
+        return state.store.verify(ring.swap(id), ANSWER);
+    }
+    
+    @Benchmark
+    public boolean concurrentHashMap(final MapState state, final IdRing ring) {
+        final long id = ThreadLocalRandom.current().nextLong();
+        state.map.put(id, new String(ANSWER.toCharArray()));
+        return ANSWER.equalsIgnoreCase(state.map.remove(ring.swap(id)));
+    }
+    
+}
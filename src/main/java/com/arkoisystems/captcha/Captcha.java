@@ -1,15 +1,21 @@
 package com.arkoisystems.captcha;
 
-import com.arkoisystems.captcha.utils.Callback;
-import com.arkoisystems.captcha.utils.GraphicUtils;
+import com.arkoisystems.captcha.metrics.CaptchaMetrics;
+import com.arkoisystems.captcha.metrics.Stage;
+import com.arkoisystems.captcha.utils.Alphabet;
+import com.arkoisystems.captcha.utils.NoiseUtils;
+import com.arkoisystems.captcha.utils.RandomStrategy;
 import com.arkoisystems.captcha.utils.RandomUtils;
+import com.arkoisystems.captcha.utils.TextGenerator;
 import lombok.*;
 
 import java.awt.*;
 import java.awt.geom.Path2D;
-import java.awt.image.BufferedImage;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 @Builder
@@ -32,19 +38,60 @@ public class Captcha
     @Getter
     private final Font font = new Font("Tippa", Font.PLAIN, 30);
     
+    /**
+     * The strategy used to get the random generator for positions, rotations, strokes and
+     * noise. These values don't need to be secret, so a fast generator is used by default.
+     */
+    @Builder.Default
+    @Getter
+    private final RandomStrategy randomStrategy = RandomStrategy.THREAD_LOCAL;
+    
+    /**
+     * The metrics which receive the duration of every stage, the rendered frames and the
+     * encoded bytes. Nothing is measured by default.
+     */
+    @Builder.Default
+    @ToString.Exclude
+    @Getter
+    private final CaptchaMetrics metrics = CaptchaMetrics.NOOP;
+    
+    /**
+     * The flag if the captcha is rendered into a grayscale canvas (one byte per pixel)
+     * instead of an RGB canvas. The colors of the text and strokes are turned into their
+     * gray values. This fits captchas with gaussian noise, which turns every pixel gray
+     * anyway.
+     */
+    @Getter
+    private final boolean grayscale;
+    
+    /**
+     * The backend which draws the text and strokes. Java2D is used by default, the {@link
+     * RenderBackend#SOFTWARE} backend scales better with many threads. The software backend
+     * also draws the text if the glyph cache is enabled.
+     */
+    @Builder.Default
+    @Getter
+    private final RenderBackend renderBackend = RenderBackend.JAVA2D;
+    
     // --- TEXT SETTINGS ---
     
     /**
-     * The callback used to generate the random string. If not set it will use a default
-     * callback which produces an alphanumeric string.
+     * The generator used to generate the random string. If not set it will pick
+     * alphanumeric characters, other characters can be used with an {@link Alphabet} (e.g.
+     * {@link Alphabet#NO_CONFUSABLES}).
+     */
+    @Builder.Default
+    @Getter
+    private final TextGenerator textGenerator = Alphabet.ALPHANUMERIC;
+    
+    /**
+     * The strategy used to get the random generator which is passed to the {@link
+     * #getTextGenerator()}. The text is the answer of the captcha, so it uses a {@link
+     * java.security.SecureRandom} by default.
      */
     @Builder.Default
     @Getter
-    private final Callback<String, Integer> textGenerator = value -> {
-        final String randomString = RandomUtils.randomAlphanumeric(value);
-        final byte[] stringBytes = randomString.getBytes(StandardCharsets.UTF_8);
-        return new String(stringBytes);
-    };
+    private final RandomStrategy textRandomStrategy = RandomStrategy.SECURE;
     
     /**
      * The values describes in which angle the characters can rotate (e.g. -60 & +60).
@@ -65,16 +112,23 @@ public class Captcha
      */
     @Builder.Default
     @Getter
-    @Setter
-    private int textLength = 6;
+    private final int textLength = 6;
+    
+    /**
+     * The flag if the characters should be drawn from pre-rasterized glyphs (see {@link
+     * GlyphCache}) instead of letting Java2D rasterize them for every captcha. Only used
+     * with the {@link RenderBackend#JAVA2D} backend.
+     */
+    @Builder.Default
+    @Getter
+    private final boolean glyphCache = true;
     
     /**
      * If you set this variable you can provide your own text and so nothing will be
      * generated.
      */
     @Getter
-    @Setter
-    private String text;
+    private final String text;
     
     // --- GAUSSIAN NOISE SETTINGS ---
     
@@ -120,118 +174,392 @@ public class Captcha
     @Getter
     private final Color strokeNoiseColor = new Color(241, 167, 167, 87);
     
+    // --- NOISE PLATE SETTINGS ---
+    
+    /**
+     * The amount of pre-rendered noise plates (see {@link NoisePlates}). If it is greater
+     * than zero the stroke and gaussian noise are composited from the plates instead of
+     * being rendered for every captcha.
+     */
+    @Getter
+    private final int noisePlateCount;
+    
+    /**
+     * The time after which every plate gets regenerated or null if the plates are never
+     * regenerated.
+     */
+    @Getter
+    private final Duration noisePlateRotation;
+    
+    /**
+     * The file the plates are loaded from and stored in or null if they are only kept in
+     * memory.
+     */
+    @Getter
+    private final Path noisePlateFile;
+    
+    /**
+     * The library of pre-rendered noise plates which is created on the first use.
+     */
+    @ToString.Exclude
+    @Getter
+    private final NoisePlates noisePlates = new NoisePlates(this);
+    
     // --- MAIN METHODS ---
     
     /**
-     * Generates a {@link BufferedImage} from the settings provided.
+     * Generates a new captcha from the settings provided. The text is either the fixed
+     * {@link #getText()} or a new one created by the {@link #getTextGenerator()}. This
+     * method doesn't change the state of this instance, so it can be shared and called by
+     * multiple threads at the same time.
+     *
+     * @return a {@link CaptchaResult} containing the image and its text.
+     */
+    public CaptchaResult generate() {
+        return this.generate(this.nextText());
+    }
+    
+    /**
+     * Generates a new captcha from the settings provided which shows the given text. This
+     * is used e.g. for GIFs where every frame shows the same text.
+     *
+     * @param text
+     *         the text which should be written to the image.
+     *
+     * @return a {@link CaptchaResult} containing the image and its text.
+     */
+    public CaptchaResult generate(final String text) {
+        final CaptchaCanvas canvas = this.createCanvas();
+        this.render(canvas, text);
+        canvas.close();
+        
+        return new CaptchaResult(canvas.getImage(), text);
+    }
+    
+    /**
+     * Renders a new captcha which shows the given text into the canvas. The canvas gets
+     * cleared first, so it can be reused for any amount of captchas.
+     *
+     * @param canvas
+     *         the canvas the captcha is rendered into (it must have the size of the
+     *         captcha, but can be an RGB or a grayscale canvas).
+     * @param text
+     *         the text which should be written to the image.
+     */
+    public void render(final CaptchaCanvas canvas, final String text) {
+        this.render(canvas, text, this.getRandomStrategy().current(), false);
+    }
+    
+    /**
+     * Renders a captcha which shows the given text into the canvas, where every random
+     * value (positions, rotations, strokes and noise) comes from the seed. The same seed
+     * always results in the same image for the same settings and fonts, so a captcha can
+     * be rendered again on any node instead of being stored. The noise plates and the
+     * shared gaussian table differ between processes, so they are not used here.
+     * <p>
+     * The image reveals a lot of values of the seeded generator, so the seed must be
+     * independent of the one passed to {@link #nextText(long)} (e.g. both derived from a
+     * secret by a HMAC).
+     *
+     * @param canvas
+     *         the canvas the captcha is rendered into (it must have the size of the
+     *         captcha, but can be an RGB or a grayscale canvas).
+     * @param text
+     *         the text which should be written to the image.
+     * @param seed
+     *         the seed of every random value of the image.
+     */
+    public void render(final CaptchaCanvas canvas, final String text, final long seed) {
+        this.render(canvas, text, new SplittableRandom(seed), true);
+    }
+    
+    /**
+     * Renders a captcha into the canvas with the provided random generator.
      *
-     * @return a generated {@link BufferedImage}
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be written to the image.
+     * @param random
+     *         the random generator used for every stage.
+     * @param seeded
+     *         the flag if only the random generator may be used (no noise plates or
+     *         shared gaussian table).
      */
-    public BufferedImage generate() {
-        final BufferedImage image = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
+    private void render(final CaptchaCanvas canvas, final String text, final RandomGenerator random, final boolean seeded) {
+        if (canvas.getWidth() != this.getWidth() || canvas.getHeight() != this.getHeight())
+            throw new IllegalArgumentException("The canvas must have the size " + this.getWidth() + "x" + this.getHeight() + ".");
         
-        final String text = this.getText() != null ? this.getText() : this.getTextGenerator().callback(this.getTextLength());
-        this.setTextLength(text.length());
-        this.setText(text);
+        canvas.clear();
+        
+        final CaptchaMetrics metrics = this.getMetrics();
+        if (!metrics.isEnabled()) {
+            this.drawText(canvas, random, text);
+            this.drawStrokeNoise(canvas, random, seeded);
+            this.drawGaussianNoise(canvas, random, seeded);
+            return;
+        }
         
-        final Graphics2D graphics = image.createGraphics();
-        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        graphics.setFont(this.getFont());
+        long start = System.nanoTime();
+        this.drawText(canvas, random, text);
+        long end = System.nanoTime();
+        metrics.recordStage(Stage.TEXT, end - start);
         
-        this.drawText(graphics);
-        this.drawStrokeNoise(graphics);
-        this.drawGaussianNoise(image);
+        if (this.isStrokeNoise()) {
+            start = end;
+            this.drawStrokeNoise(canvas, random, seeded);
+            end = System.nanoTime();
+            metrics.recordStage(Stage.STROKE_NOISE, end - start);
+        }
         
-        graphics.dispose();
+        if (this.isGaussianNoise()) {
+            start = end;
+            this.drawGaussianNoise(canvas, random, seeded);
+            end = System.nanoTime();
+            metrics.recordStage(Stage.GAUSSIAN_NOISE, end - start);
+        }
         
-        return image;
+        metrics.recordFrame();
+    }
+    
+    /**
+     * Warms up this template in the calling thread, so the first real captchas don't pay
+     * for the initialization of the fonts and the JIT (see {@link CaptchaWarmUp} for a
+     * warm-up in the background).
+     *
+     * @param renders
+     *         the amount of throwaway captchas.
+     * @param encoders
+     *         the encoders the throwaway captchas are run through or none for the default
+     *         PNG encoder.
+     *
+     * @return the report of the warm-up.
+     */
+    public CaptchaWarmUp.Report warmUp(final int renders, final CaptchaEncoder... encoders) {
+        return CaptchaWarmUp.builder()
+                .captcha(this)
+                .renders(renders)
+                .encoders(List.of(encoders))
+                .build()
+                .run();
+    }
+    
+    /**
+     * Creates an empty canvas with the size and font of the captcha. It is a grayscale
+     * canvas if {@link #isGrayscale()} is set.
+     *
+     * @return an empty canvas with the size and font of the captcha.
+     */
+    public CaptchaCanvas createCanvas() {
+        return new CaptchaCanvas(this.getWidth(), this.getHeight(), this.getFont(), this.isGrayscale());
+    }
+    
+    /**
+     * Returns the text for the next captcha. If a fixed text was set it will be used,
+     * otherwise a new one gets generated.
+     *
+     * @return the text for the next captcha.
+     */
+    public String nextText() {
+        return this.getText() != null ? this.getText() : this.getTextGenerator().generate(this.getTextRandomStrategy().current(), this.getTextLength());
+    }
+    
+    /**
+     * Returns the text which belongs to the seed. If a fixed text was set it will be used,
+     * otherwise the text is generated from a generator seeded with the seed, so the same
+     * seed always results in the same text (e.g. to verify a captcha without storing its
+     * text).
+     *
+     * @param seed
+     *         the seed of the text (it must be secret, otherwise the text is known).
+     *
+     * @return the text which belongs to the seed.
+     */
+    public String nextText(final long seed) {
+        return this.getText() != null ? this.getText() : this.getTextGenerator().generate(new SplittableRandom(seed), this.getTextLength());
     }
     
     /**
-     * Writes a text to the provided graphics. Each character gets rotated and is
-     * positioned at random locations.
+     * Writes a text to the provided canvas. Each character gets rotated and is
+     * positioned at random locations. The {@link RenderBackend#SOFTWARE} backend fills the
+     * glyph outlines with the rasterizer of the canvas. With Java2D the characters are
+     * composited from cached masks directly onto the pixels of the canvas if the glyph
+     * cache is enabled, otherwise they are drawn by the graphics of the canvas.
      *
-     * @param graphics
-     *         the graphics used to write the text to.
+     * @param canvas
+     *         the canvas used to write the text to.
+     * @param random
+     *         the random generator used for the positions and rotations.
+     * @param text
+     *         the text which should be written.
      */
-    private void drawText(final Graphics2D graphics) {
+    void drawText(final CaptchaCanvas canvas, final RandomGenerator random, final String text) {
+        final Graphics2D graphics = canvas.getGraphics();
+        final boolean software = this.getRenderBackend() == RenderBackend.SOFTWARE;
+        final boolean masks = this.isGlyphCache() && !software;
+        final GlyphCache glyphCache = masks || software ? GlyphCache.of(this.getFont()) : null;
+        final char[] characters = text.toCharArray();
+        
+        final int fontHeight = glyphCache != null ? glyphCache.getFontHeight() : graphics.getFontMetrics().getHeight();
+        final float minY = fontHeight;
+        final float maxY = this.getHeight() - fontHeight;
+        
         graphics.setColor(this.getStrokeNoiseColor());
         
-        final float segment = (float) this.getWidth() / (float) this.getTextLength();
-        for (int index = 0; index < this.getTextLength(); index++) {
+        final float segment = (float) this.getWidth() / (float) characters.length;
+        for (int index = 0; index < characters.length; index++) {
             final float minX = (index * segment) + (segment / 4);
             final float maxX = ((index + 1) * segment) - (segment / 4);
-            final float minY = graphics.getFontMetrics().getHeight();
-            final float maxY = this.getHeight() - graphics.getFontMetrics().getHeight();
             
-            final int randomX = (int) RandomUtils.nextFloat(minX, maxX);
-            final int randomY = (int) RandomUtils.nextFloat(minY, maxY);
+            final int randomX = (int) RandomUtils.nextFloat(random, minX, maxX);
+            final int randomY = (int) RandomUtils.nextFloat(random, minY, maxY);
             
-            final double theta = Math.toRadians(ThreadLocalRandom.current().nextInt(
+            final int degrees = random.nextInt(
                     -this.getTextHalfRotation(),
-                    this.getTextHalfRotation())
+                    this.getTextHalfRotation()
             );
             
+            if (masks) {
+                final GlyphCache.GlyphMask mask = glyphCache.getMask(characters[index], degrees);
+                if (canvas.isGrayscale())
+                    mask.draw(canvas.getGrayPixels(), this.getWidth(), this.getHeight(), randomX, randomY, this.getStrokeNoiseColor());
+                else mask.draw(canvas.getPixels(), this.getWidth(), this.getHeight(), randomX, randomY, this.getStrokeNoiseColor());
+                continue;
+            }
+            
+            final double theta = Math.toRadians(degrees);
+            if (software) {
+                final Rasterizer rasterizer = canvas.getRasterizer();
+                rasterizer.addGlyph(glyphCache.getOutline(characters[index]), theta, randomX, randomY);
+                if (canvas.isGrayscale())
+                    rasterizer.fill(canvas.getGrayPixels(), this.getWidth(), this.getHeight(), this.getStrokeNoiseColor());
+                else rasterizer.fill(canvas.getPixels(), this.getWidth(), this.getHeight(), this.getStrokeNoiseColor());
+                continue;
+            }
+            
             graphics.rotate(theta, randomX, randomY);
-            graphics.drawChars(this.getText().toCharArray(), index, 1, randomX, randomY);
+            graphics.drawChars(characters, index, 1, randomX, randomY);
             graphics.rotate(-theta, randomX, randomY);
         }
     }
     
     /**
-     * Adds gaussian noise to the image provided. This makes it harder to read the captcha
+     * Adds gaussian noise to the canvas provided. This makes it harder to read the captcha
      * (used to prevent bots).
      *
-     * @param image
-     *         the image which will get noised.
+     * @param canvas
+     *         the canvas which will get noised.
+     * @param random
+     *         the random generator used to pick the noise.
      */
-    private void drawGaussianNoise(final BufferedImage image) {
+    void drawGaussianNoise(final CaptchaCanvas canvas, final RandomGenerator random) {
+        this.drawGaussianNoise(canvas, random, false);
+    }
+    
+    /**
+     * Adds gaussian noise to the canvas provided. Seeded captchas sample the noise of every
+     * pixel from the random generator, otherwise the plates or the shared gaussian table
+     * are used.
+     *
+     * @param canvas
+     *         the canvas which will get noised.
+     * @param random
+     *         the random generator used to pick the noise.
+     * @param seeded
+     *         the flag if the noise must only depend on the random generator.
+     */
+    private void drawGaussianNoise(final CaptchaCanvas canvas, final RandomGenerator random, final boolean seeded) {
         if (!this.isGaussianNoise())
             return;
         
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                final double noise = RandomUtils.nextGaussian() * this.getGaussianNoiseSigma() + this.getGaussianNoiseMean();
-                final Color color = new Color(image.getRGB(x, y));
-                
-                final int gray = (color.getRed() + color.getGreen() + color.getBlue()) / 3;
-                final byte alpha = (byte) color.getAlpha();
-                
-                final double newColorD = Math.min(Math.max(0, gray + noise), 255);
-                final byte newColor = (byte) Math.round(newColorD);
-                
-                final int rgb = GraphicUtils.rgbaToInt(newColor, newColor, newColor, alpha);
-                
-                image.setRGB(x, y, rgb);
-            }
+        if (seeded) {
+            if (canvas.isGrayscale())
+                NoiseUtils.sampledGaussianNoise(random, canvas.getGrayPixels(), this.getWidth(), this.getHeight(), this.getGaussianNoiseMean(), this.getGaussianNoiseSigma());
+            else NoiseUtils.sampledGaussianNoise(random, canvas.getPixels(), this.getWidth(), this.getHeight(), this.getGaussianNoiseMean(), this.getGaussianNoiseSigma());
+            return;
         }
+        
+        if (this.getNoisePlateCount() > 0) {
+            if (canvas.isGrayscale())
+                this.getNoisePlates().drawGaussian(canvas.getGrayPixels(), random);
+            else this.getNoisePlates().drawGaussian(canvas.getPixels(), random);
+            return;
+        }
+        
+        if (canvas.isGrayscale())
+            NoiseUtils.gaussianNoise(random, canvas.getGrayPixels(), this.getWidth(), this.getHeight(), this.getGaussianNoiseMean(), this.getGaussianNoiseSigma());
+        else NoiseUtils.gaussianNoise(random, canvas.getPixels(), this.getWidth(), this.getHeight(), this.getGaussianNoiseMean(), this.getGaussianNoiseSigma());
+    }
+    
+    /**
+     * Draws random strokes to the canvas so the text is not as visible as before.
+     *
+     * @param canvas
+     *         the canvas used to draw the strokes to.
+     * @param random
+     *         the random generator used for the points of the strokes.
+     */
+    void drawStrokeNoise(final CaptchaCanvas canvas, final RandomGenerator random) {
+        this.drawStrokeNoise(canvas, random, false);
     }
     
     /**
-     * Draws random strokes to the graphics so the text is not as visible as before.
+     * Draws random strokes to the canvas with the {@link #getRenderBackend()}. Seeded
+     * captchas always draw new strokes instead of using the plates.
      *
-     * @param graphics
-     *         the graphics used to draw the strokes to.
+     * @param canvas
+     *         the canvas used to draw the strokes to.
+     * @param random
+     *         the random generator used for the points of the strokes.
+     * @param seeded
+     *         the flag if the strokes must only depend on the random generator.
      */
-    private void drawStrokeNoise(final Graphics2D graphics) {
+    private void drawStrokeNoise(final CaptchaCanvas canvas, final RandomGenerator random, final boolean seeded) {
         if (!this.isStrokeNoise())
             return;
         
+        if (!seeded && this.getNoisePlateCount() > 0) {
+            if (canvas.isGrayscale())
+                this.getNoisePlates().drawStrokes(canvas.getGrayPixels(), random);
+            else this.getNoisePlates().drawStrokes(canvas.getPixels(), random);
+            return;
+        }
+        
+        if (this.getRenderBackend() == RenderBackend.SOFTWARE) {
+            final Rasterizer rasterizer = canvas.getRasterizer();
+            for (int index = 0; index < this.getStrokeNoiseAmount(); index++) {
+                rasterizer.addStroke(
+                        RandomUtils.nextInt(random, this.getWidth()),
+                        RandomUtils.nextInt(random, this.getHeight()),
+                        RandomUtils.nextInt(random, this.getWidth()),
+                        RandomUtils.nextInt(random, this.getHeight()),
+                        RandomUtils.nextInt(random, this.getWidth()),
+                        RandomUtils.nextInt(random, this.getHeight()),
+                        RandomUtils.nextInt(random, this.getWidth()),
+                        RandomUtils.nextInt(random, this.getHeight())
+                );
+                if (canvas.isGrayscale())
+                    rasterizer.fill(canvas.getGrayPixels(), this.getWidth(), this.getHeight(), this.getStrokeNoiseColor());
+                else rasterizer.fill(canvas.getPixels(), this.getWidth(), this.getHeight(), this.getStrokeNoiseColor());
+            }
+            return;
+        }
+        
+        final Graphics2D graphics = canvas.getGraphics();
         graphics.setColor(this.getStrokeNoiseColor());
         for (int index = 0; index < strokeNoiseAmount; index++) {
             final Path2D.Double path = new Path2D.Double();
             path.moveTo(
-                    RandomUtils.nextInt(this.getWidth()),
-                    RandomUtils.nextInt(this.getHeight())
+                    RandomUtils.nextInt(random, this.getWidth()),
+                    RandomUtils.nextInt(random, this.getHeight())
             );
             path.curveTo(
-                    RandomUtils.nextInt(this.getWidth()),
-                    RandomUtils.nextInt(this.getHeight()),
-                    RandomUtils.nextInt(this.getWidth()),
-                    RandomUtils.nextInt(this.getHeight()),
-                    RandomUtils.nextInt(this.getWidth()),
-                    RandomUtils.nextInt(this.getHeight())
+                    RandomUtils.nextInt(random, this.getWidth()),
+                    RandomUtils.nextInt(random, this.getHeight()),
+                    RandomUtils.nextInt(random, this.getWidth()),
+                    RandomUtils.nextInt(random, this.getHeight()),
+                    RandomUtils.nextInt(random, this.getWidth()),
+                    RandomUtils.nextInt(random, this.getHeight())
             );
             graphics.draw(path);
         }
@@ -0,0 +1,143 @@
+package com.arkoisystems.captcha;
+
+import lombok.Getter;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * The image, graphics and pixels a {@link Captcha} is rendered into. A canvas can be
+ * reused for any amount of captchas of the same size, which avoids allocating a new image
+ * and graphics for every captcha. A canvas must only be used by one thread at a time.
+ * <p>
+ * A grayscale canvas stores one byte per pixel ({@link BufferedImage#TYPE_BYTE_GRAY})
+ * instead of an RGB integer, which needs a quarter of the memory and is handed to the
+ * encoders without any conversion.
+ */
+public class CaptchaCanvas implements Closeable
+{
+    
+    /**
+     * The image of the canvas.
+     */
+    @Getter
+    private final BufferedImage image;
+    
+    /**
+     * The graphics which draws to the image.
+     */
+    @Getter
+    private final Graphics2D graphics;
+    
+    /**
+     * The RGB pixels of the image, row by row (null if the canvas is grayscale).
+     */
+    @Getter
+    private final int[] pixels;
+    
+    /**
+     * The gray pixels of the image, row by row (null if the canvas isn't grayscale).
+     */
+    @Getter
+    private final byte[] grayPixels;
+    
+    /**
+     * The rasterizer of the {@link RenderBackend#SOFTWARE} backend. It keeps its buffers
+     * between the captchas like the canvas itself.
+     */
+    @Getter
+    private final Rasterizer rasterizer = new Rasterizer();
+    
+    /**
+     * Creates a new RGB canvas with antialiasing enabled.
+     *
+     * @param width
+     *         the width of the canvas.
+     * @param height
+     *         the height of the canvas.
+     * @param font
+     *         the font used to write text.
+     */
+    public CaptchaCanvas(final int width, final int height, final Font font) {
+        this(width, height, font, false);
+    }
+    
+    /**
+     * Creates a new canvas with antialiasing enabled.
+     *
+     * @param width
+     *         the width of the canvas.
+     * @param height
+     *         the height of the canvas.
+     * @param font
+     *         the font used to write text.
+     * @param grayscale
+     *         the flag if the canvas stores gray pixels instead of RGB pixels.
+     */
+    public CaptchaCanvas(final int width, final int height, final Font font, final boolean grayscale) {
+        if (grayscale) {
+            this.image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            this.grayPixels = ((DataBufferByte) this.image.getRaster().getDataBuffer()).getData();
+            this.pixels = null;
+        } else {
+            this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            this.pixels = ((DataBufferInt) this.image.getRaster().getDataBuffer()).getData();
+            this.grayPixels = null;
+        }
+        
+        this.graphics = this.image.createGraphics();
+        this.graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        this.graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        this.graphics.setFont(font);
+    }
+    
+    /**
+     * Returns the width of the canvas.
+     *
+     * @return the width of the canvas.
+     */
+    public int getWidth() {
+        return this.image.getWidth();
+    }
+    
+    /**
+     * Returns the height of the canvas.
+     *
+     * @return the height of the canvas.
+     */
+    public int getHeight() {
+        return this.image.getHeight();
+    }
+    
+    /**
+     * Returns the flag if the canvas stores gray pixels (see {@link #getGrayPixels()}).
+     *
+     * @return the flag if the canvas stores gray pixels.
+     */
+    public boolean isGrayscale() {
+        return this.grayPixels != null;
+    }
+    
+    /**
+     * Fills the whole canvas with black.
+     */
+    public void clear() {
+        if (this.isGrayscale())
+            Arrays.fill(this.grayPixels, (byte) 0);
+        else Arrays.fill(this.pixels, 0);
+    }
+    
+    /**
+     * The {@link Closeable#close()} method used to dispose the graphics. The image can
+     * still be used afterwards.
+     */
+    @Override
+    public void close() {
+        this.graphics.dispose();
+    }
+    
+}
@@ -0,0 +1,321 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.Base64OutputStream;
+import lombok.SneakyThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders a {@link Captcha} and encodes it into an image format.
+ */
+public interface CaptchaEncoder
+{
+    
+    /**
+     * Returns the mime type of the encoded bytes.
+     *
+     * @return the mime type of the encoded bytes (e.g. "image/png").
+     */
+    String getMimeType();
+    
+    /**
+     * Renders a captcha showing the provided text into the canvas and writes the encoded
+     * bytes to the output stream. This is used if the text must be known before the bytes
+     * are written (e.g. to send it along with the headers of a response).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be shown by the captcha.
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     */
+    void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final OutputStream outputStream);
+    
+    /**
+     * Renders a seeded captcha (see {@link Captcha#render(CaptchaCanvas, String, long)})
+     * showing the provided text into the canvas and writes the encoded bytes to the output
+     * stream. The same text and seed always result in the same bytes. Every encoder
+     * created by this interface supports it.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be shown by the captcha.
+     * @param seed
+     *         the seed of every random value of the image.
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     *
+     * @throws UnsupportedOperationException
+     *         if the encoder can't render seeded captchas.
+     */
+    default void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final OutputStream outputStream) {
+        throw new UnsupportedOperationException("The encoder \"" + this.getMimeType() + "\" doesn't support seeded captchas.");
+    }
+    
+    /**
+     * Renders a new captcha into the canvas and writes the encoded bytes to the output
+     * stream.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     *
+     * @return the text of the encoded captcha.
+     */
+    default String encode(final Captcha captcha, final CaptchaCanvas canvas, final OutputStream outputStream) {
+        final String text = captcha.nextText();
+        this.encode(captcha, canvas, text, outputStream);
+        return text;
+    }
+    
+    /**
+     * Renders a new captcha and writes the encoded bytes to the output stream.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     *
+     * @return the text of the encoded captcha.
+     */
+    default String encode(final Captcha captcha, final OutputStream outputStream) {
+        try (final CaptchaCanvas canvas = captcha.createCanvas()) {
+            return this.encode(captcha, canvas, outputStream);
+        }
+    }
+    
+    /**
+     * Renders a new captcha into the canvas and encodes it into a byte array.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     *
+     * @return the encoded captcha with its text.
+     */
+    default EncodedCaptcha encode(final Captcha captcha, final CaptchaCanvas canvas) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String text = this.encode(captcha, canvas, outputStream);
+        return new EncodedCaptcha(outputStream.toByteArray(), text, this.getMimeType());
+    }
+    
+    /**
+     * Renders a new captcha and encodes it into a byte array.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     *
+     * @return the encoded captcha with its text.
+     */
+    default EncodedCaptcha encode(final Captcha captcha) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String text = this.encode(captcha, outputStream);
+        return new EncodedCaptcha(outputStream.toByteArray(), text, this.getMimeType());
+    }
+    
+    /**
+     * Renders a new captcha and appends it as a data URI (e.g.
+     * "data:image/png;base64,...") to the target. The bytes are Base64 encoded while the
+     * encoder writes them, so neither the raw bytes nor a copy of the Base64 text are held
+     * in memory. If the encoding fails, the target keeps the prefix which was appended so
+     * far (without the padded last chunk), so it should be discarded or reset.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param target
+     *         the appendable the data URI is appended to (e.g. a {@link StringBuilder} or
+     *         {@link java.io.Writer}).
+     *
+     * @return the text (answer) of the captcha.
+     */
+    @SneakyThrows(IOException.class)
+    default String encodeDataUri(final Captcha captcha, final Appendable target) {
+        target.append("data:").append(this.getMimeType()).append(";base64,");
+        final Base64OutputStream outputStream = new Base64OutputStream(target);
+        final String text = this.encode(captcha, outputStream);
+        outputStream.close();
+        return text;
+    }
+    
+    /**
+     * Renders a new captcha and writes it as a data URI of ASCII bytes into the buffer.
+     * The position of the buffer is advanced by the amount of written bytes. If the encoding
+     * fails (e.g. the buffer is too small), the position is left after the prefix which was
+     * written so far.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param target
+     *         the buffer the data URI is written to.
+     *
+     * @return the text (answer) of the captcha.
+     */
+    @SneakyThrows(IOException.class)
+    default String encodeDataUri(final Captcha captcha, final ByteBuffer target) {
+        target.put(("data:" + this.getMimeType() + ";base64,").getBytes(StandardCharsets.US_ASCII));
+        final Base64OutputStream outputStream = new Base64OutputStream(target);
+        final String text = this.encode(captcha, outputStream);
+        outputStream.close();
+        return text;
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as a PNG image.
+     *
+     * @return an encoder which writes the captcha as a PNG image.
+     */
+    static CaptchaEncoder png() {
+        return png(PNGWriter.DEFAULT);
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as a PNG image with the settings of the
+     * provided writer.
+     *
+     * @param writer
+     *         the writer which encodes the PNG (e.g. {@link PNGWriter#FAST}).
+     *
+     * @return an encoder which writes the captcha as a PNG image.
+     */
+    static CaptchaEncoder png(final PNGWriter writer) {
+        return new CaptchaEncoder()
+        {
+            @Override
+            public String getMimeType() {
+                return "image/png";
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final OutputStream outputStream) {
+                CaptchaGenerator.writeImage(captcha, canvas, text, writer, outputStream);
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final OutputStream outputStream) {
+                CaptchaGenerator.writeImage(captcha, canvas, text, seed, writer, outputStream);
+            }
+        };
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as an animated GIF.
+     *
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     *
+     * @return an encoder which writes the captcha as an animated GIF.
+     */
+    static CaptchaEncoder gif(final int frames, final int speed) {
+        return gif(frames, speed, false);
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as an animated GIF, optionally with
+     * delta frames which only contain the region that changed since the previous frame.
+     *
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     *
+     * @return an encoder which writes the captcha as an animated GIF.
+     */
+    static CaptchaEncoder gif(final int frames, final int speed, final boolean deltaFrames) {
+        return new CaptchaEncoder()
+        {
+            @Override
+            public String getMimeType() {
+                return "image/gif";
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final OutputStream outputStream) {
+                CaptchaGenerator.generateGIF(captcha, canvas, text, frames, speed, deltaFrames, outputStream);
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final OutputStream outputStream) {
+                CaptchaGenerator.generateGIF(captcha, canvas, text, seed, frames, speed, deltaFrames, outputStream);
+            }
+        };
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as an animated GIF whose frames are
+     * rendered in parallel on the executor. The frames need their own canvases, so the
+     * canvas passed to the encoder isn't used.
+     *
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return an encoder which writes the captcha as an animated GIF.
+     */
+    static CaptchaEncoder gif(final int frames, final int speed, final Executor executor, final int parallelism) {
+        return gif(frames, speed, false, executor, parallelism);
+    }
+    
+    /**
+     * Returns an encoder which writes the captcha as an animated GIF whose frames are
+     * rendered in parallel on the executor, optionally with delta frames.
+     *
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return an encoder which writes the captcha as an animated GIF.
+     */
+    static CaptchaEncoder gif(final int frames, final int speed, final boolean deltaFrames, final Executor executor, final int parallelism) {
+        return new CaptchaEncoder()
+        {
+            @Override
+            public String getMimeType() {
+                return "image/gif";
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final OutputStream outputStream) {
+                CaptchaGenerator.generateGIF(captcha, text, frames, speed, deltaFrames, outputStream, executor, parallelism);
+            }
+            
+            @Override
+            public void encode(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final OutputStream outputStream) {
+                CaptchaGenerator.generateGIF(captcha, text, seed, frames, speed, deltaFrames, outputStream, executor, parallelism);
+            }
+        };
+    }
+    
+}
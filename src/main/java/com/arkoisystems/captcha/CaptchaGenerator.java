@@ -1,31 +1,42 @@
 package com.arkoisystems.captcha;
 
+import com.arkoisystems.captcha.metrics.CaptchaMetrics;
+import com.arkoisystems.captcha.metrics.Stage;
+import com.arkoisystems.captcha.utils.ByteBufferOutputStream;
+import com.arkoisystems.captcha.utils.ChannelOutputStream;
+import com.arkoisystems.captcha.utils.CountingOutputStream;
+import com.arkoisystems.captcha.utils.ThreadUtils;
 import lombok.Cleanup;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
-import javax.imageio.ImageIO;
-import javax.imageio.stream.ImageOutputStream;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 @UtilityClass
 public class CaptchaGenerator
 {
     
     /**
-     * Generates a {@link BufferedImage} from the provided {@link Captcha}.
+     * Generates a {@link CaptchaResult} from the provided {@link Captcha}.
      *
      * @param captcha
      *         the {@link Captcha} used to generate the captcha from.
      *
-     * @return a {@link BufferedImage} from the provided {@link Captcha}.
+     * @return a {@link CaptchaResult} from the provided {@link Captcha}.
      */
-    public BufferedImage generateImage(final Captcha captcha) {
+    public CaptchaResult generateImage(final Captcha captcha) {
         return captcha.generate();
     }
     
@@ -36,15 +47,176 @@ public class CaptchaGenerator
      *         the {@link Captcha} used to generate the captcha from.
      * @param path
      *         the path to the destination file.
+     *
+     * @return the text of the written captcha.
      */
     @SneakyThrows
-    public void writeImage(final Captcha captcha, final String path) {
-        final BufferedImage captchaImage = generateImage(captcha);
-        ImageIO.write(captchaImage, "png", new File(path));
+    public String writeImage(final Captcha captcha, final String path) {
+        @Cleanup final FileChannel channel = openFile(path);
+        return writeImage(captcha, channel);
+    }
+    
+    /**
+     * Writes a PNG captcha by the provided {@link Captcha} to the output stream.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final OutputStream outputStream) {
+        @Cleanup final CaptchaCanvas canvas = captcha.createCanvas();
+        return writeImage(captcha, canvas, outputStream);
+    }
+    
+    /**
+     * Renders a captcha into the provided canvas and writes it as a PNG to the output
+     * stream. Reusing the canvas avoids allocating a new image for every captcha.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final CaptchaCanvas canvas, final OutputStream outputStream) {
+        return writeImage(captcha, canvas, captcha.nextText(), outputStream);
+    }
+    
+    /**
+     * Renders a captcha showing the provided text into the canvas and writes it as a PNG
+     * to the output stream.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be shown by the captcha.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final CaptchaCanvas canvas, final String text, final OutputStream outputStream) {
+        return writeImage(captcha, canvas, text, PNGWriter.DEFAULT, outputStream);
+    }
+    
+    /**
+     * Renders a captcha showing the provided text into the canvas and writes it as a PNG
+     * with the settings of the provided writer to the output stream.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be shown by the captcha.
+     * @param writer
+     *         the writer which encodes the PNG (e.g. {@link PNGWriter#FAST}).
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final CaptchaCanvas canvas, final String text, final PNGWriter writer, final OutputStream outputStream) {
+        captcha.render(canvas, text);
+        encodeImage(captcha, canvas, writer, outputStream);
+        return text;
     }
     
     /**
-     * Generates a {@link ByteArrayOutputStream} from the provided {@link Captcha} with n
+     * Renders a seeded captcha (see {@link Captcha#render(CaptchaCanvas, String, long)})
+     * into the canvas and writes it as a PNG to the output stream. The same text and seed
+     * always result in the same image.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param text
+     *         the text which should be shown by the captcha.
+     * @param seed
+     *         the seed of every random value of the image.
+     * @param writer
+     *         the writer which encodes the PNG.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final PNGWriter writer, final OutputStream outputStream) {
+        captcha.render(canvas, text, seed);
+        encodeImage(captcha, canvas, writer, outputStream);
+        return text;
+    }
+    
+    /**
+     * Encodes the rendered canvas as a PNG and records the encode time and bytes if the
+     * metrics are enabled.
+     *
+     * @param captcha
+     *         the {@link Captcha} whose metrics receive the measurements.
+     * @param canvas
+     *         the canvas which gets encoded.
+     * @param writer
+     *         the writer which encodes the PNG.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     */
+    private void encodeImage(final Captcha captcha, final CaptchaCanvas canvas, final PNGWriter writer, final OutputStream outputStream) {
+        final CaptchaMetrics metrics = captcha.getMetrics();
+        if (!metrics.isEnabled()) {
+            writer.write(canvas, outputStream);
+            return;
+        }
+        
+        final CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        final long start = System.nanoTime();
+        writer.write(canvas, countingStream);
+        metrics.recordStage(Stage.ENCODE, System.nanoTime() - start);
+        metrics.recordBytes(countingStream.getCount());
+    }
+    
+    /**
+     * Writes a PNG captcha by the provided {@link Captcha} to the channel. The bytes are
+     * written through a reused direct buffer.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param channel
+     *         the blocking channel where the PNG is getting stored (it doesn't get closed).
+     *
+     * @return the text of the written captcha.
+     */
+    @SneakyThrows
+    public String writeImage(final Captcha captcha, final WritableByteChannel channel) {
+        @Cleanup final ChannelOutputStream outputStream = new ChannelOutputStream(channel);
+        return writeImage(captcha, outputStream);
+    }
+    
+    /**
+     * Writes a PNG captcha by the provided {@link Captcha} into the buffer. The position of
+     * the buffer is advanced by the amount of written bytes.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param buffer
+     *         the buffer where the PNG is getting stored.
+     *
+     * @return the text of the written captcha.
+     */
+    public String writeImage(final Captcha captcha, final ByteBuffer buffer) {
+        return writeImage(captcha, new ByteBufferOutputStream(buffer));
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the output stream with n
      * frames.
      *
      * @param captcha
@@ -55,21 +227,441 @@ public class CaptchaGenerator
      *         the milliseconds between each frame.
      * @param outputStream
      *         the output stream where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final int frames, final int speed, final OutputStream outputStream) {
+        @Cleanup final CaptchaCanvas canvas = captcha.createCanvas();
+        return generateGIF(captcha, canvas, frames, speed, outputStream);
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the output stream with n
+     * frames. Every frame is rendered into the same canvas and encoded before the next one
+     * gets rendered.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas every frame is rendered into.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final CaptchaCanvas canvas, final int frames, final int speed, final OutputStream outputStream) {
+        return generateGIF(captcha, canvas, frames, speed, false, outputStream);
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the output stream with n
+     * frames. With delta frames only the region which changed since the previous frame is
+     * written, which makes the GIF smaller when large parts of the frames are the same
+     * (e.g. without gaussian noise).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas every frame is rendered into.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final CaptchaCanvas canvas, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream) {
+        return generateGIF(captcha, canvas, captcha.nextText(), frames, speed, deltaFrames, outputStream);
+    }
+    
+    /**
+     * Writes a GIF captcha showing the provided text in every frame to the output stream
+     * with n frames.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas every frame is rendered into.
+     * @param text
+     *         the text which should be shown in every frame.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final CaptchaCanvas canvas, final String text, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream) {
+        writeGIF(captcha, canvas, frames, speed, deltaFrames, outputStream, (frameCanvas, frame) -> captcha.render(frameCanvas, text));
+        return text;
+    }
+    
+    /**
+     * Writes a seeded GIF captcha showing the provided text in every frame to the output
+     * stream with n frames. Every frame is rendered with its own seed derived from the
+     * provided one, so the same text and seed always result in the same GIF.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas every frame is rendered into.
+     * @param text
+     *         the text which should be shown in every frame.
+     * @param seed
+     *         the seed of every random value of the frames.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final CaptchaCanvas canvas, final String text, final long seed, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream) {
+        writeGIF(captcha, canvas, frames, speed, deltaFrames, outputStream, (frameCanvas, frame) -> captcha.render(frameCanvas, text, frameSeed(seed, frame)));
+        return text;
+    }
+    
+    /**
+     * Renders every frame into the canvas and encodes it before the next one gets
+     * rendered.
+     *
+     * @param captcha
+     *         the {@link Captcha} whose metrics receive the measurements.
+     * @param canvas
+     *         the canvas every frame is rendered into.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param renderer
+     *         the function which renders a frame (by its index) into a canvas.
+     */
+    private void writeGIF(final Captcha captcha, final CaptchaCanvas canvas, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream, final ObjIntConsumer<CaptchaCanvas> renderer) {
+        final CaptchaMetrics metrics = captcha.getMetrics();
+        final CountingOutputStream countingStream = metrics.isEnabled() ? new CountingOutputStream(outputStream) : null;
+        
+        long encodeTime = 0;
+        try (final GIFWriter writer = new GIFWriter(countingStream != null ? countingStream : outputStream, speed <= 0 ? 1 : speed, true, deltaFrames)) {
+            for (int index = 0; index <= frames; index++) {
+                renderer.accept(canvas, index);
+                
+                final long start = countingStream != null ? System.nanoTime() : 0;
+                writer.writeToSequence(canvas.getImage());
+                if (countingStream != null)
+                    encodeTime += System.nanoTime() - start;
+            }
+        }
+        
+        if (countingStream != null) {
+            metrics.recordStage(Stage.ENCODE, encodeTime);
+            metrics.recordBytes(countingStream.getCount());
+        }
+    }
+    
+    /**
+     * Derives the seed of a frame from the seed of a GIF.
+     *
+     * @param seed
+     *         the seed of the GIF.
+     * @param frame
+     *         the index of the frame.
+     *
+     * @return the seed of the frame.
+     */
+    private long frameSeed(final long seed, final int frame) {
+        return seed + frame * 0x9E3779B97F4A7C15L;
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the output stream with n
+     * frames which are rendered in parallel. Up to {@code parallelism} frames are rendered
+     * at the same time on the executor while the calling thread encodes the finished
+     * frames in order, so the latency is roughly the render time of one frame plus the
+     * encoding.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param executor
+     *         the executor which renders the frames (e.g. {@link
+     *         ThreadUtils#newVirtualThreadExecutor()}).
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final int frames, final int speed, final OutputStream outputStream, final Executor executor, final int parallelism) {
+        return generateGIF(captcha, frames, speed, false, outputStream, executor, parallelism);
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the output stream with n
+     * frames which are rendered in parallel, optionally as delta frames (see {@link
+     * #generateGIF(Captcha, CaptchaCanvas, int, int, boolean, OutputStream)}).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream, final Executor executor, final int parallelism) {
+        return generateGIF(captcha, captcha.nextText(), frames, speed, deltaFrames, outputStream, executor, parallelism);
+    }
+    
+    /**
+     * Writes a GIF captcha showing the provided text in every frame to the output stream
+     * with n frames which are rendered in parallel.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param text
+     *         the text which should be shown in every frame.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final String text, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream, final Executor executor, final int parallelism) {
+        writeGIF(captcha, frames, speed, deltaFrames, outputStream, executor, parallelism, (canvas, frame) -> captcha.render(canvas, text));
+        return text;
+    }
+    
+    /**
+     * Writes a seeded GIF captcha showing the provided text in every frame to the output
+     * stream with n frames which are rendered in parallel. Every frame has its own seed
+     * derived from the provided one, so the GIF is the same as the one of {@link
+     * #generateGIF(Captcha, CaptchaCanvas, String, long, int, int, boolean, OutputStream)}.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param text
+     *         the text which should be shown in every frame.
+     * @param seed
+     *         the seed of every random value of the frames.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final String text, final long seed, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream, final Executor executor, final int parallelism) {
+        writeGIF(captcha, frames, speed, deltaFrames, outputStream, executor, parallelism, (canvas, frame) -> captcha.render(canvas, text, frameSeed(seed, frame)));
+        return text;
+    }
+    
+    /**
+     * Renders up to {@code parallelism} frames at the same time on the executor while the
+     * calling thread encodes the finished frames in order.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to create the canvases.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param deltaFrames
+     *         the flag if a frame may be written as the region which changed (see
+     *         {@link GIFWriter}).
+     * @param outputStream
+     *         the output stream where the GIF is getting stored.
+     * @param executor
+     *         the executor which renders the frames.
+     * @param parallelism
+     *         the maximum amount of frames which are rendered at the same time.
+     * @param renderer
+     *         the function which renders a frame (by its index) into a canvas.
      */
     @SneakyThrows
-    public void generateGIF(final Captcha captcha, final int frames, final int speed, final OutputStream outputStream) {
-        BufferedImage captchaImage = captcha.generate();
+    private void writeGIF(final Captcha captcha, final int frames, final int speed, final boolean deltaFrames, final OutputStream outputStream, final Executor executor, final int parallelism, final ObjIntConsumer<CaptchaCanvas> renderer) {
+        final int total = frames + 1;
+        final int window = Math.max(1, Math.min(parallelism, total));
+        
+        final CaptchaCanvas[] canvases = new CaptchaCanvas[window];
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<CaptchaCanvas>[] pending = (CompletableFuture<CaptchaCanvas>[]) new CompletableFuture<?>[window];
+        for (int slot = 0; slot < window; slot++) {
+            canvases[slot] = captcha.createCanvas();
+            pending[slot] = renderAsync(renderer, canvases[slot], slot, executor);
+        }
         
-        @Cleanup final ImageOutputStream memoryOutput = new MemoryCacheImageOutputStream(outputStream);
-        @Cleanup final GIFWriter writer = new GIFWriter(memoryOutput, captchaImage.getType(), speed <= 0 ? 1 : speed, true);
+        final CaptchaMetrics metrics = captcha.getMetrics();
+        final CountingOutputStream countingStream = metrics.isEnabled() ? new CountingOutputStream(outputStream) : null;
+        
+        long encodeTime = 0;
+        try (final GIFWriter writer = new GIFWriter(countingStream != null ? countingStream : outputStream, speed <= 0 ? 1 : speed, true, deltaFrames)) {
+            for (int index = 0; index < total; index++) {
+                final int slot = index % window;
+                final CaptchaCanvas canvas = pending[slot].join();
+                
+                final long start = countingStream != null ? System.nanoTime() : 0;
+                writer.writeToSequence(canvas.getImage());
+                if (countingStream != null)
+                    encodeTime += System.nanoTime() - start;
+                
+                if (index + window < total)
+                    pending[slot] = renderAsync(renderer, canvas, index + window, executor);
+            }
+        } catch (final CompletionException exception) {
+            throw exception.getCause();
+        } finally {
+            for (int slot = 0; slot < window; slot++) {
+                final CaptchaCanvas canvas = canvases[slot];
+                pending[slot].whenComplete((result, throwable) -> canvas.close());
+            }
+        }
         
-        writer.writeToSequence(captchaImage);
-        for (int index = 0; index < frames; index++) {
-            captchaImage = captcha.generate();
-            writer.writeToSequence(captchaImage);
+        if (countingStream != null) {
+            metrics.recordStage(Stage.ENCODE, encodeTime);
+            metrics.recordBytes(countingStream.getCount());
         }
     }
     
+    /**
+     * Renders a frame into the canvas on the executor.
+     *
+     * @param renderer
+     *         the function which renders a frame (by its index) into a canvas.
+     * @param canvas
+     *         the canvas the frame is rendered into.
+     * @param frame
+     *         the index of the frame.
+     * @param executor
+     *         the executor which renders the frame.
+     *
+     * @return a future which completes with the canvas once the frame is rendered.
+     */
+    private CompletableFuture<CaptchaCanvas> renderAsync(final ObjIntConsumer<CaptchaCanvas> renderer, final CaptchaCanvas canvas, final int frame, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            renderer.accept(canvas, frame);
+            return canvas;
+        }, executor);
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} to the channel with n frames.
+     * Every frame is encoded and written through a reused direct buffer as soon as it is
+     * rendered, so the memory needed doesn't depend on the amount of frames.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param channel
+     *         the blocking channel where the GIF is getting stored (it doesn't get closed).
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    @SneakyThrows
+    public String generateGIF(final Captcha captcha, final int frames, final int speed, final WritableByteChannel channel) {
+        @Cleanup final ChannelOutputStream outputStream = new ChannelOutputStream(channel);
+        return generateGIF(captcha, frames, speed, outputStream);
+    }
+    
+    /**
+     * Writes a GIF captcha by the provided {@link Captcha} into the buffer with n frames.
+     * The position of the buffer is advanced by the amount of written bytes.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param buffer
+     *         the buffer where the GIF is getting stored.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIF(final Captcha captcha, final int frames, final int speed, final ByteBuffer buffer) {
+        return generateGIF(captcha, frames, speed, new ByteBufferOutputStream(buffer));
+    }
+    
+    /**
+     * Appends a GIF captcha by the provided {@link Captcha} with n frames as a data URI
+     * ("data:image/gif;base64,...") to the target, e.g. to embed it into a page. The GIF
+     * is Base64 encoded while it is written, see {@link CaptchaEncoder#encodeDataUri(Captcha,
+     * Appendable)}.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param frames
+     *         the amount of frames the GIF should have.
+     * @param speed
+     *         the milliseconds between each frame.
+     * @param target
+     *         the appendable the data URI is appended to.
+     *
+     * @return the text which is shown in every frame of the GIF.
+     */
+    public String generateGIFDataUri(final Captcha captcha, final int frames, final int speed, final Appendable target) {
+        return CaptchaEncoder.gif(frames, speed).encodeDataUri(captcha, target);
+    }
+    
     /**
      * Writes a GIF captcha by the provided {@link Captcha} and path with n frames.
      *
@@ -81,14 +673,161 @@ public class CaptchaGenerator
      *         the amount of frames the GIF should have.
      * @param speed
      *         the milliseconds between each frame.
+     *
+     * @return the text which is shown in every frame of the GIF.
      */
     @SneakyThrows
-    public void writeGIF(final Captcha captcha, final String path, final int frames, final int speed) {
-        @Cleanup final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        generateGIF(captcha, frames, speed, outputStream);
-        @Cleanup final FileOutputStream fileOutputStream = new FileOutputStream(path);
+    public String writeGIF(final Captcha captcha, final String path, final int frames, final int speed) {
+        @Cleanup final FileChannel channel = openFile(path);
+        return generateGIF(captcha, frames, speed, channel);
+    }
+    
+    /**
+     * Generates n captchas in parallel on the common {@link ForkJoinPool} and returns
+     * them once all are done.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captchas from.
+     * @param encoder
+     *         the encoder used to render and encode the captchas.
+     * @param count
+     *         the amount of captchas which should be generated.
+     *
+     * @return the generated captchas (in no particular order).
+     */
+    public List<EncodedCaptcha> generateBatch(final Captcha captcha, final CaptchaEncoder encoder, final int count) {
+        final ConcurrentLinkedQueue<EncodedCaptcha> encodedCaptchas = new ConcurrentLinkedQueue<>();
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        generateBatch(captcha, encoder, count, pool, pool.getParallelism(), encodedCaptchas::add);
+        return new ArrayList<>(encodedCaptchas);
+    }
+    
+    /**
+     * Generates n captchas in parallel and hands every captcha to the consumer as soon as
+     * it is encoded. The work is split into one task per worker; every worker reuses its
+     * own canvas and output buffer for all of its captchas. This method returns once all
+     * captchas are generated.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captchas from.
+     * @param encoder
+     *         the encoder used to render and encode the captchas.
+     * @param count
+     *         the amount of captchas which should be generated.
+     * @param executor
+     *         the executor which runs the workers.
+     * @param parallelism
+     *         the amount of workers.
+     * @param consumer
+     *         the consumer which receives the captchas (it is called by multiple threads
+     *         at the same time).
+     */
+    @SneakyThrows
+    public void generateBatch(final Captcha captcha, final CaptchaEncoder encoder, final int count, final Executor executor, final int parallelism, final Consumer<EncodedCaptcha> consumer) {
+        if (count <= 0)
+            return;
+        
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final int workers = Math.max(1, Math.min(parallelism, count));
         
-        outputStream.writeTo(fileOutputStream);
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+        for (int index = 0; index < workers; index++) {
+            futures[index] = CompletableFuture.runAsync(() -> {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try (final CaptchaCanvas canvas = captcha.createCanvas()) {
+                    while (remaining.getAndDecrement() > 0) {
+                        outputStream.reset();
+                        final String text = encoder.encode(captcha, canvas, outputStream);
+                        consumer.accept(new EncodedCaptcha(outputStream.toByteArray(), text, encoder.getMimeType()));
+                    }
+                } catch (final RuntimeException exception) {
+                    remaining.set(0);
+                    throw exception;
+                }
+            }, executor);
+        }
+        
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (final CompletionException exception) {
+            throw exception.getCause();
+        }
+    }
+    
+    /**
+     * Renders and encodes a captcha on the common {@link ForkJoinPool} without blocking the
+     * calling thread.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param encoder
+     *         the encoder used to render and encode the captcha.
+     *
+     * @return the future which is completed with the encoded captcha.
+     */
+    public CompletableFuture<EncodedCaptcha> generateAsync(final Captcha captcha, final CaptchaEncoder encoder) {
+        return generateAsync(captcha, encoder, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Renders and encodes a captcha on the executor without blocking the calling thread
+     * (e.g. an event loop).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param encoder
+     *         the encoder used to render and encode the captcha.
+     * @param executor
+     *         the executor which renders the captcha (e.g. {@link
+     *         ThreadUtils#newVirtualThreadExecutor()}).
+     *
+     * @return the future which is completed with the encoded captcha.
+     */
+    public CompletableFuture<EncodedCaptcha> generateAsync(final Captcha captcha, final CaptchaEncoder encoder, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> encoder.encode(captcha), executor);
+    }
+    
+    /**
+     * Creates a publisher of an endless stream of captchas, which are rendered on the
+     * executor as the subscribers request them (see {@link CaptchaPublisher}).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captchas from.
+     * @param encoder
+     *         the encoder used to render and encode the captchas.
+     * @param executor
+     *         the executor which renders the captchas.
+     * @param parallelism
+     *         the maximum amount of captchas of a subscription which are rendered at the
+     *         same time.
+     *
+     * @return the publisher of the captchas.
+     */
+    public Flow.Publisher<EncodedCaptcha> publish(final Captcha captcha, final CaptchaEncoder encoder, final Executor executor, final int parallelism) {
+        return CaptchaPublisher.builder()
+                .captcha(captcha)
+                .encoder(encoder)
+                .executor(executor)
+                .parallelism(parallelism)
+                .build();
+    }
+    
+    /**
+     * Opens a file for writing. An existing file gets truncated.
+     *
+     * @param path
+     *         the path to the file.
+     *
+     * @return the channel of the opened file.
+     */
+    @SneakyThrows
+    private FileChannel openFile(final String path) {
+        return FileChannel.open(
+                Paths.get(path),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        );
     }
     
 }
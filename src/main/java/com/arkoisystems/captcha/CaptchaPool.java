@@ -0,0 +1,266 @@
+package com.arkoisystems.captcha;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of already encoded captchas. Background workers refill the pool from a
+ * {@link Captcha} template as soon as it drops to the low watermark and stop when the
+ * high watermark is reached, so taking a captcha is just a queue pop.
+ * <p>
+ * A worker whose captcha couldn't be generated waits before it tries again, starting at
+ * one millisecond and doubling with every failure in a row up to one second, so a
+ * persistent failure (e.g. a missing font) doesn't keep the workers busy.
+ */
+public class CaptchaPool implements Closeable
+{
+    
+    /**
+     * The time a worker waits after the first failure in a row and the maximum time it
+     * waits after further failures.
+     */
+    private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(1), MAX_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * The template used to generate the captchas.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    /**
+     * The encoder used to render and encode the captchas.
+     */
+    @Getter
+    private final CaptchaEncoder encoder;
+    
+    /**
+     * When the pool contains this amount of captchas (or less) the workers start to refill
+     * it.
+     */
+    @Getter
+    private final int lowWatermark;
+    
+    /**
+     * The maximum amount of captchas the pool holds. The workers stop refilling when it is
+     * reached.
+     */
+    @Getter
+    private final int highWatermark;
+    
+    /**
+     * The captchas which are ready to be served.
+     */
+    private final ArrayBlockingQueue<EncodedCaptcha> queue;
+    
+    /**
+     * The background workers which refill the pool.
+     */
+    private final List<Thread> workers;
+    
+    /**
+     * The flag if the workers are currently refilling the pool.
+     */
+    private final AtomicBoolean refilling = new AtomicBoolean(true);
+    
+    /**
+     * The lock and condition used to wake up the workers when a refill is needed.
+     */
+    private final ReentrantLock refillLock = new ReentrantLock();
+    
+    private final Condition refillNeeded = refillLock.newCondition();
+    
+    /**
+     * The amount of captchas which had to be generated inline because the pool was empty.
+     */
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * The amount of captchas which couldn't be generated by a worker.
+     */
+    private final LongAdder failures = new LongAdder();
+    
+    /**
+     * The flag if the pool is closed.
+     */
+    private volatile boolean closed;
+    
+    /**
+     * Creates a new pool and starts its workers, which begin to fill the pool
+     * immediately.
+     *
+     * @param captcha
+     *         the template used to generate the captchas.
+     * @param encoder
+     *         the encoder used to render and encode the captchas (defaults to PNG).
+     * @param lowWatermark
+     *         the size at which the workers start to refill (defaults to a quarter of the
+     *         high watermark).
+     * @param highWatermark
+     *         the maximum amount of captchas in the pool (defaults to 1024).
+     * @param threads
+     *         the amount of background workers (defaults to one).
+     */
+    @Builder
+    private CaptchaPool(final Captcha captcha, final CaptchaEncoder encoder, final int lowWatermark, final int highWatermark, final int threads) {
+        if (captcha == null)
+            throw new NullPointerException("captcha");
+        
+        this.captcha = captcha;
+        this.encoder = encoder != null ? encoder : CaptchaEncoder.png();
+        this.highWatermark = highWatermark > 0 ? highWatermark : 1024;
+        this.lowWatermark = lowWatermark > 0 ? Math.min(lowWatermark, this.highWatermark - 1) : this.highWatermark / 4;
+        this.queue = new ArrayBlockingQueue<>(this.highWatermark);
+        
+        final int workerCount = threads > 0 ? threads : 1;
+        this.workers = new ArrayList<>(workerCount);
+        for (int index = 0; index < workerCount; index++) {
+            final Thread worker = new Thread(this::refill, "captcha-pool-" + index);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+        
+        captcha.getMetrics().registerPool(this);
+    }
+    
+    /**
+     * Takes a captcha out of the pool without blocking.
+     *
+     * @return a captcha out of the pool or null if the pool is empty.
+     */
+    public EncodedCaptcha poll() {
+        final EncodedCaptcha encodedCaptcha = this.queue.poll();
+        this.checkWatermark();
+        return encodedCaptcha;
+    }
+    
+    /**
+     * Takes a captcha out of the pool without blocking. If the pool is empty the captcha
+     * gets generated on the calling thread instead.
+     *
+     * @return a captcha out of the pool or a newly generated one.
+     */
+    public EncodedCaptcha take() {
+        final EncodedCaptcha encodedCaptcha = this.poll();
+        this.getCaptcha().getMetrics().recordPoolTake(encodedCaptcha != null);
+        if (encodedCaptcha != null)
+            return encodedCaptcha;
+        
+        this.misses.increment();
+        return this.getEncoder().encode(this.getCaptcha());
+    }
+    
+    /**
+     * Returns the amount of captchas which are ready to be served.
+     *
+     * @return the amount of captchas which are ready to be served.
+     */
+    public int size() {
+        return this.queue.size();
+    }
+    
+    /**
+     * Returns the amount of captchas which had to be generated inline.
+     *
+     * @return the amount of captchas which had to be generated inline.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which couldn't be generated by a worker.
+     *
+     * @return the amount of captchas which couldn't be generated by a worker.
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+    
+    /**
+     * Wakes up the workers if the pool dropped to the low watermark. The lock is only
+     * taken by the thread which starts the refill.
+     */
+    private void checkWatermark() {
+        if (this.queue.size() > this.getLowWatermark() || !this.refilling.compareAndSet(false, true))
+            return;
+        
+        this.refillLock.lock();
+        try {
+            this.refillNeeded.signalAll();
+        } finally {
+            this.refillLock.unlock();
+        }
+    }
+    
+    /**
+     * The loop of a worker. It waits until a refill is needed and then generates captchas
+     * until the high watermark is reached. Every worker reuses its own canvas and output
+     * buffer.
+     */
+    private void refill() {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long backoff = 0;
+        try (final CaptchaCanvas canvas = this.getCaptcha().createCanvas()) {
+            while (!this.closed) {
+                this.refillLock.lock();
+                try {
+                    while (!this.refilling.get() && !this.closed)
+                        this.refillNeeded.await();
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    this.refillLock.unlock();
+                }
+                
+                if (this.closed)
+                    return;
+                
+                try {
+                    outputStream.reset();
+                    final String text = this.getEncoder().encode(this.getCaptcha(), canvas, outputStream);
+                    
+                    final EncodedCaptcha encodedCaptcha = new EncodedCaptcha(outputStream.toByteArray(), text, this.getEncoder().getMimeType());
+                    if (!this.queue.offer(encodedCaptcha) || this.queue.size() >= this.getHighWatermark())
+                        this.refilling.set(false);
+                    backoff = 0;
+                } catch (final Exception ignored) {
+                    this.failures.increment();
+                    this.getCaptcha().getMetrics().recordPoolFailure();
+                    
+                    // Interrupted by close(), which ends the loop.
+                    backoff = backoff == 0 ? MIN_BACKOFF : Math.min(backoff * 2, MAX_BACKOFF);
+                    LockSupport.parkNanos(this, backoff);
+                }
+                
+                // A take could have happened between the offer and resetting the flag.
+                this.checkWatermark();
+            }
+        }
+    }
+    
+    /**
+     * Stops all workers and unregisters the pool from the metrics. Captchas which are still
+     * in the pool can be taken afterwards.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.workers.forEach(Thread::interrupt);
+        this.getCaptcha().getMetrics().unregisterPool(this);
+    }
+    
+}
@@ -0,0 +1,246 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.ThreadUtils;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Flow.Publisher} of an endless stream of encoded captchas, which lets
+ * non-blocking frameworks pull captchas with backpressure. A captcha is only rendered
+ * once a subscriber requested it, and at most {@code parallelism} captchas of a
+ * subscription are rendered at the same time on the executor, so neither the renders nor
+ * the finished captchas queue up without bound. The captchas are delivered one after
+ * another (never concurrently) on the thread of the executor which finished them or of
+ * the subscriber calling {@link Flow.Subscription#request(long)}.
+ * <p>
+ * Every subscription renders its own captchas and reuses up to {@code parallelism}
+ * canvases, which are closed when the subscription is cancelled or fails.
+ */
+public class CaptchaPublisher implements Flow.Publisher<EncodedCaptcha>
+{
+    
+    /**
+     * The template used to generate the captchas.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    /**
+     * The encoder used to render and encode the captchas.
+     */
+    @Getter
+    private final CaptchaEncoder encoder;
+    
+    /**
+     * The executor which renders the captchas.
+     */
+    @Getter
+    private final Executor executor;
+    
+    /**
+     * The maximum amount of captchas of a subscription which are rendered at the same
+     * time.
+     */
+    @Getter
+    private final int parallelism;
+    
+    /**
+     * Creates a new publisher. Nothing is rendered until a subscriber requests captchas.
+     *
+     * @param captcha
+     *         the template used to generate the captchas.
+     * @param encoder
+     *         the encoder used to render and encode the captchas (defaults to PNG).
+     * @param executor
+     *         the executor which renders the captchas (defaults to the common {@link
+     *         ForkJoinPool}, see {@link ThreadUtils#newVirtualThreadExecutor()} for virtual
+     *         threads).
+     * @param parallelism
+     *         the maximum amount of captchas of a subscription which are rendered at the
+     *         same time (defaults to one).
+     */
+    @Builder
+    private CaptchaPublisher(final Captcha captcha, final CaptchaEncoder encoder, final Executor executor, final int parallelism) {
+        if (captcha == null)
+            throw new NullPointerException("captcha");
+        
+        this.captcha = captcha;
+        this.encoder = encoder != null ? encoder : CaptchaEncoder.png();
+        this.executor = executor != null ? executor : ForkJoinPool.commonPool();
+        this.parallelism = parallelism > 0 ? parallelism : 1;
+    }
+    
+    @Override
+    public void subscribe(final Flow.Subscriber<? super EncodedCaptcha> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+        
+        final CaptchaSubscription subscription = new CaptchaSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+    
+    /**
+     * The subscription of a single subscriber. Every signal to the subscriber is sent by
+     * {@link #drain()}, which only one thread runs at a time.
+     */
+    private class CaptchaSubscription implements Flow.Subscription
+    {
+        
+        /**
+         * The subscriber which receives the captchas.
+         */
+        private final Flow.Subscriber<? super EncodedCaptcha> subscriber;
+        
+        /**
+         * The captchas which are rendered but not delivered yet.
+         */
+        private final Queue<EncodedCaptcha> ready = new ConcurrentLinkedQueue<>();
+        
+        /**
+         * The canvases which aren't used by a render right now.
+         */
+        private final Queue<CaptchaCanvas> canvases = new ConcurrentLinkedQueue<>();
+        
+        /**
+         * The amount of requested captchas whose render wasn't started yet.
+         */
+        private final AtomicLong requested = new AtomicLong();
+        
+        /**
+         * The amount of captchas which are rendered right now.
+         */
+        private final AtomicInteger active = new AtomicInteger();
+        
+        /**
+         * The amount of missed calls of {@link #drain()} while it was running.
+         */
+        private final AtomicInteger work = new AtomicInteger();
+        
+        /**
+         * The first error, which terminates the subscription.
+         */
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        
+        /**
+         * The flag if the subscription was cancelled or terminated.
+         */
+        private volatile boolean cancelled;
+        
+        /**
+         * Creates a new subscription.
+         *
+         * @param subscriber
+         *         the subscriber which receives the captchas.
+         */
+        private CaptchaSubscription(final Flow.Subscriber<? super EncodedCaptcha> subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        @Override
+        public void request(final long amount) {
+            if (amount <= 0) {
+                this.error.compareAndSet(null, new IllegalArgumentException("The amount of requested captchas must be positive (rule 3.9), but was " + amount + "."));
+            } else {
+                this.requested.getAndAccumulate(amount, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            this.drain();
+        }
+        
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            this.drain();
+        }
+        
+        /**
+         * Delivers the rendered captchas, starts new renders as long as there is demand and
+         * a free worker, and terminates the subscription after an error or cancel.
+         */
+        private void drain() {
+            if (this.work.getAndIncrement() != 0)
+                return;
+            
+            int missed = 1;
+            do {
+                if (!this.cancelled) {
+                    final Throwable throwable = this.error.get();
+                    if (throwable != null) {
+                        this.cancelled = true;
+                        this.subscriber.onError(throwable);
+                    } else {
+                        EncodedCaptcha encodedCaptcha;
+                        while (!this.cancelled && (encodedCaptcha = this.ready.poll()) != null)
+                            this.subscriber.onNext(encodedCaptcha);
+                        
+                        while (!this.cancelled && this.error.get() == null && this.active.get() < getParallelism() && this.requested.get() > 0)
+                            this.startRender();
+                    }
+                }
+                
+                if (this.cancelled) {
+                    this.ready.clear();
+                    this.closeCanvases();
+                }
+                
+                missed = this.work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+        
+        /**
+         * Takes one requested captcha and renders it on the executor.
+         */
+        private void startRender() {
+            this.requested.decrementAndGet();
+            this.active.incrementAndGet();
+            try {
+                getExecutor().execute(this::render);
+            } catch (final RuntimeException exception) {
+                this.active.decrementAndGet();
+                this.error.compareAndSet(null, exception);
+                this.work.incrementAndGet();
+            }
+        }
+        
+        /**
+         * Renders and encodes a captcha with a free canvas. This runs on the executor.
+         */
+        private void render() {
+            CaptchaCanvas canvas = this.canvases.poll();
+            try {
+                if (canvas == null)
+                    canvas = getCaptcha().createCanvas();
+                if (!this.cancelled)
+                    this.ready.offer(getEncoder().encode(getCaptcha(), canvas));
+            } catch (final RuntimeException | Error throwable) {
+                this.error.compareAndSet(null, throwable);
+            } finally {
+                if (canvas != null)
+                    this.canvases.offer(canvas);
+                this.active.decrementAndGet();
+            }
+            this.drain();
+        }
+        
+        /**
+         * Closes the canvases which aren't used by a render. The canvases of the renders
+         * which are still running are closed by the drain after they finished.
+         */
+        private void closeCanvases() {
+            CaptchaCanvas canvas;
+            while ((canvas = this.canvases.poll()) != null)
+                canvas.close();
+        }
+        
+    }
+    
+}
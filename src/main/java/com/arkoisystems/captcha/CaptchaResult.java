@@ -0,0 +1,26 @@
+package com.arkoisystems.captcha;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.awt.image.BufferedImage;
+
+@AllArgsConstructor
+@ToString
+public class CaptchaResult
+{
+    
+    /**
+     * The image which was generated by the {@link Captcha}.
+     */
+    @Getter
+    private final BufferedImage image;
+    
+    /**
+     * The text which is shown in the image (the answer of the captcha).
+     */
+    @Getter
+    private final String text;
+    
+}
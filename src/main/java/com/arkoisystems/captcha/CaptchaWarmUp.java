@@ -0,0 +1,265 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.Alphabet;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.awt.*;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Warms up a {@link Captcha} template before it serves real requests. Without it the
+ * first captchas of a new process are slow, because the fonts and Java2D are initialized,
+ * the glyphs are rasterized and every class runs in the interpreter until the JIT
+ * compiled it.
+ * <p>
+ * The warm-up loads the font, fills the {@link GlyphCache} with every character and
+ * rotation the captcha can show, prepares the {@link NoisePlates} and then runs a number
+ * of throwaway captchas through every encoder (the encoded bytes are discarded). The
+ * throwaway captchas are measured by the metrics of the captcha like any other captcha.
+ * <p>
+ * Running the warm-up once with {@code -XX:ArchiveClassesAtExit} creates an AppCDS
+ * archive of every class a captcha needs, which shortens the startup of the following
+ * processes (see the "cdsArchive" task of the server).
+ */
+@Builder
+public class CaptchaWarmUp
+{
+    
+    /**
+     * The template which gets warmed up.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    /**
+     * The encoders the throwaway captchas are run through (in turns). If none is set, the
+     * default PNG encoder is used.
+     */
+    @Builder.Default
+    @Getter
+    private final List<CaptchaEncoder> encoders = List.of();
+    
+    /**
+     * The amount of throwaway captchas. Most of the methods are compiled after a few
+     * hundred captchas.
+     */
+    @Builder.Default
+    @Getter
+    private final int renders = 200;
+    
+    /**
+     * The characters the text can consist of, whose glyphs are rasterized in advance. If
+     * not set, the characters of the {@link Alphabet} of the captcha are used (or the
+     * alphanumeric characters if it uses another text generator).
+     */
+    @Getter
+    private final String characters;
+    
+    /**
+     * The future which is completed with the report of the first warm-up.
+     */
+    private final CompletableFuture<Report> ready = new CompletableFuture<>();
+    
+    /**
+     * Runs the warm-up in the calling thread. Calling it again runs the throwaway captchas
+     * again, but doesn't change the readiness.
+     *
+     * @return the report of the warm-up.
+     */
+    public Report run() {
+        try {
+            final Report report = this.warmUp();
+            this.ready.complete(report);
+            return report;
+        } catch (final RuntimeException | Error throwable) {
+            this.ready.completeExceptionally(throwable);
+            throw throwable;
+        }
+    }
+    
+    /**
+     * Runs the warm-up in a new daemon thread.
+     *
+     * @return the future which is completed with the report when the template is ready.
+     */
+    public CompletableFuture<Report> start() {
+        final Thread thread = new Thread(() -> {
+            try {
+                this.run();
+            } catch (final RuntimeException | Error ignored) {
+                // The future was completed exceptionally already.
+            }
+        }, "captcha-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+        return this.ready;
+    }
+    
+    /**
+     * Returns the flag if the warm-up finished successfully.
+     *
+     * @return true if the template is ready or false if the warm-up is still running,
+     *         failed or wasn't started yet.
+     */
+    public boolean isReady() {
+        return this.ready.isDone() && !this.ready.isCompletedExceptionally();
+    }
+    
+    /**
+     * Returns the future which is completed with the report of the first warm-up.
+     *
+     * @return the future which is completed when the template is ready.
+     */
+    public CompletableFuture<Report> whenReady() {
+        return this.ready;
+    }
+    
+    /**
+     * Runs every step of the warm-up.
+     *
+     * @return the report of the warm-up.
+     */
+    private Report warmUp() {
+        final Captcha captcha = this.getCaptcha();
+        final long start = System.nanoTime();
+        
+        // Loads the font and initializes the rendering of Java2D, which is needed to
+        // rasterize the glyphs even if the software backend is used.
+        final GlyphCache glyphCache = GlyphCache.of(captcha.getFont());
+        final char[] characters = this.getCharacters() != null ? this.getCharacters().toCharArray() : getCharacters(captcha);
+        try (final CaptchaCanvas canvas = captcha.createCanvas()) {
+            canvas.getGraphics().setColor(Color.WHITE);
+            canvas.getGraphics().drawChars(characters, 0, characters.length, 0, captcha.getHeight() / 2);
+        }
+        final long fonts = System.nanoTime();
+        
+        int glyphs = 0;
+        for (final char character : characters) {
+            // The software backend draws the outlines, only Java2D uses the cached masks.
+            if (captcha.getRenderBackend() == RenderBackend.SOFTWARE) {
+                glyphCache.getOutline(character);
+                glyphs++;
+                continue;
+            }
+            if (!captcha.isGlyphCache())
+                continue;
+            
+            // The rotations are picked by nextInt(-half, half), which excludes the upper
+            // bound.
+            for (int degrees = -captcha.getTextHalfRotation(); degrees < captcha.getTextHalfRotation(); degrees++) {
+                glyphCache.getMask(character, degrees);
+                glyphs++;
+            }
+        }
+        final long glyphEnd = System.nanoTime();
+        
+        if (captcha.getNoisePlateCount() > 0)
+            captcha.getNoisePlates().prepare();
+        final long plates = System.nanoTime();
+        
+        final List<CaptchaEncoder> encoders = this.getEncoders().isEmpty() ? List.of(CaptchaEncoder.png()) : this.getEncoders();
+        final OutputStream discard = OutputStream.nullOutputStream();
+        long firstRender = 0, lastRender = 0;
+        try (final CaptchaCanvas canvas = captcha.createCanvas()) {
+            for (int index = 0; index < this.getRenders(); index++) {
+                final long renderStart = System.nanoTime();
+                encoders.get(index % encoders.size()).encode(captcha, canvas, captcha.nextText(), discard);
+                lastRender = System.nanoTime() - renderStart;
+                if (index == 0)
+                    firstRender = lastRender;
+            }
+        }
+        final long end = System.nanoTime();
+        
+        return new Report(
+                Duration.ofNanos(fonts - start),
+                Duration.ofNanos(glyphEnd - fonts),
+                Duration.ofNanos(plates - glyphEnd),
+                Duration.ofNanos(end - plates),
+                glyphs,
+                this.getRenders(),
+                Duration.ofNanos(firstRender),
+                Duration.ofNanos(lastRender)
+        );
+    }
+    
+    /**
+     * Returns the characters the text of the captcha can consist of.
+     *
+     * @param captcha
+     *         the template whose text generator is used.
+     *
+     * @return the characters of the {@link Alphabet} of the captcha or the alphanumeric
+     *         characters if it uses another text generator.
+     */
+    private static char[] getCharacters(final Captcha captcha) {
+        if (captcha.getText() != null)
+            return captcha.getText().toCharArray();
+        
+        final Alphabet alphabet = captcha.getTextGenerator() instanceof Alphabet ? (Alphabet) captcha.getTextGenerator() : Alphabet.ALPHANUMERIC;
+        return alphabet.getCharacters().toCharArray();
+    }
+    
+    /**
+     * The durations of every step of a warm-up.
+     */
+    @AllArgsConstructor
+    @Getter
+    @ToString
+    public static class Report
+    {
+        
+        /**
+         * The time needed to load the font and initialize Java2D.
+         */
+        private final Duration fonts;
+        
+        /**
+         * The time needed to rasterize the glyphs.
+         */
+        private final Duration glyphs;
+        
+        /**
+         * The time needed to prepare the noise plates.
+         */
+        private final Duration plates;
+        
+        /**
+         * The time needed for the throwaway captchas.
+         */
+        private final Duration renders;
+        
+        /**
+         * The amount of rasterized glyphs (masks or outlines).
+         */
+        private final int glyphCount;
+        
+        /**
+         * The amount of throwaway captchas.
+         */
+        private final int renderCount;
+        
+        /**
+         * The time of the first and the last throwaway captcha, which shows how much
+         * faster a warm captcha is.
+         */
+        private final Duration firstRender, lastRender;
+        
+        /**
+         * Returns the time of the whole warm-up.
+         *
+         * @return the time of the whole warm-up.
+         */
+        public Duration getTotal() {
+            return this.fonts.plus(this.glyphs).plus(this.plates).plus(this.renders);
+        }
+        
+    }
+    
+}
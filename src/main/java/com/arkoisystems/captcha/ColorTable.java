@@ -0,0 +1,334 @@
+package com.arkoisystems.captcha;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A color table (palette) with up to 256 colors which is shared by every frame of a GIF.
+ * Captchas with gaussian noise only contain gray pixels, so they use a gray ramp where the
+ * index of a pixel is its gray value. Other captchas use their exact colors if there are
+ * at most 256 of them, otherwise the most common colors of the first frame.
+ */
+public class ColorTable
+{
+    
+    /**
+     * The size of the cache which maps colors to indices (a power of two).
+     */
+    private static final int CACHE_SIZE = 1 << 12;
+    
+    /**
+     * The colors of the table as RGB values.
+     */
+    private final int[] colors;
+    
+    /**
+     * The amount of colors in the table.
+     */
+    private final int size;
+    
+    /**
+     * The flag if the table is a gray ramp (the index of a gray pixel is its value).
+     */
+    private final boolean grayRamp;
+    
+    /**
+     * The cache which maps colors to indices. Empty slots are marked by -1.
+     */
+    private final int[] cacheColors = new int[CACHE_SIZE];
+    
+    private final byte[] cacheIndices = new byte[CACHE_SIZE];
+    
+    private int cacheEntries;
+    
+    /**
+     * Creates a new color table.
+     *
+     * @param colors
+     *         the colors of the table as RGB values.
+     * @param size
+     *         the amount of colors in the table.
+     * @param grayRamp
+     *         the flag if the table is a gray ramp.
+     */
+    private ColorTable(final int[] colors, final int size, final boolean grayRamp) {
+        this.colors = colors;
+        this.size = size;
+        this.grayRamp = grayRamp;
+        
+        Arrays.fill(this.cacheColors, -1);
+        if (!grayRamp) {
+            for (int index = 0; index < size; index++)
+                this.cache(colors[index], index);
+        }
+    }
+    
+    /**
+     * Creates a color table which fits the provided pixels.
+     *
+     * @param pixels
+     *         the RGB pixels of the first frame.
+     * @param length
+     *         the amount of pixels.
+     * @param maxColors
+     *         the maximum amount of colors in the table (at most 256).
+     *
+     * @return a color table which fits the provided pixels.
+     */
+    public static ColorTable create(final int[] pixels, final int length, final int maxColors) {
+        boolean gray = true;
+        for (int index = 0; index < length && gray; index++) {
+            final int rgb = pixels[index];
+            gray = ((rgb >> 16) & 0xFF) == (rgb & 0xFF) && ((rgb >> 8) & 0xFF) == (rgb & 0xFF);
+        }
+        
+        if (gray)
+            return createGray(maxColors);
+        
+        final int[] colors = new int[maxColors];
+        final int[] seen = new int[1024];
+        Arrays.fill(seen, -1);
+        
+        int size = 0;
+        for (int index = 0; index < length; index++) {
+            final int rgb = pixels[index] & 0xFFFFFF;
+            
+            int slot = (rgb * 0x9E3779B1) >>> 22;
+            while (seen[slot] != -1 && seen[slot] != rgb)
+                slot = (slot + 1) & (seen.length - 1);
+            if (seen[slot] == rgb)
+                continue;
+            
+            if (size == maxColors)
+                return createPopular(pixels, length, maxColors);
+            seen[slot] = rgb;
+            colors[size++] = rgb;
+        }
+        
+        return new ColorTable(colors, Math.max(size, 1), false);
+    }
+    
+    /**
+     * Creates a gray ramp from black to white. With 256 colors the index of a gray value
+     * is the value itself.
+     *
+     * @param maxColors
+     *         the amount of colors in the table (at most 256).
+     *
+     * @return a gray ramp with the provided amount of colors.
+     */
+    public static ColorTable createGray(final int maxColors) {
+        final int[] colors = new int[maxColors];
+        for (int index = 0; index < maxColors; index++) {
+            final int value = index * 255 / (maxColors - 1);
+            colors[index] = (value << 16) | (value << 8) | value;
+        }
+        return new ColorTable(colors, maxColors, maxColors == 256);
+    }
+    
+    /**
+     * Creates a color table from the most common colors. The colors are grouped into 4096
+     * buckets (4 bits per channel) and every used bucket is represented by the average
+     * color of its pixels.
+     *
+     * @param pixels
+     *         the RGB pixels of the first frame.
+     * @param length
+     *         the amount of pixels.
+     * @param maxColors
+     *         the maximum amount of colors in the table.
+     *
+     * @return a color table from the most common colors.
+     */
+    private static ColorTable createPopular(final int[] pixels, final int length, final int maxColors) {
+        final int[] counts = new int[4096], reds = new int[4096], greens = new int[4096], blues = new int[4096];
+        for (int index = 0; index < length; index++) {
+            final int rgb = pixels[index];
+            final int red = (rgb >> 16) & 0xFF, green = (rgb >> 8) & 0xFF, blue = rgb & 0xFF;
+            final int bucket = ((red >> 4) << 8) | ((green >> 4) << 4) | (blue >> 4);
+            
+            counts[bucket]++;
+            reds[bucket] += red;
+            greens[bucket] += green;
+            blues[bucket] += blue;
+        }
+        
+        // Sort the buckets by their count (the count is stored in the upper bits).
+        final long[] buckets = new long[4096];
+        for (int bucket = 0; bucket < buckets.length; bucket++)
+            buckets[bucket] = ((long) counts[bucket] << 12) | bucket;
+        Arrays.sort(buckets);
+        
+        final int[] colors = new int[maxColors];
+        int size = 0;
+        for (int index = buckets.length - 1; index >= 0 && size < maxColors; index--) {
+            final int bucket = (int) (buckets[index] & 0xFFF);
+            final int count = counts[bucket];
+            if (count == 0)
+                break;
+            
+            colors[size++] = ((reds[bucket] / count) << 16) | ((greens[bucket] / count) << 8) | (blues[bucket] / count);
+        }
+        
+        return new ColorTable(colors, size, false);
+    }
+    
+    /**
+     * Returns the amount of bits needed for an index (at least one).
+     *
+     * @return the amount of bits needed for an index.
+     */
+    public int getBits() {
+        return getBits(this.size);
+    }
+    
+    /**
+     * Returns the amount of bits needed for the indices of a table with the provided
+     * amount of colors (at least one).
+     *
+     * @param colors
+     *         the amount of colors in the table.
+     *
+     * @return the amount of bits needed for an index.
+     */
+    public static int getBits(final int colors) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(colors - 1));
+    }
+    
+    /**
+     * Returns the flag if the table is a gray ramp of 256 colors, so the index of a gray
+     * value is the value itself.
+     *
+     * @return the flag if the table is a gray ramp of 256 colors.
+     */
+    public boolean isGrayRamp() {
+        return this.grayRamp;
+    }
+    
+    /**
+     * Returns the amount of colors in the table.
+     *
+     * @return the amount of colors in the table.
+     */
+    public int getSize() {
+        return this.size;
+    }
+    
+    /**
+     * Returns the index of the closest color in the table.
+     *
+     * @param rgb
+     *         the color which is searched.
+     *
+     * @return the index of the closest color in the table.
+     */
+    public int indexOf(final int rgb) {
+        if (this.grayRamp) {
+            final int blue = rgb & 0xFF;
+            if (((rgb >> 16) & 0xFF) == blue && ((rgb >> 8) & 0xFF) == blue)
+                return blue;
+        }
+        
+        final int color = rgb & 0xFFFFFF;
+        int slot = (color * 0x9E3779B1) >>> 20;
+        while (this.cacheColors[slot] != -1) {
+            if (this.cacheColors[slot] == color)
+                return this.cacheIndices[slot] & 0xFF;
+            slot = (slot + 1) & (CACHE_SIZE - 1);
+        }
+        
+        final int index = this.findClosest(color);
+        this.cache(color, index);
+        return index;
+    }
+    
+    /**
+     * Searches the closest color in the table (using the squared distance).
+     *
+     * @param rgb
+     *         the color which is searched.
+     *
+     * @return the index of the closest color in the table.
+     */
+    private int findClosest(final int rgb) {
+        final int red = (rgb >> 16) & 0xFF, green = (rgb >> 8) & 0xFF, blue = rgb & 0xFF;
+        
+        int closest = 0, closestDistance = Integer.MAX_VALUE;
+        for (int index = 0; index < this.size; index++) {
+            final int color = this.colors[index];
+            final int deltaRed = ((color >> 16) & 0xFF) - red;
+            final int deltaGreen = ((color >> 8) & 0xFF) - green;
+            final int deltaBlue = (color & 0xFF) - blue;
+            
+            final int distance = deltaRed * deltaRed + deltaGreen * deltaGreen + deltaBlue * deltaBlue;
+            if (distance < closestDistance) {
+                closest = index;
+                closestDistance = distance;
+            }
+        }
+        
+        return closest;
+    }
+    
+    /**
+     * Stores the index of a color in the cache. The cache is cleared when it gets too
+     * full, so it never grows.
+     *
+     * @param rgb
+     *         the color which gets cached.
+     * @param index
+     *         the index of the color.
+     */
+    private void cache(final int rgb, final int index) {
+        if (this.cacheEntries >= CACHE_SIZE * 3 / 4) {
+            Arrays.fill(this.cacheColors, -1);
+            this.cacheEntries = 0;
+        }
+        
+        int slot = (rgb * 0x9E3779B1) >>> 20;
+        while (this.cacheColors[slot] != -1)
+            slot = (slot + 1) & (CACHE_SIZE - 1);
+        
+        this.cacheColors[slot] = rgb;
+        this.cacheIndices[slot] = (byte) index;
+        this.cacheEntries++;
+    }
+    
+    /**
+     * Writes the color table. It is padded with black to a size of 2^{@link #getBits()}
+     * colors as required by the GIF format.
+     *
+     * @param outputStream
+     *         the output stream where the color table is getting stored.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    public void write(final OutputStream outputStream) throws IOException {
+        this.write(outputStream, this.getBits());
+    }
+    
+    /**
+     * Writes the color table padded with black to a size of 2^bits colors, which leaves
+     * room for additional indices (e.g. a transparent one).
+     *
+     * @param outputStream
+     *         the output stream where the color table is getting stored.
+     * @param bits
+     *         the amount of bits of an index (at least {@link #getBits()}).
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    public void write(final OutputStream outputStream, final int bits) throws IOException {
+        final int paddedSize = 1 << Math.max(bits, this.getBits());
+        for (int index = 0; index < paddedSize; index++) {
+            final int rgb = index < this.size ? this.colors[index] : 0;
+            outputStream.write((rgb >> 16) & 0xFF);
+            outputStream.write((rgb >> 8) & 0xFF);
+            outputStream.write(rgb & 0xFF);
+        }
+    }
+    
+}
@@ -0,0 +1,28 @@
+package com.arkoisystems.captcha;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+public class EncodedCaptcha
+{
+    
+    /**
+     * The encoded bytes of the captcha (e.g. a PNG or GIF file).
+     */
+    @Getter
+    private final byte[] data;
+    
+    /**
+     * The text which is shown in the captcha (the answer of the captcha).
+     */
+    @Getter
+    private final String text;
+    
+    /**
+     * The mime type of the encoded bytes (e.g. "image/gif").
+     */
+    @Getter
+    private final String mimeType;
+    
+}
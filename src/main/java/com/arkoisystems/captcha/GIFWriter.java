@@ -1,128 +1,521 @@
 package com.arkoisystems.captcha;
 
+import com.arkoisystems.captcha.utils.ByteBufferOutputStream;
+import com.arkoisystems.captcha.utils.ChannelOutputStream;
 import lombok.Getter;
 import lombok.SneakyThrows;
 
-import javax.imageio.*;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageOutputStream;
-import java.awt.image.RenderedImage;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 
-// https://memorynotfound.com/generate-gif-image-java-delay-infinite-loop-example/
+/**
+ * A streaming encoder for animated GIFs. Every frame shares one global {@link ColorTable}
+ * which is created from the first frame, and all frames are compressed by the same {@link
+ * LZWEncoder}, so no objects are created per frame.
+ * <p>
+ * With delta frames enabled, a frame after the first one can be written as the bounding
+ * rectangle of the pixels which changed since the previous frame. Unchanged pixels inside
+ * of it are transparent and the previous frame is never disposed, so it shows through.
+ * Both encodings are compressed and the smaller one is written, so no frame gets larger
+ * than a full frame. The GIF as a whole can still be a bit larger: one index of the color
+ * table is reserved for the transparent pixels. For captchas, which re-randomize every
+ * frame, the delta nearly never wins, so the mode only pays off for frames which mostly
+ * stay the same.
+ * <p>
+ * Frames of the type {@link BufferedImage#TYPE_BYTE_GRAY} use a gray ramp as the color
+ * table, so their gray values are the color indices and no colors need to be looked up.
+ */
 public class GIFWriter implements Closeable
 {
     
+    /**
+     * The output stream used to write the GIF to.
+     */
+    private final OutputStream output;
+    
+    /**
+     * The flag if the output stream was created by this writer and must be closed by it.
+     */
+    private final boolean ownsOutput;
+    
+    /**
+     * The delay between every frame in milliseconds.
+     */
     @Getter
-    private final ImageWriteParam parameter;
+    private final int delay;
+    
+    /**
+     * The flag if the GIF should be looped or not.
+     */
+    @Getter
+    private final boolean loop;
+    
+    /**
+     * The flag if frames are written as the difference to the previous frame.
+     */
+    @Getter
+    private final boolean deltaFrames;
+    
+    /**
+     * The compressor which is reused for every frame.
+     */
+    private final LZWEncoder encoder = new LZWEncoder();
     
+    /**
+     * The color table which is created from the first frame.
+     */
     @Getter
-    private final ImageWriter writer;
+    private ColorTable colorTable;
     
+    /**
+     * The size of the GIF (the size of the first frame).
+     */
     @Getter
-    private final IIOMetadata metadata;
+    private int width, height;
+    
+    /**
+     * The amount of bits of a color index and the index which is reserved for
+     * transparent pixels (only used with delta frames).
+     */
+    private int bits, transparentIndex;
+    
+    /**
+     * The buffers for the pixels and color indices of a frame which are reused.
+     */
+    private int[] pixels;
+    
+    private byte[] indices;
+    
+    /**
+     * The buffers for the color indices of the previous frame and of the changed region
+     * (only used with delta frames).
+     */
+    private byte[] previousIndices, region;
+    
+    /**
+     * The compressed delta and full frame, of which the smaller one is written (only used
+     * with delta frames).
+     */
+    private ByteArrayOutputStream deltaFrame, fullFrame;
+    
+    /**
+     * The color index of every gray value if the color table isn't a gray ramp of 256
+     * colors (created on the first gray frame).
+     */
+    private byte[] grayIndices;
     
     /**
      * The default constructor for this class.
      *
      * @param output
      *         the output stream used to write the GIF to.
-     * @param imageType
-     *         the image type e.g. PNG.
      * @param delay
      *         the delay between every frame (image)
      * @param loop
      *         the flag if the GIF should be looped or not.
      */
-    @SneakyThrows
-    public GIFWriter(final ImageOutputStream output, final int imageType, final int delay, final boolean loop) {
-        this.writer = ImageIO.getImageWritersBySuffix("gif").next();
-        this.parameter = writer.getDefaultWriteParam();
-        
-        final ImageTypeSpecifier typeSpecifier = ImageTypeSpecifier.createFromBufferedImageType(imageType);
-        this.metadata = writer.getDefaultImageMetadata(typeSpecifier, parameter);
-        
-        this.configureRootMetadata(delay, loop);
-        
-        this.getWriter().setOutput(output);
-        this.getWriter().prepareWriteSequence(null);
+    public GIFWriter(final OutputStream output, final int delay, final boolean loop) {
+        this(output, delay, loop, false);
     }
     
     /**
-     * Configures the metadata so you can loop or delay each image of the GIF.
+     * Creates a writer which can write every frame as the difference to the previous
+     * one.
      *
+     * @param output
+     *         the output stream used to write the GIF to.
      * @param delay
-     *         the delay between every frame (image).
+     *         the delay between every frame (image)
+     * @param loop
+     *         the flag if the GIF should be looped or not.
+     * @param deltaFrames
+     *         the flag if only the changed region of every frame should be written.
+     */
+    public GIFWriter(final OutputStream output, final int delay, final boolean loop, final boolean deltaFrames) {
+        this(isBuffered(output) ? output : new BufferedOutputStream(output, 8192), false, delay, loop, deltaFrames);
+    }
+    
+    /**
+     * Creates a writer which writes the GIF to a channel.
+     *
+     * @param channel
+     *         the blocking channel used to write the GIF to.
+     * @param delay
+     *         the delay between every frame (image)
+     * @param loop
+     *         the flag if the GIF should be looped or not.
+     */
+    public GIFWriter(final WritableByteChannel channel, final int delay, final boolean loop) {
+        this(channel, delay, loop, false);
+    }
+    
+    /**
+     * Creates a writer which writes the GIF to a channel and can write every frame as the
+     * difference to the previous one.
+     *
+     * @param channel
+     *         the blocking channel used to write the GIF to.
+     * @param delay
+     *         the delay between every frame (image)
+     * @param loop
+     *         the flag if the GIF should be looped or not.
+     * @param deltaFrames
+     *         the flag if only the changed region of every frame should be written.
+     */
+    public GIFWriter(final WritableByteChannel channel, final int delay, final boolean loop, final boolean deltaFrames) {
+        this(new ChannelOutputStream(channel), true, delay, loop, deltaFrames);
+    }
+    
+    /**
+     * Creates a writer which writes the GIF to an output stream which is already
+     * buffered.
+     *
+     * @param output
+     *         the output stream used to write the GIF to.
+     * @param ownsOutput
+     *         the flag if the output stream must be closed by this writer.
+     * @param delay
+     *         the delay between every frame (image)
      * @param loop
      *         the flag if the GIF should be looped or not.
+     * @param deltaFrames
+     *         the flag if only the changed region of every frame should be written.
+     */
+    private GIFWriter(final OutputStream output, final boolean ownsOutput, final int delay, final boolean loop, final boolean deltaFrames) {
+        this.output = output;
+        this.ownsOutput = ownsOutput;
+        this.delay = delay;
+        this.loop = loop;
+        this.deltaFrames = deltaFrames;
+    }
+    
+    /**
+     * Checks if an output stream buffers small writes itself (or doesn't need to), so it
+     * doesn't need to be wrapped into another buffer.
+     *
+     * @param output
+     *         the output stream which gets checked.
+     *
+     * @return true if the output stream doesn't need another buffer or false if not.
+     */
+    private static boolean isBuffered(final OutputStream output) {
+        return output instanceof BufferedOutputStream
+                || output instanceof ByteArrayOutputStream
+                || output instanceof ChannelOutputStream
+                || output instanceof ByteBufferOutputStream;
+    }
+    
+    /**
+     * Writes a new image to the sequence used to generate the GIF from. The first image
+     * defines the size and the color table of the GIF.
+     *
+     * @param image
+     *         the image which will be displayed in the GIF.
      */
     @SneakyThrows
-    private void configureRootMetadata(final int delay, final boolean loop) {
-        final String metaFormatName = metadata.getNativeMetadataFormatName();
-        final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(metaFormatName);
+    public void writeToSequence(final BufferedImage image) {
+        this.checkSize(image);
         
-        final IIOMetadataNode controlExtension = this.getNode(root, "GraphicControlExtension");
-        controlExtension.setAttribute("disposalMethod", "none");
-        controlExtension.setAttribute("userInputFlag", "FALSE");
-        controlExtension.setAttribute("transparentColorFlag", "FALSE");
-        controlExtension.setAttribute("delayTime", Integer.toString(delay / 10));
-        controlExtension.setAttribute("transparentColorIndex", "0");
+        final int length = this.width * this.height;
+        final byte[] grayPixels = getGrayPixels(image);
+        if (grayPixels != null) {
+            if (this.colorTable == null)
+                this.writeHeader(ColorTable.createGray(this.isDeltaFrames() ? 255 : 256));
+            this.mapGray(grayPixels, length);
+        } else {
+            final int[] framePixels = this.getPixels(image);
+            if (this.colorTable == null)
+                this.writeHeader(ColorTable.create(framePixels, length, this.isDeltaFrames() ? 255 : 256));
+            
+            for (int index = 0; index < length; index++)
+                this.indices[index] = (byte) this.colorTable.indexOf(framePixels[index]);
+        }
         
-        final IIOMetadataNode appExtensions = this.getNode(root, "ApplicationExtensions");
-        final IIOMetadataNode child = new IIOMetadataNode("ApplicationExtension");
-        child.setAttribute("applicationID", "NETSCAPE");
-        child.setAttribute("authenticationCode", "2.0");
+        if (!this.isDeltaFrames()) {
+            this.writeGraphicControlExtension(0, false);
+            this.writeImageDescriptor(0, 0, this.width, this.height);
+            this.encoder.encode(this.output, this.indices, length, Math.max(2, this.bits));
+            return;
+        }
         
-        final int loopContinuously = loop ? 0 : 1;
-        child.setUserObject(new byte[] { 0x1, (byte) (loopContinuously & 0xFF), (byte) ((loopContinuously >> 8) & 0xFF) });
-        appExtensions.appendChild(child);
+        if (this.previousIndices == null) {
+            this.previousIndices = new byte[length];
+            this.region = new byte[length];
+            this.deltaFrame = new ByteArrayOutputStream();
+            this.fullFrame = new ByteArrayOutputStream();
+            
+            this.writeGraphicControlExtension(1, false);
+            this.writeImageDescriptor(0, 0, this.width, this.height);
+            this.encoder.encode(this.output, this.indices, length, Math.max(2, this.bits));
+        } else this.writeDelta();
         
-        metadata.setFromTree(metaFormatName, root);
+        final byte[] previous = this.previousIndices;
+        this.previousIndices = this.indices;
+        this.indices = previous;
     }
     
     /**
-     * Gets a node from a root node. If it doesn't exist it will create a new child.
-     *
-     * @param root
-     *         the root node used to search the provided name.
-     * @param name
-     *         the name used to search for the node.
+     * Writes the bounding rectangle of the pixels which changed since the previous frame,
+     * or the full frame if its compression isn't larger. Unchanged pixels inside of the
+     * rectangle may be written as transparent. If nothing changed a single transparent
+     * pixel is written, so the delay of the frame is kept.
      *
-     * @return the resulting node found or created by the method.
+     * @throws IOException
+     *         if the output stream can't be written.
      */
-    private IIOMetadataNode getNode(final IIOMetadataNode root, final String name) {
-        final int nodes = root.getLength();
-        for (int index = 0; index < nodes; index++) {
-            if (!root.item(index).getNodeName().equalsIgnoreCase(name))
+    private void writeDelta() throws IOException {
+        final byte[] current = this.indices, previous = this.previousIndices;
+        
+        int minX = this.width, maxX = -1, minY = -1, maxY = -1;
+        for (int y = 0; y < this.height; y++) {
+            final int row = y * this.width;
+            
+            int first = 0;
+            while (first < this.width && current[row + first] == previous[row + first])
+                first++;
+            if (first == this.width)
                 continue;
-            return (IIOMetadataNode) root.item(index);
+            
+            int last = this.width - 1;
+            while (current[row + last] == previous[row + last])
+                last--;
+            
+            minX = Math.min(minX, first);
+            maxX = Math.max(maxX, last);
+            if (minY == -1)
+                minY = y;
+            maxY = y;
+        }
+        
+        if (maxY == -1) {
+            this.writeGraphicControlExtension(1, true);
+            this.region[0] = (byte) this.transparentIndex;
+            this.writeImageDescriptor(0, 0, 1, 1);
+            this.encoder.encode(this.output, this.region, 1, Math.max(2, this.bits));
+            return;
+        }
+        
+        // An unchanged pixel can be written as transparent or as its own color, so it
+        // continues the run of the previous pixel whenever possible (better compression).
+        final byte transparent = (byte) this.transparentIndex;
+        byte last = transparent;
+        int length = 0;
+        for (int y = minY; y <= maxY; y++) {
+            final int row = y * this.width;
+            for (int x = minX; x <= maxX; x++) {
+                final byte index = current[row + x];
+                if (index == previous[row + x] && index != last)
+                    last = transparent;
+                else last = index;
+                this.region[length++] = last;
+            }
         }
         
-        final IIOMetadataNode node = new IIOMetadataNode(name);
-        root.appendChild(node);
+        this.deltaFrame.reset();
+        this.encoder.encode(this.deltaFrame, this.region, length, Math.max(2, this.bits));
+        this.fullFrame.reset();
+        this.encoder.encode(this.fullFrame, current, this.width * this.height, Math.max(2, this.bits));
         
-        return node;
+        if (this.fullFrame.size() <= this.deltaFrame.size()) {
+            this.writeGraphicControlExtension(1, false);
+            this.writeImageDescriptor(0, 0, this.width, this.height);
+            this.fullFrame.writeTo(this.output);
+        } else {
+            this.writeGraphicControlExtension(1, true);
+            this.writeImageDescriptor(minX, minY, maxX - minX + 1, maxY - minY + 1);
+            this.deltaFrame.writeTo(this.output);
+        }
     }
     
     /**
-     * Writes a new image to the sequence used to generate the GIF from.
+     * Takes the size of the GIF from the first frame and checks that every other frame
+     * has the same size.
      *
      * @param image
-     *         the image which will be displayed in the GIF.
+     *         the frame which gets written.
      */
-    @SneakyThrows
-    public void writeToSequence(final RenderedImage image) {
-        this.getWriter().writeToSequence(new IIOImage(image, null, metadata), parameter);
+    private void checkSize(final BufferedImage image) {
+        if (this.colorTable == null) {
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.indices = new byte[this.width * this.height];
+        } else if (image.getWidth() != this.width || image.getHeight() != this.height)
+            throw new IllegalArgumentException("Every frame must have the size " + this.width + "x" + this.height + ".");
+    }
+    
+    /**
+     * Returns the gray pixels of an image of the type {@link
+     * BufferedImage#TYPE_BYTE_GRAY}.
+     *
+     * @param image
+     *         the image whose pixels are needed.
+     *
+     * @return the gray pixels of the image, row by row, or null if it isn't a gray image.
+     */
+    private static byte[] getGrayPixels(final BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY && image.getRaster().getDataBuffer() instanceof DataBufferByte)
+            return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        return null;
+    }
+    
+    /**
+     * Maps gray pixels to color indices. With a gray ramp of 256 colors the pixels are
+     * the indices and are just copied, otherwise every gray value is looked up once.
+     *
+     * @param grayPixels
+     *         the gray pixels of the frame.
+     * @param length
+     *         the amount of pixels.
+     */
+    private void mapGray(final byte[] grayPixels, final int length) {
+        if (this.colorTable.isGrayRamp()) {
+            System.arraycopy(grayPixels, 0, this.indices, 0, length);
+            return;
+        }
+        
+        if (this.grayIndices == null) {
+            this.grayIndices = new byte[256];
+            for (int value = 0; value < 256; value++)
+                this.grayIndices[value] = (byte) this.colorTable.indexOf(value * 0x010101);
+        }
+        
+        final byte[] lookup = this.grayIndices;
+        for (int index = 0; index < length; index++)
+            this.indices[index] = lookup[grayPixels[index] & 0xFF];
+    }
+    
+    /**
+     * Returns the RGB pixels of an image. Images of the type {@link
+     * BufferedImage#TYPE_INT_RGB} are read directly, every other image is copied into a
+     * reused buffer.
+     *
+     * @param image
+     *         the image whose pixels are needed.
+     *
+     * @return the RGB pixels of the image, row by row.
+     */
+    private int[] getPixels(final BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB && image.getRaster().getDataBuffer() instanceof DataBufferInt)
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        
+        if (this.pixels == null)
+            this.pixels = new int[this.width * this.height];
+        return image.getRGB(0, 0, this.width, this.height, this.pixels, 0, this.width);
+    }
+    
+    /**
+     * Writes the header, the logical screen descriptor, the global color table and the
+     * loop extension. With delta frames one index of the color table is reserved for
+     * transparent pixels.
+     *
+     * @param colorTable
+     *         the color table created from the first frame.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeHeader(final ColorTable colorTable) throws IOException {
+        this.colorTable = colorTable;
+        this.transparentIndex = this.colorTable.getSize();
+        this.bits = this.isDeltaFrames() ? ColorTable.getBits(this.transparentIndex + 1) : this.colorTable.getBits();
+        
+        this.output.write(new byte[] { 'G', 'I', 'F', '8', '9', 'a' });
+        this.writeShort(this.width);
+        this.writeShort(this.height);
+        this.output.write(0x80 | ((this.bits - 1) << 4) | (this.bits - 1));
+        this.output.write(0);
+        this.output.write(0);
+        this.colorTable.write(this.output, this.bits);
+        
+        final int loopCount = this.isLoop() ? 0 : 1;
+        this.output.write(0x21);
+        this.output.write(0xFF);
+        this.output.write(11);
+        this.output.write(new byte[] { 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0' });
+        this.output.write(3);
+        this.output.write(1);
+        this.writeShort(loopCount);
+        this.output.write(0);
+    }
+    
+    /**
+     * Writes the graphic control extension containing the delay, the disposal method and
+     * the transparency of a frame.
+     *
+     * @param disposalMethod
+     *         the disposal method of the frame (0 = unspecified, 1 = do not dispose).
+     * @param transparent
+     *         the flag if the reserved transparent index is used by the frame.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeGraphicControlExtension(final int disposalMethod, final boolean transparent) throws IOException {
+        this.output.write(0x21);
+        this.output.write(0xF9);
+        this.output.write(4);
+        this.output.write((disposalMethod << 2) | (transparent ? 1 : 0));
+        this.writeShort(this.getDelay() / 10);
+        this.output.write(transparent ? this.transparentIndex : 0);
+        this.output.write(0);
+    }
+    
+    /**
+     * Writes the image descriptor of a frame.
+     *
+     * @param x
+     *         the x coordinate of the frame inside of the GIF.
+     * @param y
+     *         the y coordinate of the frame inside of the GIF.
+     * @param width
+     *         the width of the frame.
+     * @param height
+     *         the height of the frame.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeImageDescriptor(final int x, final int y, final int width, final int height) throws IOException {
+        this.output.write(0x2C);
+        this.writeShort(x);
+        this.writeShort(y);
+        this.writeShort(width);
+        this.writeShort(height);
+        this.output.write(0);
+    }
+    
+    /**
+     * Writes a 16 bit value in little endian order.
+     *
+     * @param value
+     *         the value which should be written.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeShort(final int value) throws IOException {
+        this.output.write(value & 0xFF);
+        this.output.write((value >> 8) & 0xFF);
     }
     
     /**
-     * The {@link Closeable#close()} method used to close every open stream.
+     * The {@link Closeable#close()} method used to write the trailer of the GIF. The
+     * provided output stream or channel gets flushed but not closed.
      */
     @SneakyThrows
     @Override
     public void close() {
-        this.getWriter().endWriteSequence();
+        this.output.write(0x3B);
+        if (this.ownsOutput)
+            this.output.close();
+        else this.output.flush();
     }
     
 }
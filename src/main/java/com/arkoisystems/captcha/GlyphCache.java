@@ -0,0 +1,364 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.GraphicUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A cache of pre-rasterized glyphs for one {@link Font}. Every glyph is stored as an alpha
+ * mask per character and rotation, so drawing a character is just a composite of the mask
+ * onto the raster instead of shaping and rasterizing it again with Java2D.
+ * <p>
+ * The rotations of the captcha text are whole degrees, so one mask per degree reproduces
+ * every rotation exactly.
+ * <p>
+ * The cache also keeps the flattened outline of every character for the {@link
+ * RenderBackend#SOFTWARE} backend, so the font is only touched once per character.
+ */
+public class GlyphCache
+{
+    
+    /**
+     * The caches of every font which was used until now.
+     */
+    private static final ConcurrentHashMap<Font, GlyphCache> CACHES = new ConcurrentHashMap<>();
+    
+    /**
+     * The amount of rotation buckets (one per degree).
+     */
+    private static final int ROTATIONS = 360;
+    
+    /**
+     * The maximum distance (in pixels) between the curves of a glyph and its flattened
+     * outline.
+     */
+    private static final double FLATNESS = 0.05;
+    
+    /**
+     * The font of the cached glyphs.
+     */
+    @Getter
+    private final Font font;
+    
+    /**
+     * The height of the font (the same as {@link FontMetrics#getHeight()}).
+     */
+    @Getter
+    private final int fontHeight;
+    
+    /**
+     * The render context which matches the hints used by the {@link Captcha}.
+     */
+    private final FontRenderContext renderContext;
+    
+    /**
+     * The masks of every character, indexed by the rotation in degrees.
+     */
+    private final ConcurrentHashMap<Character, AtomicReferenceArray<GlyphMask>> glyphs = new ConcurrentHashMap<>();
+    
+    /**
+     * The flattened outlines of every character.
+     */
+    private final ConcurrentHashMap<Character, GlyphOutline> outlines = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a new cache for the provided font.
+     *
+     * @param font
+     *         the font of the cached glyphs.
+     */
+    private GlyphCache(final Font font) {
+        this.font = font;
+        
+        final Graphics2D graphics = createGraphics(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY));
+        this.fontHeight = graphics.getFontMetrics(font).getHeight();
+        this.renderContext = graphics.getFontRenderContext();
+        graphics.dispose();
+    }
+    
+    /**
+     * Returns the cache of the provided font and creates it if needed.
+     *
+     * @param font
+     *         the font of the cached glyphs.
+     *
+     * @return the cache of the provided font.
+     */
+    public static GlyphCache of(final Font font) {
+        return CACHES.computeIfAbsent(font, GlyphCache::new);
+    }
+    
+    /**
+     * Returns the mask of a character with the provided rotation and rasterizes it if it
+     * isn't cached yet.
+     *
+     * @param character
+     *         the character of the glyph.
+     * @param degrees
+     *         the rotation of the glyph in degrees.
+     *
+     * @return the mask of the character with the provided rotation.
+     */
+    public GlyphMask getMask(final char character, final int degrees) {
+        final AtomicReferenceArray<GlyphMask> rotations = this.glyphs.computeIfAbsent(
+                character,
+                ignored -> new AtomicReferenceArray<>(ROTATIONS)
+        );
+        
+        final int bucket = Math.floorMod(degrees, ROTATIONS);
+        GlyphMask mask = rotations.get(bucket);
+        if (mask == null) {
+            mask = this.rasterize(character, bucket);
+            if (!rotations.compareAndSet(bucket, null, mask))
+                mask = rotations.get(bucket);
+        }
+        
+        return mask;
+    }
+    
+    /**
+     * Returns the flattened outline of a character and creates it if it isn't cached yet.
+     *
+     * @param character
+     *         the character of the glyph.
+     *
+     * @return the outline of the character relative to its origin.
+     */
+    public GlyphOutline getOutline(final char character) {
+        final GlyphOutline outline = this.outlines.get(character);
+        return outline != null ? outline : this.outlines.computeIfAbsent(character, this::flatten);
+    }
+    
+    /**
+     * Flattens the outline of a character into closed polygons.
+     *
+     * @param character
+     *         the character which gets flattened.
+     *
+     * @return the flattened outline of the character.
+     */
+    private GlyphOutline flatten(final char character) {
+        final Shape outline = this.getFont().createGlyphVector(this.renderContext, new char[] { character }).getOutline();
+        final PathIterator iterator = outline.getPathIterator(null, FLATNESS);
+        
+        float[] points = new float[64];
+        int[] contourEnds = new int[4];
+        int length = 0, contours = 0;
+        
+        final float[] coordinates = new float[6];
+        while (!iterator.isDone()) {
+            final int type = iterator.currentSegment(coordinates);
+            if (type == PathIterator.SEG_MOVETO && length > 0 && (contours == 0 || contourEnds[contours - 1] != length)) {
+                if (contours == contourEnds.length)
+                    contourEnds = Arrays.copyOf(contourEnds, contours * 2);
+                contourEnds[contours++] = length;
+            }
+            
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO) {
+                if (length + 2 > points.length)
+                    points = Arrays.copyOf(points, points.length * 2);
+                points[length++] = coordinates[0];
+                points[length++] = coordinates[1];
+            }
+            iterator.next();
+        }
+        
+        if (length > 0 && (contours == 0 || contourEnds[contours - 1] != length)) {
+            if (contours == contourEnds.length)
+                contourEnds = Arrays.copyOf(contourEnds, contours + 1);
+            contourEnds[contours++] = length;
+        }
+        
+        return new GlyphOutline(Arrays.copyOf(points, length), Arrays.copyOf(contourEnds, contours));
+    }
+    
+    /**
+     * Rasterizes a character with the provided rotation into an alpha mask. The glyph is
+     * drawn the same way {@link Graphics2D#drawChars(char[], int, int, int, int)} would
+     * draw it after a rotation around the origin.
+     *
+     * @param character
+     *         the character which gets rasterized.
+     * @param degrees
+     *         the rotation of the glyph in degrees.
+     *
+     * @return the rasterized mask of the character.
+     */
+    private GlyphMask rasterize(final char character, final int degrees) {
+        final double theta = Math.toRadians(degrees);
+        final char[] chars = { character };
+        
+        final Shape outline = this.getFont().createGlyphVector(this.renderContext, chars).getOutline();
+        final Rectangle bounds = AffineTransform.getRotateInstance(theta).createTransformedShape(outline).getBounds();
+        bounds.grow(2, 2);
+        
+        final BufferedImage image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D graphics = createGraphics(image);
+        graphics.setFont(this.getFont());
+        graphics.setColor(Color.WHITE);
+        graphics.translate(-bounds.x, -bounds.y);
+        graphics.rotate(theta);
+        graphics.drawChars(chars, 0, 1, 0, 0);
+        graphics.dispose();
+        
+        final byte[] alpha = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        return new GlyphMask(alpha, bounds.x, bounds.y, bounds.width, bounds.height);
+    }
+    
+    /**
+     * Creates a graphics with the same hints as the {@link Captcha} uses.
+     *
+     * @param image
+     *         the image which the graphics draws to.
+     *
+     * @return a graphics with the same hints as the {@link Captcha} uses.
+     */
+    private static Graphics2D createGraphics(final BufferedImage image) {
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        return graphics;
+    }
+    
+    /**
+     * The outline of a glyph flattened into closed polygons, relative to the origin
+     * (baseline) of the glyph.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class GlyphOutline
+    {
+        
+        /**
+         * The points of every polygon (x and y after each other).
+         */
+        private final float[] points;
+        
+        /**
+         * The index in {@link #getPoints()} after the last point of every polygon.
+         */
+        private final int[] contourEnds;
+        
+    }
+    
+    /**
+     * An alpha mask of a rasterized glyph.
+     */
+    @AllArgsConstructor
+    public static class GlyphMask
+    {
+        
+        /**
+         * The coverage of every pixel (0 - 255), row by row.
+         */
+        private final byte[] alpha;
+        
+        /**
+         * The offset of the mask relative to the origin of the glyph.
+         */
+        @Getter
+        private final int offsetX, offsetY;
+        
+        /**
+         * The size of the mask.
+         */
+        @Getter
+        private final int width, height;
+        
+        /**
+         * Blends the mask with the provided color onto RGB pixels.
+         *
+         * @param pixels
+         *         the RGB pixels of the image.
+         * @param imageWidth
+         *         the width of the image (which is also the scanline stride).
+         * @param imageHeight
+         *         the height of the image.
+         * @param x
+         *         the x coordinate of the origin of the glyph.
+         * @param y
+         *         the y coordinate of the origin (baseline) of the glyph.
+         * @param color
+         *         the color of the glyph (its alpha is respected).
+         */
+        public void draw(final int[] pixels, final int imageWidth, final int imageHeight, final int x, final int y, final Color color) {
+            final int startX = Math.max(0, x + this.offsetX), endX = Math.min(imageWidth, x + this.offsetX + this.width);
+            final int startY = Math.max(0, y + this.offsetY), endY = Math.min(imageHeight, y + this.offsetY + this.height);
+            
+            final int red = color.getRed(), green = color.getGreen(), blue = color.getBlue();
+            final int colorAlpha = color.getAlpha();
+            
+            for (int imageY = startY; imageY < endY; imageY++) {
+                final int maskRow = (imageY - y - this.offsetY) * this.width - x - this.offsetX;
+                final int imageRow = imageY * imageWidth;
+                
+                for (int imageX = startX; imageX < endX; imageX++) {
+                    final int coverage = this.alpha[maskRow + imageX] & 0xFF;
+                    if (coverage == 0)
+                        continue;
+                    
+                    final int alpha = (coverage * colorAlpha + 127) / 255;
+                    final int rgb = pixels[imageRow + imageX];
+                    
+                    final int oldRed = (rgb >> 16) & 0xFF, oldGreen = (rgb >> 8) & 0xFF, oldBlue = rgb & 0xFF;
+                    final int newRed = oldRed + ((red - oldRed) * alpha + 127) / 255;
+                    final int newGreen = oldGreen + ((green - oldGreen) * alpha + 127) / 255;
+                    final int newBlue = oldBlue + ((blue - oldBlue) * alpha + 127) / 255;
+                    
+                    pixels[imageRow + imageX] = (newRed << 16) | (newGreen << 8) | newBlue;
+                }
+            }
+        }
+        
+        /**
+         * Blends the mask with the gray value of the provided color onto gray pixels.
+         *
+         * @param pixels
+         *         the gray pixels of the image.
+         * @param imageWidth
+         *         the width of the image (which is also the scanline stride).
+         * @param imageHeight
+         *         the height of the image.
+         * @param x
+         *         the x coordinate of the origin of the glyph.
+         * @param y
+         *         the y coordinate of the origin (baseline) of the glyph.
+         * @param color
+         *         the color of the glyph (its alpha is respected).
+         */
+        public void draw(final byte[] pixels, final int imageWidth, final int imageHeight, final int x, final int y, final Color color) {
+            final int startX = Math.max(0, x + this.offsetX), endX = Math.min(imageWidth, x + this.offsetX + this.width);
+            final int startY = Math.max(0, y + this.offsetY), endY = Math.min(imageHeight, y + this.offsetY + this.height);
+            
+            final int gray = GraphicUtils.toGray(color.getRed(), color.getGreen(), color.getBlue());
+            final int colorAlpha = color.getAlpha();
+            
+            for (int imageY = startY; imageY < endY; imageY++) {
+                final int maskRow = (imageY - y - this.offsetY) * this.width - x - this.offsetX;
+                final int imageRow = imageY * imageWidth;
+                
+                for (int imageX = startX; imageX < endX; imageX++) {
+                    final int coverage = this.alpha[maskRow + imageX] & 0xFF;
+                    if (coverage == 0)
+                        continue;
+                    
+                    final int alpha = (coverage * colorAlpha + 127) / 255;
+                    final int oldGray = pixels[imageRow + imageX] & 0xFF;
+                    pixels[imageRow + imageX] = (byte) (oldGray + ((gray - oldGray) * alpha + 127) / 255);
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,174 @@
+package com.arkoisystems.captcha;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A LZW compressor for GIF image data. All tables are allocated once, so one encoder can
+ * compress any amount of frames without creating new objects.
+ */
+public class LZWEncoder
+{
+    
+    /**
+     * The maximum code size and the amount of codes allowed by the GIF format.
+     */
+    private static final int MAX_BITS = 12, MAX_CODES = 1 << MAX_BITS;
+    
+    /**
+     * The size of the hash table (a prime number for a good distribution).
+     */
+    private static final int HASH_SIZE = 5003;
+    
+    /**
+     * The keys of the hash table (prefix code and suffix index) or -1 if empty.
+     */
+    private final int[] hashKeys = new int[HASH_SIZE];
+    
+    /**
+     * The codes of the strings stored in the hash table.
+     */
+    private final int[] hashCodes = new int[HASH_SIZE];
+    
+    /**
+     * The current data sub-block (the first byte is reserved for its length).
+     */
+    private final byte[] block = new byte[256];
+    
+    private int blockSize, bitBuffer, bitCount, codeSize;
+    
+    /**
+     * Compresses the color indices and writes them as GIF image data (the minimum code
+     * size, the data sub-blocks and the block terminator).
+     *
+     * @param outputStream
+     *         the output stream where the compressed data is getting stored.
+     * @param indices
+     *         the color indices of the frame, row by row.
+     * @param length
+     *         the amount of indices which should be compressed.
+     * @param minCodeSize
+     *         the amount of bits needed for a color index (at least 2).
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    public void encode(final OutputStream outputStream, final byte[] indices, final int length, final int minCodeSize) throws IOException {
+        final int clearCode = 1 << minCodeSize;
+        final int endCode = clearCode + 1;
+        
+        outputStream.write(minCodeSize);
+        this.blockSize = this.bitBuffer = this.bitCount = 0;
+        
+        this.codeSize = minCodeSize + 1;
+        int nextCode = clearCode + 2;
+        Arrays.fill(this.hashKeys, -1);
+        this.writeCode(outputStream, clearCode);
+        
+        int prefix = length > 0 ? indices[0] & 0xFF : 0;
+        outer:
+        for (int index = 1; index < length; index++) {
+            final int suffix = indices[index] & 0xFF;
+            final int key = (suffix << MAX_BITS) | prefix;
+            
+            int hash = (suffix << 4) ^ prefix;
+            final int displacement = hash == 0 ? 1 : HASH_SIZE - hash;
+            while (this.hashKeys[hash] != -1) {
+                if (this.hashKeys[hash] == key) {
+                    prefix = this.hashCodes[hash];
+                    continue outer;
+                }
+                
+                hash -= displacement;
+                if (hash < 0)
+                    hash += HASH_SIZE;
+            }
+            
+            this.writeCode(outputStream, prefix);
+            if (nextCode < MAX_CODES) {
+                if (nextCode >= (1 << this.codeSize))
+                    this.codeSize++;
+                this.hashKeys[hash] = key;
+                this.hashCodes[hash] = nextCode++;
+            } else {
+                this.writeCode(outputStream, clearCode);
+                this.codeSize = minCodeSize + 1;
+                nextCode = clearCode + 2;
+                Arrays.fill(this.hashKeys, -1);
+            }
+            
+            prefix = suffix;
+        }
+        
+        if (length > 0) {
+            this.writeCode(outputStream, prefix);
+            if (nextCode < MAX_CODES && nextCode >= (1 << this.codeSize))
+                this.codeSize++;
+        }
+        this.writeCode(outputStream, endCode);
+        
+        if (this.bitCount > 0)
+            this.writeByte(outputStream, this.bitBuffer);
+        this.flushBlock(outputStream);
+        outputStream.write(0);
+    }
+    
+    /**
+     * Appends a code with the current code size to the data sub-blocks.
+     *
+     * @param outputStream
+     *         the output stream where full sub-blocks are getting stored.
+     * @param code
+     *         the code which should be written.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeCode(final OutputStream outputStream, final int code) throws IOException {
+        this.bitBuffer |= code << this.bitCount;
+        this.bitCount += this.codeSize;
+        
+        while (this.bitCount >= 8) {
+            this.writeByte(outputStream, this.bitBuffer);
+            this.bitBuffer >>>= 8;
+            this.bitCount -= 8;
+        }
+    }
+    
+    /**
+     * Appends a byte to the current sub-block and writes the sub-block if it is full.
+     *
+     * @param outputStream
+     *         the output stream where full sub-blocks are getting stored.
+     * @param value
+     *         the byte which should be written.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeByte(final OutputStream outputStream, final int value) throws IOException {
+        this.block[++this.blockSize] = (byte) value;
+        if (this.blockSize == 255)
+            this.flushBlock(outputStream);
+    }
+    
+    /**
+     * Writes the current sub-block (if it contains any data).
+     *
+     * @param outputStream
+     *         the output stream where the sub-block is getting stored.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void flushBlock(final OutputStream outputStream) throws IOException {
+        if (this.blockSize == 0)
+            return;
+        
+        this.block[0] = (byte) this.blockSize;
+        outputStream.write(this.block, 0, this.blockSize + 1);
+        this.blockSize = 0;
+    }
+    
+}
@@ -0,0 +1,589 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.GraphicUtils;
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.random.RandomGenerator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A library of pre-rendered noise "plates" of a {@link Captcha}. Instead of drawing new
+ * strokes and sampling new gaussian noise for every captcha, a random plate is composited
+ * onto the canvas in one pass:
+ * <ul>
+ *     <li>Stroke plates are alpha masks which are larger than the captcha. A random
+ *     window of the plate is used, it can be flipped on both axes and the stroke color
+ *     gets a random tint.</li>
+ *     <li>Gaussian plates contain the noise of every pixel. They are read with a random
+ *     offset (wrapping around) and can be flipped on both axes.</li>
+ * </ul>
+ * The plates are created when they are needed first (or by {@link #prepare()}) and can be
+ * stored in a file, so they survive a restart. To keep the noise from being learned, a
+ * rotation interval can be set: every plate is then regenerated once per interval, one
+ * plate at a time.
+ */
+public class NoisePlates
+{
+    
+    /**
+     * The header of a file containing noise plates.
+     */
+    private static final int MAGIC = 0x434E5031;
+    
+    /**
+     * The maximum amount every color channel of the strokes is shifted by the tint.
+     */
+    private static final int TINT_RANGE = 24;
+    
+    /**
+     * The captcha whose settings are used to render the plates.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    /**
+     * The stroke plates (alpha masks) and gaussian plates (noise per pixel).
+     */
+    private AtomicReferenceArray<byte[]> strokePlates;
+    
+    private AtomicReferenceArray<short[]> gaussianPlates;
+    
+    /**
+     * The flag if the plates were created or loaded.
+     */
+    private volatile boolean prepared;
+    
+    /**
+     * The time (see {@link System#nanoTime()}) when the next plate gets regenerated.
+     */
+    private final AtomicLong nextRotation = new AtomicLong();
+    
+    /**
+     * The index of the plate which gets regenerated next.
+     */
+    private final AtomicInteger rotationIndex = new AtomicInteger();
+    
+    /**
+     * Creates a new plate library for the provided captcha. The plates are not created
+     * until they are needed.
+     *
+     * @param captcha
+     *         the captcha whose settings are used to render the plates.
+     */
+    NoisePlates(final Captcha captcha) {
+        this.captcha = captcha;
+    }
+    
+    /**
+     * Returns the size of the stroke plates. They are larger than the captcha, so a
+     * random window of them can be used.
+     *
+     * @return the width and height of the stroke plates.
+     */
+    private int getPlateWidth() {
+        return this.getCaptcha().getWidth() * 3 / 2;
+    }
+    
+    private int getPlateHeight() {
+        return this.getCaptcha().getHeight() * 3 / 2;
+    }
+    
+    /**
+     * Creates the plates if this didn't happen yet. If a file is set by {@link
+     * Captcha#getNoisePlateFile()} the plates are loaded from it, or created and stored in
+     * it if the file doesn't exist or was created with other settings. If the file can't be
+     * written, the plates are only kept in memory. This should be called at startup so the
+     * first captchas don't need to wait for the plates.
+     */
+    public void prepare() {
+        if (this.prepared)
+            return;
+        
+        synchronized (this) {
+            if (this.prepared)
+                return;
+            
+            final int count = Math.max(1, this.getCaptcha().getNoisePlateCount());
+            this.strokePlates = new AtomicReferenceArray<>(count);
+            this.gaussianPlates = new AtomicReferenceArray<>(count);
+            
+            final Path file = this.getCaptcha().getNoisePlateFile();
+            if (file == null || !this.load(file)) {
+                for (int index = 0; index < count; index++)
+                    this.render(index);
+                if (file != null) {
+                    try {
+                        this.write(file);
+                    } catch (final IOException ignored) {
+                        // The plates are used from memory and rendered again at the next start.
+                    }
+                }
+            }
+            
+            this.nextRotation.set(System.nanoTime() + this.getRotationStep());
+            this.prepared = true;
+        }
+    }
+    
+    /**
+     * Regenerates the next plate (the plates are regenerated in a round-robin order). This
+     * is called automatically if a rotation interval is set, but can also be called
+     * manually e.g. by a scheduler.
+     */
+    public void rotate() {
+        this.prepare();
+        this.render(Math.floorMod(this.rotationIndex.getAndIncrement(), this.strokePlates.length()));
+    }
+    
+    /**
+     * Regenerates the next plate if the rotation step has elapsed. Only the thread which
+     * claims the rotation regenerates the plate, all others keep using the current
+     * plates.
+     */
+    private void checkRotation() {
+        final long step = this.getRotationStep();
+        if (step <= 0)
+            return;
+        
+        final long now = System.nanoTime(), next = this.nextRotation.get();
+        if (now - next < 0 || !this.nextRotation.compareAndSet(next, now + step))
+            return;
+        
+        this.rotate();
+    }
+    
+    /**
+     * Returns the time between the regeneration of two plates, so every plate is
+     * regenerated once per {@link Captcha#getNoisePlateRotation()}.
+     *
+     * @return the time between two regenerations in nanoseconds or 0 if the plates are
+     *         never regenerated.
+     */
+    private long getRotationStep() {
+        final Duration rotation = this.getCaptcha().getNoisePlateRotation();
+        if (rotation == null || rotation.isZero() || rotation.isNegative())
+            return 0;
+        return Math.max(1, rotation.toNanos() / Math.max(1, this.getCaptcha().getNoisePlateCount()));
+    }
+    
+    /**
+     * Renders the plates at the provided index with the settings of the captcha. Only the
+     * plates of the enabled noise types are rendered.
+     *
+     * @param index
+     *         the index of the plates which are rendered.
+     */
+    private void render(final int index) {
+        final RandomGenerator random = this.getCaptcha().getRandomStrategy().current();
+        if (this.getCaptcha().isStrokeNoise())
+            this.strokePlates.set(index, this.renderStrokes(random));
+        if (this.getCaptcha().isGaussianNoise())
+            this.gaussianPlates.set(index, this.renderGaussian(random));
+    }
+    
+    /**
+     * Renders a stroke plate. The amount of strokes is scaled with the size of the plate,
+     * so a window of the captcha size contains as many strokes as a captcha would.
+     *
+     * @param random
+     *         the random generator used for the points of the strokes.
+     *
+     * @return the alpha mask of the strokes, row by row.
+     */
+    private byte[] renderStrokes(final RandomGenerator random) {
+        final int width = this.getPlateWidth(), height = this.getPlateHeight();
+        final int strokes = this.getCaptcha().getStrokeNoiseAmount() * 9 / 4;
+        if (this.getCaptcha().getRenderBackend() == RenderBackend.SOFTWARE) {
+            final byte[] plate = new byte[width * height];
+            final Rasterizer rasterizer = new Rasterizer();
+            for (int index = 0; index < strokes; index++) {
+                rasterizer.addStroke(
+                        random.nextInt(width), random.nextInt(height),
+                        random.nextInt(width), random.nextInt(height),
+                        random.nextInt(width), random.nextInt(height),
+                        random.nextInt(width), random.nextInt(height)
+                );
+                rasterizer.fill(plate, width, height, Color.WHITE);
+            }
+            return plate;
+        }
+        
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setColor(Color.WHITE);
+        
+        for (int index = 0; index < strokes; index++) {
+            final Path2D.Double path = new Path2D.Double();
+            path.moveTo(random.nextInt(width), random.nextInt(height));
+            path.curveTo(
+                    random.nextInt(width), random.nextInt(height),
+                    random.nextInt(width), random.nextInt(height),
+                    random.nextInt(width), random.nextInt(height)
+            );
+            graphics.draw(path);
+        }
+        graphics.dispose();
+        
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+    
+    /**
+     * Renders a gaussian plate with the mean and sigma of the captcha.
+     *
+     * @param random
+     *         the random generator used to sample the noise.
+     *
+     * @return the noise of every pixel, row by row.
+     */
+    private short[] renderGaussian(final RandomGenerator random) {
+        final float mean = this.getCaptcha().getGaussianNoiseMean(), sigma = this.getCaptcha().getGaussianNoiseSigma();
+        final short[] plate = new short[this.getCaptcha().getWidth() * this.getCaptcha().getHeight()];
+        for (int index = 0; index < plate.length; index++) {
+            final float value = (float) random.nextGaussian() * sigma + mean;
+            plate[index] = (short) Math.max(-255, Math.min(255, Math.round(value)));
+        }
+        return plate;
+    }
+    
+    /**
+     * Composites a random stroke plate onto the RGB pixels of a captcha.
+     *
+     * @param pixels
+     *         the RGB pixels of the captcha, row by row.
+     * @param random
+     *         the random generator used to pick the plate, window, flip and tint.
+     */
+    void drawStrokes(final int[] pixels, final RandomGenerator random) {
+        this.prepare();
+        this.checkRotation();
+        
+        final byte[] plate = this.strokePlates.get(random.nextInt(this.strokePlates.length()));
+        if (plate == null)
+            return;
+        
+        final int width = this.getCaptcha().getWidth(), height = this.getCaptcha().getHeight();
+        final int plateWidth = this.getPlateWidth(), plateHeight = this.getPlateHeight();
+        
+        final int offsetX = random.nextInt(plateWidth - width + 1), offsetY = random.nextInt(plateHeight - height + 1);
+        final boolean flipX = random.nextBoolean(), flipY = random.nextBoolean();
+        
+        final Color color = this.getCaptcha().getStrokeNoiseColor();
+        final int red = tint(color.getRed(), random), green = tint(color.getGreen(), random), blue = tint(color.getBlue(), random);
+        final int colorAlpha = color.getAlpha();
+        
+        for (int y = 0; y < height; y++) {
+            final int plateY = offsetY + (flipY ? height - 1 - y : y);
+            final int plateRow = plateY * plateWidth + offsetX;
+            final int row = y * width;
+            
+            for (int x = 0; x < width; x++) {
+                final int coverage = plate[plateRow + (flipX ? width - 1 - x : x)] & 0xFF;
+                if (coverage == 0)
+                    continue;
+                
+                final int alpha = (coverage * colorAlpha + 127) / 255;
+                final int rgb = pixels[row + x];
+                
+                final int oldRed = (rgb >> 16) & 0xFF, oldGreen = (rgb >> 8) & 0xFF, oldBlue = rgb & 0xFF;
+                final int newRed = oldRed + ((red - oldRed) * alpha + 127) / 255;
+                final int newGreen = oldGreen + ((green - oldGreen) * alpha + 127) / 255;
+                final int newBlue = oldBlue + ((blue - oldBlue) * alpha + 127) / 255;
+                
+                pixels[row + x] = (newRed << 16) | (newGreen << 8) | newBlue;
+            }
+        }
+    }
+    
+    /**
+     * Composites a random stroke plate with the gray value of the stroke color onto the
+     * gray pixels of a captcha.
+     *
+     * @param pixels
+     *         the gray pixels of the captcha, row by row.
+     * @param random
+     *         the random generator used to pick the plate, window, flip and tint.
+     */
+    void drawStrokes(final byte[] pixels, final RandomGenerator random) {
+        this.prepare();
+        this.checkRotation();
+        
+        final byte[] plate = this.strokePlates.get(random.nextInt(this.strokePlates.length()));
+        if (plate == null)
+            return;
+        
+        final int width = this.getCaptcha().getWidth(), height = this.getCaptcha().getHeight();
+        final int plateWidth = this.getPlateWidth(), plateHeight = this.getPlateHeight();
+        
+        final int offsetX = random.nextInt(plateWidth - width + 1), offsetY = random.nextInt(plateHeight - height + 1);
+        final boolean flipX = random.nextBoolean(), flipY = random.nextBoolean();
+        
+        final Color color = this.getCaptcha().getStrokeNoiseColor();
+        final int gray = tint(GraphicUtils.toGray(color.getRed(), color.getGreen(), color.getBlue()), random);
+        final int colorAlpha = color.getAlpha();
+        
+        for (int y = 0; y < height; y++) {
+            final int plateY = offsetY + (flipY ? height - 1 - y : y);
+            final int plateRow = plateY * plateWidth + offsetX;
+            final int row = y * width;
+            
+            for (int x = 0; x < width; x++) {
+                final int coverage = plate[plateRow + (flipX ? width - 1 - x : x)] & 0xFF;
+                if (coverage == 0)
+                    continue;
+                
+                final int alpha = (coverage * colorAlpha + 127) / 255;
+                final int oldGray = pixels[row + x] & 0xFF;
+                pixels[row + x] = (byte) (oldGray + ((gray - oldGray) * alpha + 127) / 255);
+            }
+        }
+    }
+    
+    /**
+     * Composites a random gaussian plate onto the RGB pixels of a captcha and turns them
+     * into grayscale (the same way {@link com.arkoisystems.captcha.utils.NoiseUtils}
+     * does).
+     *
+     * @param pixels
+     *         the RGB pixels of the captcha, row by row.
+     * @param random
+     *         the random generator used to pick the plate, offset and flip.
+     */
+    void drawGaussian(final int[] pixels, final RandomGenerator random) {
+        this.prepare();
+        this.checkRotation();
+        
+        final short[] plate = this.gaussianPlates.get(random.nextInt(this.gaussianPlates.length()));
+        if (plate == null)
+            return;
+        
+        final int width = this.getCaptcha().getWidth(), height = this.getCaptcha().getHeight();
+        final int offsetX = random.nextInt(width), offsetY = random.nextInt(height);
+        final int stepX = random.nextBoolean() ? 1 : -1;
+        final boolean flipY = random.nextBoolean();
+        
+        for (int y = 0; y < height; y++) {
+            final int plateY = ((flipY ? height - 1 - y : y) + offsetY) % height;
+            final int plateRow = plateY * width;
+            final int row = y * width;
+            
+            int plateX = offsetX;
+            for (int x = 0; x < width; x++) {
+                final int rgb = pixels[row + x];
+                final int gray = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                final int value = Math.max(0, Math.min(255, gray + plate[plateRow + plateX]));
+                pixels[row + x] = (value << 16) | (value << 8) | value;
+                
+                plateX += stepX;
+                if (plateX == width)
+                    plateX = 0;
+                else if (plateX < 0)
+                    plateX = width - 1;
+            }
+        }
+    }
+    
+    /**
+     * Composites a random gaussian plate onto the gray pixels of a captcha.
+     *
+     * @param pixels
+     *         the gray pixels of the captcha, row by row.
+     * @param random
+     *         the random generator used to pick the plate, offset and flip.
+     */
+    void drawGaussian(final byte[] pixels, final RandomGenerator random) {
+        this.prepare();
+        this.checkRotation();
+        
+        final short[] plate = this.gaussianPlates.get(random.nextInt(this.gaussianPlates.length()));
+        if (plate == null)
+            return;
+        
+        final int width = this.getCaptcha().getWidth(), height = this.getCaptcha().getHeight();
+        final int offsetX = random.nextInt(width), offsetY = random.nextInt(height);
+        final int stepX = random.nextBoolean() ? 1 : -1;
+        final boolean flipY = random.nextBoolean();
+        
+        for (int y = 0; y < height; y++) {
+            final int plateY = ((flipY ? height - 1 - y : y) + offsetY) % height;
+            final int plateRow = plateY * width;
+            final int row = y * width;
+            
+            int plateX = offsetX;
+            for (int x = 0; x < width; x++) {
+                final int value = (pixels[row + x] & 0xFF) + plate[plateRow + plateX];
+                pixels[row + x] = (byte) Math.max(0, Math.min(255, value));
+                
+                plateX += stepX;
+                if (plateX == width)
+                    plateX = 0;
+                else if (plateX < 0)
+                    plateX = width - 1;
+            }
+        }
+    }
+    
+    /**
+     * Shifts a color channel by a random amount of at most {@link #TINT_RANGE}.
+     *
+     * @param value
+     *         the value of the color channel.
+     * @param random
+     *         the random generator used for the shift.
+     *
+     * @return the shifted value of the color channel.
+     */
+    private static int tint(final int value, final RandomGenerator random) {
+        return Math.max(0, Math.min(255, value + random.nextInt(-TINT_RANGE, TINT_RANGE + 1)));
+    }
+    
+    /**
+     * Stores the current plates together with the settings they were rendered with.
+     *
+     * @param path
+     *         the file the plates are stored in.
+     */
+    @SneakyThrows(IOException.class)
+    public void save(final Path path) {
+        this.prepare();
+        this.write(path);
+    }
+    
+    /**
+     * Writes the current plates and their settings to a file.
+     *
+     * @param path
+     *         the file the plates are stored in.
+     *
+     * @throws IOException
+     *         if the file can't be written.
+     */
+    private void write(final Path path) throws IOException {
+        @Cleanup final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(path), 8192), 8192
+        ));
+        
+        outputStream.writeInt(MAGIC);
+        this.writeSettings(outputStream);
+        
+        for (int index = 0; index < this.strokePlates.length(); index++) {
+            final byte[] plate = this.strokePlates.get(index);
+            outputStream.writeBoolean(plate != null);
+            if (plate != null)
+                outputStream.write(plate);
+        }
+        
+        for (int index = 0; index < this.gaussianPlates.length(); index++) {
+            final short[] plate = this.gaussianPlates.get(index);
+            outputStream.writeBoolean(plate != null);
+            if (plate == null)
+                continue;
+            
+            for (final short value : plate)
+                outputStream.writeShort(value);
+        }
+    }
+    
+    /**
+     * Loads the plates from a file if it exists and was stored with the same settings.
+     *
+     * @param path
+     *         the file the plates are loaded from.
+     *
+     * @return true if the plates were loaded or false if they need to be rendered.
+     */
+    private boolean load(final Path path) {
+        if (!Files.isRegularFile(path))
+            return false;
+        
+        try (final DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path), 8192), 8192
+        ))) {
+            if (inputStream.readInt() != MAGIC || !this.readSettings(inputStream))
+                return false;
+            
+            final int strokeLength = this.getPlateWidth() * this.getPlateHeight();
+            for (int index = 0; index < this.strokePlates.length(); index++) {
+                if (!inputStream.readBoolean())
+                    continue;
+                
+                final byte[] plate = new byte[strokeLength];
+                inputStream.readFully(plate);
+                this.strokePlates.set(index, plate);
+            }
+            
+            final int gaussianLength = this.getCaptcha().getWidth() * this.getCaptcha().getHeight();
+            for (int index = 0; index < this.gaussianPlates.length(); index++) {
+                if (!inputStream.readBoolean())
+                    continue;
+                
+                final short[] plate = new short[gaussianLength];
+                for (int sample = 0; sample < gaussianLength; sample++)
+                    plate[sample] = inputStream.readShort();
+                this.gaussianPlates.set(index, plate);
+            }
+            
+            return true;
+        } catch (final IOException ignored) {
+            return false;
+        }
+    }
+    
+    /**
+     * Writes the settings which the plates depend on.
+     *
+     * @param outputStream
+     *         the output stream where the settings are getting stored.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void writeSettings(final DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(this.strokePlates.length());
+        outputStream.writeInt(this.getCaptcha().getWidth());
+        outputStream.writeInt(this.getCaptcha().getHeight());
+        outputStream.writeBoolean(this.getCaptcha().isStrokeNoise());
+        outputStream.writeInt(this.getCaptcha().getStrokeNoiseAmount());
+        outputStream.writeBoolean(this.getCaptcha().isGaussianNoise());
+        outputStream.writeFloat(this.getCaptcha().getGaussianNoiseMean());
+        outputStream.writeFloat(this.getCaptcha().getGaussianNoiseSigma());
+    }
+    
+    /**
+     * Reads the settings of stored plates and compares them with the current ones.
+     *
+     * @param inputStream
+     *         the input stream the settings are read from.
+     *
+     * @return true if the settings are the same or false if not.
+     *
+     * @throws IOException
+     *         if the input stream can't be read.
+     */
+    private boolean readSettings(final DataInputStream inputStream) throws IOException {
+        return inputStream.readInt() == this.strokePlates.length()
+                && inputStream.readInt() == this.getCaptcha().getWidth()
+                && inputStream.readInt() == this.getCaptcha().getHeight()
+                && inputStream.readBoolean() == this.getCaptcha().isStrokeNoise()
+                && inputStream.readInt() == this.getCaptcha().getStrokeNoiseAmount()
+                && inputStream.readBoolean() == this.getCaptcha().isGaussianNoise()
+                && inputStream.readFloat() == this.getCaptcha().getGaussianNoiseMean()
+                && inputStream.readFloat() == this.getCaptcha().getGaussianNoiseSigma();
+    }
+    
+}
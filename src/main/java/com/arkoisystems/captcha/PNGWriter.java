@@ -0,0 +1,648 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.ChannelOutputStream;
+import lombok.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder for captcha images which replaces {@link javax.imageio.ImageIO}. It picks
+ * the smallest lossless color type for every image:
+ * <ul>
+ *     <li>8-bit grayscale for {@link BufferedImage#TYPE_BYTE_GRAY} images and RGB images
+ *     which only contain gray pixels (e.g. captchas with gaussian noise).</li>
+ *     <li>8-bit indexed if the image has at most 256 colors (and {@link #isPalette()} is
+ *     set).</li>
+ *     <li>8-bit RGB otherwise.</li>
+ * </ul>
+ * The {@link Deflater}, the row buffers and the chunk buffer are kept in a shared pool
+ * and reused by the next image, so encoding allocates nothing after the warm-up. A pool is
+ * used instead of a thread local because virtual threads are never reused.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Builder
+@ToString
+public class PNGWriter
+{
+    
+    /**
+     * The writer used by {@link CaptchaGenerator} if no other writer is provided. It
+     * compresses captchas as good as {@link javax.imageio.ImageIO}, but needs less time.
+     */
+    public static final PNGWriter DEFAULT = PNGWriter.builder().build();
+    
+    /**
+     * A writer which trades some bytes for the lowest CPU time per image.
+     */
+    public static final PNGWriter FAST = PNGWriter.builder()
+            .level(Deflater.BEST_SPEED)
+            .build();
+    
+    /**
+     * The signature every PNG file starts with.
+     */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    
+    /**
+     * The color types of the PNG format which are written.
+     */
+    private static final int GRAY = 0, RGB = 2, INDEXED = 3;
+    
+    /**
+     * The maximum amount of compressed bytes in one IDAT chunk.
+     */
+    private static final int CHUNK_SIZE = 32 * 1024;
+    
+    /**
+     * The maximum amount of contexts which are kept in the pool.
+     */
+    private static final int MAX_POOLED_CONTEXTS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    
+    /**
+     * The contexts which are currently not used by an encoding.
+     */
+    private static final ConcurrentLinkedQueue<Context> CONTEXTS = new ConcurrentLinkedQueue<>();
+    
+    private static final AtomicInteger POOLED_CONTEXTS = new AtomicInteger();
+    
+    /**
+     * The compression level of the {@link Deflater} (0 - 9 or -1 for the default level of
+     * zlib).
+     */
+    @Builder.Default
+    @Getter
+    private final int level = 4;
+    
+    /**
+     * The filter applied to every row before it gets compressed. Captchas are mostly
+     * black or gaussian noise, which the other filters don't predict, so they compress
+     * best without a filter.
+     */
+    @Builder.Default
+    @Getter
+    private final Filter filter = Filter.NONE;
+    
+    /**
+     * The flag if images with at most 256 colors are written with a palette.
+     */
+    @Builder.Default
+    @Getter
+    private final boolean palette = true;
+    
+    /**
+     * Encodes the image of the canvas as a PNG.
+     *
+     * @param canvas
+     *         the canvas whose image gets encoded.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     */
+    public void write(final CaptchaCanvas canvas, final OutputStream outputStream) {
+        this.write(canvas.getImage(), outputStream);
+    }
+    
+    /**
+     * Encodes an image as a PNG and writes it to the channel through a reused direct
+     * buffer.
+     *
+     * @param image
+     *         the image which gets encoded.
+     * @param channel
+     *         the blocking channel where the PNG is getting stored (it doesn't get closed).
+     */
+    @SneakyThrows
+    public void write(final BufferedImage image, final WritableByteChannel channel) {
+        @Cleanup final ChannelOutputStream outputStream = new ChannelOutputStream(channel);
+        this.write(image, outputStream);
+    }
+    
+    /**
+     * Encodes an image as a PNG. Images of the type {@link BufferedImage#TYPE_BYTE_GRAY}
+     * and {@link BufferedImage#TYPE_INT_RGB} are read directly, every other image is
+     * converted to RGB first.
+     *
+     * @param image
+     *         the image which gets encoded.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     */
+    @SneakyThrows
+    public void write(final BufferedImage image, final OutputStream outputStream) {
+        final Context context = acquire();
+        try {
+            this.write(context, image, outputStream);
+        } finally {
+            release(context);
+        }
+    }
+    
+    /**
+     * Analyzes the pixels of the image and writes every chunk of the PNG.
+     *
+     * @param context
+     *         the context used for the encoding.
+     * @param image
+     *         the image which gets encoded.
+     * @param outputStream
+     *         the output stream where the PNG is getting stored.
+     *
+     * @throws IOException
+     *         if the output stream can't be written.
+     */
+    private void write(final Context context, final BufferedImage image, final OutputStream outputStream) throws IOException {
+        final int width = image.getWidth(), height = image.getHeight();
+        
+        byte[] grayPixels = null;
+        int[] pixels = null;
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY && image.getRaster().getDataBuffer() instanceof DataBufferByte)
+            grayPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        else if (image.getType() == BufferedImage.TYPE_INT_RGB && image.getRaster().getDataBuffer() instanceof DataBufferInt)
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        else pixels = image.getRGB(0, 0, width, height, context.pixels(width * height), 0, width);
+        
+        final int colorType;
+        if (grayPixels != null || isGray(pixels, width * height))
+            colorType = GRAY;
+        else if (this.isPalette() && context.createPalette(pixels, width * height))
+            colorType = INDEXED;
+        else colorType = RGB;
+        
+        final int bytesPerPixel = colorType == RGB ? 3 : 1;
+        context.prepare(width * bytesPerPixel);
+        
+        outputStream.write(SIGNATURE);
+        
+        final byte[] header = context.chunk;
+        writeInt(header, 8, width);
+        writeInt(header, 12, height);
+        header[16] = 8;
+        header[17] = (byte) colorType;
+        header[18] = 0;
+        header[19] = 0;
+        header[20] = 0;
+        context.writeChunk(outputStream, "IHDR", 13);
+        
+        if (colorType == INDEXED) {
+            final byte[] chunk = context.chunk;
+            for (int index = 0; index < context.paletteSize; index++) {
+                final int rgb = context.paletteColors[index];
+                chunk[8 + index * 3] = (byte) (rgb >> 16);
+                chunk[9 + index * 3] = (byte) (rgb >> 8);
+                chunk[10 + index * 3] = (byte) rgb;
+            }
+            context.writeChunk(outputStream, "PLTE", context.paletteSize * 3);
+        }
+        
+        // Filtering the indices of a palette rarely helps, so they are only filtered if a
+        // fixed filter was requested.
+        final Filter filter = colorType == INDEXED && this.getFilter() == Filter.ADAPTIVE ? Filter.NONE : this.getFilter();
+        
+        final Deflater deflater = context.deflater;
+        deflater.reset();
+        deflater.setLevel(this.getLevel());
+        deflater.setStrategy(filter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+        
+        for (int y = 0; y < height; y++) {
+            final byte[] row = context.current;
+            final int offset = y * width;
+            switch (colorType) {
+                case GRAY:
+                    if (grayPixels != null)
+                        System.arraycopy(grayPixels, offset, row, 0, width);
+                    else {
+                        for (int x = 0; x < width; x++)
+                            row[x] = (byte) pixels[offset + x];
+                    }
+                    break;
+                case INDEXED:
+                    for (int x = 0; x < width; x++)
+                        row[x] = (byte) context.indexOf(pixels[offset + x]);
+                    break;
+                default:
+                    for (int x = 0; x < width; x++) {
+                        final int rgb = pixels[offset + x];
+                        row[x * 3] = (byte) (rgb >> 16);
+                        row[x * 3 + 1] = (byte) (rgb >> 8);
+                        row[x * 3 + 2] = (byte) rgb;
+                    }
+                    break;
+            }
+            
+            final byte[] filtered = context.filterRow(filter, bytesPerPixel);
+            deflater.setInput(filtered, 0, context.rowLength + 1);
+            while (!deflater.needsInput())
+                context.deflate(outputStream);
+            
+            context.current = context.previous;
+            context.previous = row;
+        }
+        
+        deflater.finish();
+        while (!deflater.finished())
+            context.deflate(outputStream);
+        if (context.chunkLength > 0)
+            context.writeChunk(outputStream, "IDAT", context.chunkLength);
+        
+        context.writeChunk(outputStream, "IEND", 0);
+    }
+    
+    /**
+     * Checks if every pixel is gray (all channels have the same value).
+     *
+     * @param pixels
+     *         the RGB pixels of the image.
+     * @param length
+     *         the amount of pixels.
+     *
+     * @return true if every pixel is gray or false if not.
+     */
+    private static boolean isGray(final int[] pixels, final int length) {
+        for (int index = 0; index < length; index++) {
+            final int rgb = pixels[index];
+            final int blue = rgb & 0xFF;
+            if (((rgb >> 16) & 0xFF) != blue || ((rgb >> 8) & 0xFF) != blue)
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes an integer in big-endian order.
+     *
+     * @param bytes
+     *         the array the integer is written to.
+     * @param offset
+     *         the index of the first byte.
+     * @param value
+     *         the integer which gets written.
+     */
+    private static void writeInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+    
+    /**
+     * Takes a context from the pool or creates a new one.
+     *
+     * @return a context which is only used by the caller.
+     */
+    private static Context acquire() {
+        final Context context = CONTEXTS.poll();
+        if (context == null)
+            return new Context();
+        
+        POOLED_CONTEXTS.decrementAndGet();
+        return context;
+    }
+    
+    /**
+     * Returns a context to the pool. If the pool is full the context is discarded and the
+     * native memory of its deflater is freed.
+     *
+     * @param context
+     *         the context which isn't used anymore.
+     */
+    private static void release(final Context context) {
+        if (POOLED_CONTEXTS.incrementAndGet() <= MAX_POOLED_CONTEXTS) {
+            CONTEXTS.offer(context);
+            return;
+        }
+        
+        POOLED_CONTEXTS.decrementAndGet();
+        context.deflater.end();
+    }
+    
+    /**
+     * The filters of the PNG format which are applied to every row. Except for {@link
+     * #NONE}, they store the difference of every byte to its neighbours, which compresses
+     * better for smooth images.
+     */
+    @AllArgsConstructor
+    public enum Filter
+    {
+        
+        NONE(0),
+        SUB(1),
+        UP(2),
+        AVERAGE(3),
+        PAETH(4),
+        
+        /**
+         * Tries every filter on every row and keeps the one with the smallest sum of
+         * absolute differences (the heuristic recommended by the PNG specification).
+         */
+        ADAPTIVE(-1);
+        
+        /**
+         * The type of the filter which is written in front of every row.
+         */
+        @Getter
+        private final int type;
+        
+    }
+    
+    /**
+     * The deflater and buffers used by one encoding. The buffers grow with the images,
+     * so a context can be used for any image size.
+     */
+    private static class Context
+    {
+        
+        /**
+         * The size of the palette lookup table (a power of two, four times the maximum
+         * amount of colors).
+         */
+        private static final int PALETTE_SLOTS = 1024;
+        
+        private final Deflater deflater = new Deflater();
+        
+        private final CRC32 crc = new CRC32();
+        
+        /**
+         * The chunk which is currently written: 4 bytes length, 4 bytes type, the data
+         * and 4 bytes CRC.
+         */
+        private final byte[] chunk = new byte[8 + CHUNK_SIZE + 4];
+        
+        private int chunkLength;
+        
+        /**
+         * The colors of the palette and the lookup table from colors (-1 marks an empty
+         * slot) to their index.
+         */
+        private final int[] paletteColors = new int[256], paletteSlots = new int[PALETTE_SLOTS];
+        
+        private final byte[] paletteIndices = new byte[PALETTE_SLOTS];
+        
+        private int paletteSize;
+        
+        /**
+         * The raw bytes of the current and previous row, the filtered candidates of the
+         * current row and the converted pixels of images which aren't read directly.
+         */
+        private byte[] current = new byte[0], previous = new byte[0], filtered = new byte[1], best = new byte[1];
+        
+        private int[] pixels = new int[0];
+        
+        private int rowLength;
+        
+        /**
+         * Returns the buffer for converted pixels.
+         *
+         * @param length
+         *         the amount of pixels.
+         *
+         * @return a buffer with room for the pixels.
+         */
+        private int[] pixels(final int length) {
+            if (this.pixels.length < length)
+                this.pixels = new int[length];
+            return this.pixels;
+        }
+        
+        /**
+         * Prepares the row buffers for a new image. The previous row starts as zeros as
+         * required by the filters of the first row.
+         *
+         * @param rowLength
+         *         the amount of bytes in a row.
+         */
+        private void prepare(final int rowLength) {
+            this.rowLength = rowLength;
+            if (this.current.length < rowLength) {
+                this.current = new byte[rowLength];
+                this.previous = new byte[rowLength];
+                this.filtered = new byte[rowLength + 1];
+                this.best = new byte[rowLength + 1];
+            }
+            Arrays.fill(this.previous, 0, rowLength, (byte) 0);
+            this.chunkLength = 0;
+        }
+        
+        /**
+         * Collects the colors of the image into the palette.
+         *
+         * @param pixels
+         *         the RGB pixels of the image.
+         * @param length
+         *         the amount of pixels.
+         *
+         * @return true if the image has at most 256 colors or false if not.
+         */
+        private boolean createPalette(final int[] pixels, final int length) {
+            Arrays.fill(this.paletteSlots, -1);
+            this.paletteSize = 0;
+            
+            int lastColor = -1;
+            for (int index = 0; index < length; index++) {
+                final int rgb = pixels[index] & 0xFFFFFF;
+                if (rgb == lastColor)
+                    continue;
+                lastColor = rgb;
+                
+                int slot = (rgb * 0x9E3779B1) >>> 22;
+                while (this.paletteSlots[slot] != -1 && this.paletteSlots[slot] != rgb)
+                    slot = (slot + 1) & (PALETTE_SLOTS - 1);
+                if (this.paletteSlots[slot] == rgb)
+                    continue;
+                
+                if (this.paletteSize == 256)
+                    return false;
+                this.paletteSlots[slot] = rgb;
+                this.paletteIndices[slot] = (byte) this.paletteSize;
+                this.paletteColors[this.paletteSize++] = rgb;
+            }
+            return true;
+        }
+        
+        /**
+         * Returns the index of a color in the palette (the color must be in it).
+         *
+         * @param rgb
+         *         the color which is searched.
+         *
+         * @return the index of the color in the palette.
+         */
+        private int indexOf(final int rgb) {
+            final int color = rgb & 0xFFFFFF;
+            int slot = (color * 0x9E3779B1) >>> 22;
+            while (this.paletteSlots[slot] != color)
+                slot = (slot + 1) & (PALETTE_SLOTS - 1);
+            return this.paletteIndices[slot] & 0xFF;
+        }
+        
+        /**
+         * Filters the current row.
+         *
+         * @param filter
+         *         the filter which is applied.
+         * @param bytesPerPixel
+         *         the amount of bytes of a pixel.
+         *
+         * @return the filter type followed by the filtered row.
+         */
+        private byte[] filterRow(final Filter filter, final int bytesPerPixel) {
+            if (filter != Filter.ADAPTIVE) {
+                this.apply(filter.getType(), bytesPerPixel, this.filtered);
+                return this.filtered;
+            }
+            
+            long bestSum = Long.MAX_VALUE;
+            for (int type = 0; type <= 4; type++) {
+                final long sum = this.apply(type, bytesPerPixel, this.filtered);
+                if (sum >= bestSum)
+                    continue;
+                
+                bestSum = sum;
+                final byte[] swap = this.best;
+                this.best = this.filtered;
+                this.filtered = swap;
+            }
+            return this.best;
+        }
+        
+        /**
+         * Applies one filter to the current row.
+         *
+         * @param type
+         *         the type of the filter (0 - 4).
+         * @param bytesPerPixel
+         *         the amount of bytes of a pixel.
+         * @param target
+         *         the array which receives the filter type and the filtered row.
+         *
+         * @return the sum of the absolute values of the filtered bytes (as signed bytes).
+         */
+        private long apply(final int type, final int bytesPerPixel, final byte[] target) {
+            final byte[] row = this.current, above = this.previous;
+            final int length = this.rowLength;
+            target[0] = (byte) type;
+            
+            long sum = 0;
+            switch (type) {
+                case 1:
+                    for (int index = 0; index < length; index++) {
+                        final int left = index >= bytesPerPixel ? row[index - bytesPerPixel] : 0;
+                        final byte result = (byte) (row[index] - left);
+                        target[index + 1] = result;
+                        sum += Math.abs(result);
+                    }
+                    break;
+                case 2:
+                    for (int index = 0; index < length; index++) {
+                        final byte result = (byte) (row[index] - above[index]);
+                        target[index + 1] = result;
+                        sum += Math.abs(result);
+                    }
+                    break;
+                case 3:
+                    for (int index = 0; index < length; index++) {
+                        final int left = index >= bytesPerPixel ? row[index - bytesPerPixel] & 0xFF : 0;
+                        final byte result = (byte) (row[index] - ((left + (above[index] & 0xFF)) >>> 1));
+                        target[index + 1] = result;
+                        sum += Math.abs(result);
+                    }
+                    break;
+                case 4:
+                    for (int index = 0; index < length; index++) {
+                        final int left, upLeft;
+                        if (index >= bytesPerPixel) {
+                            left = row[index - bytesPerPixel] & 0xFF;
+                            upLeft = above[index - bytesPerPixel] & 0xFF;
+                        } else left = upLeft = 0;
+                        
+                        final byte result = (byte) (row[index] - paeth(left, above[index] & 0xFF, upLeft));
+                        target[index + 1] = result;
+                        sum += Math.abs(result);
+                    }
+                    break;
+                default:
+                    for (int index = 0; index < length; index++) {
+                        final byte value = row[index];
+                        target[index + 1] = value;
+                        sum += Math.abs(value);
+                    }
+                    break;
+            }
+            return sum;
+        }
+        
+        /**
+         * The paeth predictor of the PNG specification.
+         *
+         * @param left
+         *         the byte left of the current one.
+         * @param up
+         *         the byte above the current one.
+         * @param upLeft
+         *         the byte above the left one.
+         *
+         * @return the neighbour which is closest to left + up - upLeft.
+         */
+        private static int paeth(final int left, final int up, final int upLeft) {
+            final int estimate = left + up - upLeft;
+            final int distanceLeft = Math.abs(estimate - left), distanceUp = Math.abs(estimate - up), distanceUpLeft = Math.abs(estimate - upLeft);
+            if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft)
+                return left;
+            return distanceUp <= distanceUpLeft ? up : upLeft;
+        }
+        
+        /**
+         * Compresses the pending input into the IDAT chunk and writes the chunk when it is
+         * full.
+         *
+         * @param outputStream
+         *         the output stream where the PNG is getting stored.
+         *
+         * @throws IOException
+         *         if the output stream can't be written.
+         */
+        private void deflate(final OutputStream outputStream) throws IOException {
+            this.chunkLength += this.deflater.deflate(this.chunk, 8 + this.chunkLength, CHUNK_SIZE - this.chunkLength);
+            if (this.chunkLength == CHUNK_SIZE)
+                this.writeChunk(outputStream, "IDAT", CHUNK_SIZE);
+        }
+        
+        /**
+         * Writes the chunk whose data was stored in the chunk buffer (after the 8 bytes of
+         * the length and type) in one piece.
+         *
+         * @param outputStream
+         *         the output stream where the PNG is getting stored.
+         * @param type
+         *         the type of the chunk.
+         * @param length
+         *         the length of the data.
+         *
+         * @throws IOException
+         *         if the output stream can't be written.
+         */
+        private void writeChunk(final OutputStream outputStream, final String type, final int length) throws IOException {
+            final byte[] chunk = this.chunk;
+            writeInt(chunk, 0, length);
+            for (int index = 0; index < 4; index++)
+                chunk[4 + index] = (byte) type.charAt(index);
+            
+            this.crc.reset();
+            this.crc.update(chunk, 4, 4 + length);
+            writeInt(chunk, 8 + length, (int) this.crc.getValue());
+            
+            outputStream.write(chunk, 0, 12 + length);
+            this.chunkLength = 0;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,544 @@
+package com.arkoisystems.captcha;
+
+import com.arkoisystems.captcha.utils.GraphicUtils;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * An antialiased scanline rasterizer which replaces Java2D for the text and strokes of the
+ * {@link RenderBackend#SOFTWARE} backend. Java2D serializes parts of the rendering (e.g.
+ * the font scaler and the contexts of the shape renderer) behind global locks, while this
+ * rasterizer only works on its own buffers, so threads with their own rasterizer (every
+ * {@link CaptchaCanvas} has one) never wait for each other.
+ * <p>
+ * Shapes are collected as line segments and then filled with the non-zero winding rule.
+ * The coverage of every pixel is computed exactly from the signed area of the segments
+ * (like the rasterizer of font-rs), instead of being sampled like Java2D does, so the
+ * edges are a bit smoother but otherwise look the same. A rasterizer must only be used by
+ * one thread at a time.
+ */
+public class Rasterizer
+{
+    
+    /**
+     * The half width of the strokes (Java2D draws strokes one pixel wide by default).
+     */
+    private static final double HALF_WIDTH = 0.5;
+    
+    /**
+     * The offset which is added to every point of a stroke. Java2D normalizes the strokes
+     * (see {@link RenderingHints#KEY_STROKE_CONTROL}), which moves the integer points of
+     * the captcha strokes to the centers of the pixels.
+     */
+    private static final double STROKE_OFFSET = 0.5;
+    
+    /**
+     * The maximum distance (in pixels) between a curve and its flattened segments.
+     */
+    private static final double FLATNESS = 0.1;
+    
+    /**
+     * The maximum amount of segments a curve is flattened into.
+     */
+    private static final int MAX_SEGMENTS = 256;
+    
+    /**
+     * The line segments of the current shape (x0, y0, x1, y1 each).
+     */
+    private float[] lines = new float[256];
+    
+    /**
+     * The amount of values in {@link #lines}.
+     */
+    private int lineLength;
+    
+    /**
+     * The bounds of the current shape.
+     */
+    private float minX, minY, maxX, maxY;
+    
+    /**
+     * The signed area of the segments in every cell of the bounds, row by row. The sum of a
+     * row up to a cell is the coverage of the cell. It is cleared again while the shape is
+     * composited, so it only grows when a bigger shape is filled.
+     */
+    private float[] areas = new float[0];
+    
+    /**
+     * The first and last cell of every row which was touched by a segment. The cells
+     * outside of them have no coverage, so they are skipped while compositing.
+     */
+    private int[] spanStarts = new int[0], spanEnds = new int[0];
+    
+    /**
+     * Creates a new rasterizer without any shape.
+     */
+    public Rasterizer() {
+        this.reset();
+    }
+    
+    /**
+     * Adds the outline of a glyph which is rotated around its origin, the same way {@link
+     * Graphics2D#drawChars(char[], int, int, int, int)} would draw it after {@link
+     * Graphics2D#rotate(double, double, double)} around the same point.
+     *
+     * @param outline
+     *         the outline of the glyph.
+     * @param theta
+     *         the rotation in radians.
+     * @param x
+     *         the x coordinate of the origin of the glyph.
+     * @param y
+     *         the y coordinate of the origin (baseline) of the glyph.
+     */
+    public void addGlyph(final GlyphCache.GlyphOutline outline, final double theta, final double x, final double y) {
+        final float[] points = outline.getPoints();
+        final int[] contourEnds = outline.getContourEnds();
+        final double cos = Math.cos(theta), sin = Math.sin(theta);
+        
+        int start = 0;
+        for (final int end : contourEnds) {
+            final float firstX = (float) (x + points[start] * cos - points[start + 1] * sin);
+            final float firstY = (float) (y + points[start] * sin + points[start + 1] * cos);
+            
+            float lastX = firstX, lastY = firstY;
+            for (int index = start + 2; index < end; index += 2) {
+                final float nextX = (float) (x + points[index] * cos - points[index + 1] * sin);
+                final float nextY = (float) (y + points[index] * sin + points[index + 1] * cos);
+                this.addLine(lastX, lastY, nextX, nextY);
+                lastX = nextX;
+                lastY = nextY;
+            }
+            this.addLine(lastX, lastY, firstX, firstY);
+            start = end;
+        }
+    }
+    
+    /**
+     * Adds a cubic curve which is stroked like {@link Graphics2D#draw(Shape)} with the
+     * default stroke would do it (one pixel wide with square caps). The curve is
+     * flattened into segments, every segment becomes a quad and the gaps between them are
+     * closed by triangles.
+     *
+     * @param x0
+     *         the x coordinate of the start point.
+     * @param y0
+     *         the y coordinate of the start point.
+     * @param x1
+     *         the x coordinate of the first control point.
+     * @param y1
+     *         the y coordinate of the first control point.
+     * @param x2
+     *         the x coordinate of the second control point.
+     * @param y2
+     *         the y coordinate of the second control point.
+     * @param x3
+     *         the x coordinate of the end point.
+     * @param y3
+     *         the y coordinate of the end point.
+     */
+    public void addStroke(
+            final double x0, final double y0,
+            final double x1, final double y1,
+            final double x2, final double y2,
+            final double x3, final double y3
+    ) {
+        // The distance between a cubic and its n uniform segments is at most 3/4 of the
+        // biggest second difference of the control points divided by n^2.
+        final double ddx = Math.max(Math.abs(x0 - 2 * x1 + x2), Math.abs(x1 - 2 * x2 + x3));
+        final double ddy = Math.max(Math.abs(y0 - 2 * y1 + y2), Math.abs(y1 - 2 * y2 + y3));
+        final int segments = Math.max(1, Math.min(MAX_SEGMENTS, (int) Math.ceil(Math.sqrt(0.75 * Math.hypot(ddx, ddy) / FLATNESS))));
+        
+        double lastX = x0 + STROKE_OFFSET, lastY = y0 + STROKE_OFFSET;
+        double lastNormalX = 0, lastNormalY = 0;
+        boolean first = true;
+        for (int index = 1; index <= segments; index++) {
+            final double t = (double) index / segments, u = 1 - t;
+            final double a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, d = t * t * t;
+            final double nextX = a * x0 + b * x1 + c * x2 + d * x3 + STROKE_OFFSET;
+            final double nextY = a * y0 + b * y1 + c * y2 + d * y3 + STROKE_OFFSET;
+            
+            final double length = Math.hypot(nextX - lastX, nextY - lastY);
+            if (length < 1e-9)
+                continue;
+            
+            final double directionX = (nextX - lastX) / length * HALF_WIDTH, directionY = (nextY - lastY) / length * HALF_WIDTH;
+            final double normalX = -directionY, normalY = directionX;
+            
+            double startX = lastX, startY = lastY, endX = nextX, endY = nextY;
+            if (first) {
+                startX -= directionX;
+                startY -= directionY;
+            } else {
+                this.addTriangle(lastX, lastY, lastX + lastNormalX, lastY + lastNormalY, lastX + normalX, lastY + normalY);
+                this.addTriangle(lastX, lastY, lastX - lastNormalX, lastY - lastNormalY, lastX - normalX, lastY - normalY);
+            }
+            if (index == segments) {
+                endX += directionX;
+                endY += directionY;
+            }
+            
+            this.addQuad(
+                    startX + normalX, startY + normalY,
+                    endX + normalX, endY + normalY,
+                    endX - normalX, endY - normalY,
+                    startX - normalX, startY - normalY
+            );
+            
+            first = false;
+            lastX = nextX;
+            lastY = nextY;
+            lastNormalX = normalX;
+            lastNormalY = normalY;
+        }
+    }
+    
+    /**
+     * Fills the current shape with the provided color onto RGB pixels and starts a new
+     * shape.
+     *
+     * @param pixels
+     *         the RGB pixels of the image.
+     * @param imageWidth
+     *         the width of the image (which is also the scanline stride).
+     * @param imageHeight
+     *         the height of the image.
+     * @param color
+     *         the color of the shape (its alpha is respected).
+     */
+    public void fill(final int[] pixels, final int imageWidth, final int imageHeight, final Color color) {
+        if (this.lineLength == 0)
+            return;
+        
+        final int originX = (int) Math.floor(this.minX), originY = (int) Math.floor(this.minY);
+        final int stride = this.accumulate(originX, originY);
+        final int rows = (int) Math.ceil(this.maxY) - originY;
+        
+        final int red = color.getRed(), green = color.getGreen(), blue = color.getBlue();
+        final int colorAlpha = color.getAlpha();
+        final float[] areas = this.areas;
+        
+        for (int row = 0; row < rows; row++) {
+            final int spanStart = this.spanStarts[row], spanEnd = this.spanEnds[row];
+            if (spanEnd < spanStart)
+                continue;
+            
+            final int imageY = originY + row, areaRow = row * stride;
+            if (imageY < 0 || imageY >= imageHeight) {
+                Arrays.fill(areas, areaRow + spanStart, areaRow + spanEnd + 1, 0f);
+                continue;
+            }
+            
+            final int imageRow = imageY * imageWidth;
+            float sum = 0;
+            for (int column = spanStart; column <= spanEnd; column++) {
+                sum += areas[areaRow + column];
+                areas[areaRow + column] = 0;
+                
+                final int imageX = originX + column;
+                if (imageX < 0 || imageX >= imageWidth)
+                    continue;
+                
+                final int coverage = (int) (Math.min(1f, Math.abs(sum)) * 255f + 0.5f);
+                if (coverage == 0)
+                    continue;
+                
+                final int alpha = (coverage * colorAlpha + 127) / 255;
+                final int rgb = pixels[imageRow + imageX];
+                
+                final int oldRed = (rgb >> 16) & 0xFF, oldGreen = (rgb >> 8) & 0xFF, oldBlue = rgb & 0xFF;
+                final int newRed = oldRed + ((red - oldRed) * alpha + 127) / 255;
+                final int newGreen = oldGreen + ((green - oldGreen) * alpha + 127) / 255;
+                final int newBlue = oldBlue + ((blue - oldBlue) * alpha + 127) / 255;
+                
+                pixels[imageRow + imageX] = (newRed << 16) | (newGreen << 8) | newBlue;
+            }
+        }
+        
+        this.reset();
+    }
+    
+    /**
+     * Fills the current shape with the gray value of the provided color onto gray pixels
+     * and starts a new shape.
+     *
+     * @param pixels
+     *         the gray pixels of the image.
+     * @param imageWidth
+     *         the width of the image (which is also the scanline stride).
+     * @param imageHeight
+     *         the height of the image.
+     * @param color
+     *         the color of the shape (its alpha is respected).
+     */
+    public void fill(final byte[] pixels, final int imageWidth, final int imageHeight, final Color color) {
+        if (this.lineLength == 0)
+            return;
+        
+        final int originX = (int) Math.floor(this.minX), originY = (int) Math.floor(this.minY);
+        final int stride = this.accumulate(originX, originY);
+        final int rows = (int) Math.ceil(this.maxY) - originY;
+        
+        final int gray = GraphicUtils.toGray(color.getRed(), color.getGreen(), color.getBlue());
+        final int colorAlpha = color.getAlpha();
+        final float[] areas = this.areas;
+        
+        for (int row = 0; row < rows; row++) {
+            final int spanStart = this.spanStarts[row], spanEnd = this.spanEnds[row];
+            if (spanEnd < spanStart)
+                continue;
+            
+            final int imageY = originY + row, areaRow = row * stride;
+            if (imageY < 0 || imageY >= imageHeight) {
+                Arrays.fill(areas, areaRow + spanStart, areaRow + spanEnd + 1, 0f);
+                continue;
+            }
+            
+            final int imageRow = imageY * imageWidth;
+            float sum = 0;
+            for (int column = spanStart; column <= spanEnd; column++) {
+                sum += areas[areaRow + column];
+                areas[areaRow + column] = 0;
+                
+                final int imageX = originX + column;
+                if (imageX < 0 || imageX >= imageWidth)
+                    continue;
+                
+                final int coverage = (int) (Math.min(1f, Math.abs(sum)) * 255f + 0.5f);
+                if (coverage == 0)
+                    continue;
+                
+                final int alpha = (coverage * colorAlpha + 127) / 255;
+                final int oldGray = pixels[imageRow + imageX] & 0xFF;
+                pixels[imageRow + imageX] = (byte) (oldGray + ((gray - oldGray) * alpha + 127) / 255);
+            }
+        }
+        
+        this.reset();
+    }
+    
+    /**
+     * Adds the signed area of every segment of the current shape to the cells. The cells
+     * cover the bounds of the shape, starting at the provided origin.
+     *
+     * @param originX
+     *         the x coordinate of the first cell.
+     * @param originY
+     *         the y coordinate of the first cell.
+     *
+     * @return the amount of cells in a row.
+     */
+    private int accumulate(final int originX, final int originY) {
+        // A segment writes up to the cell right of its end, which needs one more column.
+        final int stride = (int) Math.ceil(this.maxX) - originX + 2;
+        final int rows = (int) Math.ceil(this.maxY) - originY;
+        if (this.areas.length < stride * rows)
+            this.areas = new float[Math.max(stride * rows, this.areas.length * 2)];
+        if (this.spanStarts.length < rows) {
+            this.spanStarts = new int[Math.max(rows, this.spanStarts.length * 2)];
+            this.spanEnds = new int[this.spanStarts.length];
+        }
+        Arrays.fill(this.spanStarts, 0, rows, Integer.MAX_VALUE);
+        Arrays.fill(this.spanEnds, 0, rows, -1);
+        
+        final float[] lines = this.lines;
+        for (int index = 0; index < this.lineLength; index += 4) {
+            this.accumulateLine(
+                    lines[index] - originX, lines[index + 1] - originY,
+                    lines[index + 2] - originX, lines[index + 3] - originY,
+                    stride
+            );
+        }
+        return stride;
+    }
+    
+    /**
+     * Adds the signed area of a segment to the cells it crosses. The segment must be inside
+     * the cells (no coordinate is negative).
+     *
+     * @param x0
+     *         the x coordinate of the start point relative to the cells.
+     * @param y0
+     *         the y coordinate of the start point relative to the cells.
+     * @param x1
+     *         the x coordinate of the end point relative to the cells.
+     * @param y1
+     *         the y coordinate of the end point relative to the cells.
+     * @param stride
+     *         the amount of cells in a row.
+     */
+    private void accumulateLine(float x0, float y0, float x1, float y1, final int stride) {
+        if (y0 == y1)
+            return;
+        
+        final float direction;
+        if (y0 < y1) {
+            direction = 1f;
+        } else {
+            direction = -1f;
+            float swap = x0;
+            x0 = x1;
+            x1 = swap;
+            swap = y0;
+            y0 = y1;
+            y1 = swap;
+        }
+        
+        final float[] areas = this.areas;
+        final float slope = (x1 - x0) / (y1 - y0);
+        final int endY = (int) Math.ceil(y1);
+        
+        float x = x0;
+        for (int y = (int) y0; y < endY; y++) {
+            final int row = y * stride;
+            final float height = Math.min(y + 1, y1) - Math.max(y, y0);
+            final float nextX = x + slope * height;
+            final float area = height * direction;
+            
+            final float left = Math.min(x, nextX), right = Math.max(x, nextX);
+            final float leftFloor = (float) Math.floor(left);
+            final int leftCell = (int) leftFloor, rightCell = (int) Math.ceil(right);
+            this.spanStarts[y] = Math.min(this.spanStarts[y], leftCell);
+            this.spanEnds[y] = Math.max(this.spanEnds[y], Math.max(leftCell + 1, rightCell));
+            
+            if (rightCell <= leftCell + 1) {
+                // The segment stays in one cell of the row.
+                final float middle = 0.5f * (x + nextX) - leftFloor;
+                areas[row + leftCell] += area - area * middle;
+                areas[row + leftCell + 1] += area * middle;
+            } else {
+                // The segment crosses multiple cells, every cell gets the part of the
+                // trapezoid which lies in it.
+                final float inverse = 1f / (right - left);
+                final float leftFraction = left - leftFloor;
+                final float firstArea = 0.5f * inverse * (1f - leftFraction) * (1f - leftFraction);
+                final float rightFraction = right - rightCell + 1f;
+                final float lastArea = 0.5f * inverse * rightFraction * rightFraction;
+                
+                areas[row + leftCell] += area * firstArea;
+                if (rightCell == leftCell + 2) {
+                    areas[row + leftCell + 1] += area * (1f - firstArea - lastArea);
+                } else {
+                    final float secondArea = inverse * (1.5f - leftFraction);
+                    areas[row + leftCell + 1] += area * (secondArea - firstArea);
+                    for (int cell = leftCell + 2; cell < rightCell - 1; cell++)
+                        areas[row + cell] += area * inverse;
+                    
+                    final float beforeLastArea = secondArea + (rightCell - leftCell - 3) * inverse;
+                    areas[row + rightCell - 1] += area * (1f - beforeLastArea - lastArea);
+                }
+                areas[row + rightCell] += area * lastArea;
+            }
+            
+            x = nextX;
+        }
+    }
+    
+    /**
+     * Adds a quad of a stroke. Every quad has the same orientation, so overlapping quads
+     * add up instead of cancelling each other out.
+     *
+     * @param x0
+     *         the x coordinate of the first corner.
+     * @param y0
+     *         the y coordinate of the first corner.
+     * @param x1
+     *         the x coordinate of the second corner.
+     * @param y1
+     *         the y coordinate of the second corner.
+     * @param x2
+     *         the x coordinate of the third corner.
+     * @param y2
+     *         the y coordinate of the third corner.
+     * @param x3
+     *         the x coordinate of the fourth corner.
+     * @param y3
+     *         the y coordinate of the fourth corner.
+     */
+    private void addQuad(
+            final double x0, final double y0,
+            final double x1, final double y1,
+            final double x2, final double y2,
+            final double x3, final double y3
+    ) {
+        this.addLine((float) x0, (float) y0, (float) x1, (float) y1);
+        this.addLine((float) x1, (float) y1, (float) x2, (float) y2);
+        this.addLine((float) x2, (float) y2, (float) x3, (float) y3);
+        this.addLine((float) x3, (float) y3, (float) x0, (float) y0);
+    }
+    
+    /**
+     * Adds a triangle which closes the gap between two quads of a stroke. It gets the same
+     * orientation as the quads (see {@link #addQuad}).
+     *
+     * @param x0
+     *         the x coordinate of the first corner.
+     * @param y0
+     *         the y coordinate of the first corner.
+     * @param x1
+     *         the x coordinate of the second corner.
+     * @param y1
+     *         the y coordinate of the second corner.
+     * @param x2
+     *         the x coordinate of the third corner.
+     * @param y2
+     *         the y coordinate of the third corner.
+     */
+    private void addTriangle(
+            final double x0, final double y0,
+            final double x1, final double y1,
+            final double x2, final double y2
+    ) {
+        final double area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (Math.abs(area) < 1e-9)
+            return;
+        
+        if (area < 0) {
+            this.addLine((float) x0, (float) y0, (float) x1, (float) y1);
+            this.addLine((float) x1, (float) y1, (float) x2, (float) y2);
+            this.addLine((float) x2, (float) y2, (float) x0, (float) y0);
+        } else {
+            this.addLine((float) x0, (float) y0, (float) x2, (float) y2);
+            this.addLine((float) x2, (float) y2, (float) x1, (float) y1);
+            this.addLine((float) x1, (float) y1, (float) x0, (float) y0);
+        }
+    }
+    
+    /**
+     * Adds a line segment to the current shape and extends its bounds.
+     *
+     * @param x0
+     *         the x coordinate of the start point.
+     * @param y0
+     *         the y coordinate of the start point.
+     * @param x1
+     *         the x coordinate of the end point.
+     * @param y1
+     *         the y coordinate of the end point.
+     */
+    private void addLine(final float x0, final float y0, final float x1, final float y1) {
+        if (this.lineLength + 4 > this.lines.length)
+            this.lines = Arrays.copyOf(this.lines, this.lines.length * 2);
+        
+        this.lines[this.lineLength++] = x0;
+        this.lines[this.lineLength++] = y0;
+        this.lines[this.lineLength++] = x1;
+        this.lines[this.lineLength++] = y1;
+        
+        this.minX = Math.min(this.minX, Math.min(x0, x1));
+        this.minY = Math.min(this.minY, Math.min(y0, y1));
+        this.maxX = Math.max(this.maxX, Math.max(x0, x1));
+        this.maxY = Math.max(this.maxY, Math.max(y0, y1));
+    }
+    
+    /**
+     * Removes every segment of the current shape.
+     */
+    private void reset() {
+        this.lineLength = 0;
+        this.minX = this.minY = Float.POSITIVE_INFINITY;
+        this.maxX = this.maxY = Float.NEGATIVE_INFINITY;
+    }
+    
+}
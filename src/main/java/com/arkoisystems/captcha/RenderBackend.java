@@ -0,0 +1,26 @@
+package com.arkoisystems.captcha;
+
+/**
+ * Describes what draws the text and strokes of a {@link Captcha}. Both backends composite
+ * onto the pixels of the same {@link CaptchaCanvas}, so they can be used with every
+ * encoder.
+ */
+public enum RenderBackend
+{
+    
+    /**
+     * Draws with the {@link java.awt.Graphics2D} of the canvas. Java2D guards the font
+     * scaler and parts of the shape renderer with global locks, so this backend stops
+     * scaling once many threads render at the same time.
+     */
+    JAVA2D,
+    
+    /**
+     * Draws with the {@link Rasterizer} of the canvas, which fills the cached glyph
+     * outlines and flattened strokes without any shared state. The images look like the
+     * ones of Java2D (up to the antialiasing of the edges), but the throughput scales with
+     * the amount of threads.
+     */
+    SOFTWARE
+    
+}
@@ -0,0 +1,109 @@
+package com.arkoisystems.captcha.metrics;
+
+import com.arkoisystems.captcha.CaptchaPool;
+
+/**
+ * The interface which receives the measurements of captcha generation. Implement it to
+ * bridge the measurements to a monitoring system, or use {@link MetricsRecorder} which
+ * keeps counters and histograms in memory.
+ * <p>
+ * Every method is called on the hot path by multiple threads at the same time, so an
+ * implementation must be thread-safe and should never block.
+ */
+public interface CaptchaMetrics
+{
+    
+    /**
+     * The default implementation which ignores every measurement. As {@link #isEnabled()}
+     * returns false, not even the time is measured.
+     */
+    CaptchaMetrics NOOP = new CaptchaMetrics()
+    {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+        
+        @Override
+        public void recordStage(final Stage stage, final long nanos) {
+        }
+        
+        @Override
+        public void recordFrame() {
+        }
+        
+        @Override
+        public void recordBytes(final long bytes) {
+        }
+    };
+    
+    /**
+     * Returns the flag if measurements should be taken at all. If it returns false the
+     * callers skip measuring the time and counting the bytes.
+     *
+     * @return true if measurements should be taken or false if not.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+    
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage
+     *         the stage which was measured.
+     * @param nanos
+     *         the duration of the stage in nanoseconds.
+     */
+    void recordStage(Stage stage, long nanos);
+    
+    /**
+     * Records that a frame (an image or one frame of a GIF) was rendered.
+     */
+    void recordFrame();
+    
+    /**
+     * Records the size of an encoded captcha.
+     *
+     * @param bytes
+     *         the amount of bytes the encoded captcha has.
+     */
+    void recordBytes(long bytes);
+    
+    /**
+     * Records that a captcha was taken out of a {@link CaptchaPool}.
+     *
+     * @param hit
+     *         true if the captcha was in the pool or false if it had to be generated
+     *         inline.
+     */
+    default void recordPoolTake(final boolean hit) {
+    }
+    
+    /**
+     * Records that a worker of a {@link CaptchaPool} failed to generate a captcha.
+     */
+    default void recordPoolFailure() {
+    }
+    
+    /**
+     * Called when a {@link CaptchaPool} is created, so its state (e.g. {@link
+     * CaptchaPool#size()}) can be exposed as a gauge.
+     *
+     * @param pool
+     *         the pool which was created.
+     */
+    default void registerPool(final CaptchaPool pool) {
+    }
+    
+    /**
+     * Called when a {@link CaptchaPool} is closed, so it isn't exposed (and kept alive)
+     * anymore.
+     *
+     * @param pool
+     *         the pool which was closed.
+     */
+    default void unregisterPool(final CaptchaPool pool) {
+    }
+    
+}
@@ -0,0 +1,139 @@
+package com.arkoisystems.captcha.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed, exponentially growing buckets. The first bucket
+ * contains every duration up to one microsecond and every following bucket doubles the
+ * upper bound (up to ~8.4 s), the last bucket contains everything above. Recording a
+ * duration only increments {@link LongAdder}s, so it doesn't contend between threads.
+ */
+public class LatencyHistogram
+{
+    
+    /**
+     * The upper bound of the first bucket in nanoseconds.
+     */
+    private static final long FIRST_BOUND = 1_000L;
+    
+    /**
+     * The amount of buckets (including the overflow bucket).
+     */
+    public static final int BUCKETS = 25;
+    
+    /**
+     * The amount of durations in every bucket.
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    
+    /**
+     * The amount and sum of all recorded durations.
+     */
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int index = 0; index < BUCKETS; index++)
+            this.buckets[index] = new LongAdder();
+    }
+    
+    /**
+     * Returns the upper bound of a bucket.
+     *
+     * @param bucket
+     *         the index of the bucket.
+     *
+     * @return the upper bound of the bucket in nanoseconds or {@link Long#MAX_VALUE} for
+     *         the overflow bucket.
+     */
+    public static long getUpperBound(final int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : FIRST_BOUND << bucket;
+    }
+    
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *         the duration in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        final int bucket = value <= FIRST_BOUND ? 0 : 64 - Long.numberOfLeadingZeros((value - 1) / FIRST_BOUND);
+        
+        this.buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        this.count.increment();
+        this.sum.add(value);
+    }
+    
+    /**
+     * Returns the amount of durations in a bucket.
+     *
+     * @param bucket
+     *         the index of the bucket.
+     *
+     * @return the amount of durations in the bucket.
+     */
+    public long getBucketCount(final int bucket) {
+        return this.buckets[bucket].sum();
+    }
+    
+    /**
+     * Returns the amount of recorded durations.
+     *
+     * @return the amount of recorded durations.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+    
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return the sum of all recorded durations in nanoseconds.
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+    
+    /**
+     * Returns the mean of all recorded durations.
+     *
+     * @return the mean of all recorded durations in nanoseconds or 0 if nothing was
+     *         recorded.
+     */
+    public double getMean() {
+        final long count = this.getCount();
+        return count == 0 ? 0 : (double) this.getSum() / count;
+    }
+    
+    /**
+     * Returns an estimation of a percentile, which is the upper bound of the bucket
+     * containing it.
+     *
+     * @param percentile
+     *         the percentile between 0 and 1 (e.g. 0.99).
+     *
+     * @return the upper bound of the bucket containing the percentile in nanoseconds or 0
+     *         if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int index = 0; index < BUCKETS; index++)
+            total += counts[index] = this.getBucketCount(index);
+        if (total == 0)
+            return 0;
+        
+        final long rank = (long) Math.ceil(Math.max(0, Math.min(1, percentile)) * total);
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += counts[index];
+            if (seen >= rank && counts[index] > 0)
+                return getUpperBound(index);
+        }
+        return getUpperBound(BUCKETS - 1);
+    }
+    
+}
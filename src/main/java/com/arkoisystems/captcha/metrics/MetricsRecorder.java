@@ -0,0 +1,164 @@
+package com.arkoisystems.captcha.metrics;
+
+import com.arkoisystems.captcha.CaptchaPool;
+import lombok.Getter;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CaptchaMetrics} which keeps every measurement in memory: one {@link
+ * LatencyHistogram} per {@link Stage} and {@link LongAdder} counters for everything
+ * else. The values can be read at any time, e.g. by a scraper of a monitoring system.
+ */
+public class MetricsRecorder implements CaptchaMetrics
+{
+    
+    /**
+     * The histograms of every stage.
+     */
+    private final EnumMap<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    
+    /**
+     * The amount of rendered frames, encoded captchas and bytes.
+     */
+    private final LongAdder frames = new LongAdder(), encoded = new LongAdder(), bytes = new LongAdder();
+    
+    /**
+     * The amount of captchas taken out of pools (hits) or generated inline (misses) and
+     * the amount of failures of pool workers.
+     */
+    private final LongAdder poolHits = new LongAdder(), poolMisses = new LongAdder(), poolFailures = new LongAdder();
+    
+    /**
+     * The pools which were created with this recorder and aren't closed yet.
+     */
+    @Getter
+    private final List<CaptchaPool> pools = new CopyOnWriteArrayList<>();
+    
+    /**
+     * Creates a recorder without any measurements.
+     */
+    public MetricsRecorder() {
+        for (final Stage stage : Stage.values())
+            this.stages.put(stage, new LatencyHistogram());
+    }
+    
+    @Override
+    public void recordStage(final Stage stage, final long nanos) {
+        this.stages.get(stage).record(nanos);
+    }
+    
+    @Override
+    public void recordFrame() {
+        this.frames.increment();
+    }
+    
+    @Override
+    public void recordBytes(final long bytes) {
+        this.encoded.increment();
+        this.bytes.add(bytes);
+    }
+    
+    @Override
+    public void recordPoolTake(final boolean hit) {
+        (hit ? this.poolHits : this.poolMisses).increment();
+    }
+    
+    @Override
+    public void recordPoolFailure() {
+        this.poolFailures.increment();
+    }
+    
+    @Override
+    public void registerPool(final CaptchaPool pool) {
+        this.pools.add(pool);
+    }
+    
+    @Override
+    public void unregisterPool(final CaptchaPool pool) {
+        this.pools.remove(pool);
+    }
+    
+    /**
+     * Returns the histogram of a stage.
+     *
+     * @param stage
+     *         the stage whose histogram is returned.
+     *
+     * @return the histogram of the stage.
+     */
+    public LatencyHistogram getHistogram(final Stage stage) {
+        return this.stages.get(stage);
+    }
+    
+    /**
+     * Returns the amount of rendered frames.
+     *
+     * @return the amount of rendered frames.
+     */
+    public long getFrames() {
+        return this.frames.sum();
+    }
+    
+    /**
+     * Returns the amount of encoded captchas.
+     *
+     * @return the amount of encoded captchas.
+     */
+    public long getEncoded() {
+        return this.encoded.sum();
+    }
+    
+    /**
+     * Returns the amount of bytes of all encoded captchas.
+     *
+     * @return the amount of bytes of all encoded captchas.
+     */
+    public long getBytes() {
+        return this.bytes.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which were taken out of a pool.
+     *
+     * @return the amount of captchas which were taken out of a pool.
+     */
+    public long getPoolHits() {
+        return this.poolHits.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which had to be generated inline because a pool was
+     * empty.
+     *
+     * @return the amount of captchas which had to be generated inline.
+     */
+    public long getPoolMisses() {
+        return this.poolMisses.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which couldn't be generated by a pool worker.
+     *
+     * @return the amount of captchas which couldn't be generated by a pool worker.
+     */
+    public long getPoolFailures() {
+        return this.poolFailures.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which are ready to be served by all pools.
+     *
+     * @return the amount of captchas which are ready to be served by all pools.
+     */
+    public long getPoolSize() {
+        long size = 0;
+        for (final CaptchaPool pool : this.getPools())
+            size += pool.size();
+        return size;
+    }
+    
+}
@@ -0,0 +1,30 @@
+package com.arkoisystems.captcha.metrics;
+
+/**
+ * The stages of generating a captcha whose durations are recorded by {@link
+ * CaptchaMetrics}.
+ */
+public enum Stage
+{
+    
+    /**
+     * Writing the rotated characters of the text.
+     */
+    TEXT,
+    
+    /**
+     * Drawing the stroke noise.
+     */
+    STROKE_NOISE,
+    
+    /**
+     * Adding the gaussian noise.
+     */
+    GAUSSIAN_NOISE,
+    
+    /**
+     * Encoding the rendered frames (e.g. into a PNG or GIF).
+     */
+    ENCODE
+    
+}
@@ -0,0 +1,364 @@
+package com.arkoisystems.captcha.quality;
+
+import com.arkoisystems.captcha.EncodedCaptcha;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Switches between an ordered list of {@link QualityProfile}s (the best quality first) to
+ * hold a latency target. When the captchas get slow (e.g. during an attack) the controller
+ * steps down to a cheaper profile, and steps up again once the latency stayed well below
+ * the target for a while.
+ * <p>
+ * The latency of every captcha is recorded (by {@link #encode()} or {@link #record(long)})
+ * into a ring of the most recent samples. Once per interval the thread which records a
+ * sample evaluates the samples of the last interval, so there is no background thread.
+ * The controller steps down one tier per interval if the percentile of the latencies is
+ * above the target or the queue is deeper than allowed. It steps up one tier if the
+ * percentile stayed below the target times the step-up ratio (and the queue at most half
+ * as deep as allowed) for some intervals in a row, which keeps it from flapping between
+ * two tiers.
+ */
+public class QualityController
+{
+    
+    /**
+     * The profiles, ordered from the best to the cheapest.
+     */
+    @Getter
+    private final List<QualityProfile> profiles;
+    
+    /**
+     * The latency the percentile of the captchas should stay below.
+     */
+    @Getter
+    private final Duration latencyTarget;
+    
+    /**
+     * The percentile of the latencies which is compared with the target (e.g. 0.9).
+     */
+    @Getter
+    private final double percentile;
+    
+    /**
+     * The time between two evaluations.
+     */
+    @Getter
+    private final Duration interval;
+    
+    /**
+     * The supplier of the current queue depth (e.g. the waiting requests) or null if no
+     * queue is watched.
+     */
+    private final IntSupplier queueDepth;
+    
+    /**
+     * The queue depth above which the controller steps down (0 to ignore the queue).
+     */
+    @Getter
+    private final int maxQueueDepth;
+    
+    /**
+     * The fraction of the target the percentile must stay below to step up.
+     */
+    @Getter
+    private final double stepUpRatio;
+    
+    /**
+     * The amount of intervals in a row which must allow a step up before it happens.
+     */
+    @Getter
+    private final int stepUpIntervals;
+    
+    /**
+     * The minimum amount of samples to compare the latency with the target. The samples of
+     * intervals with fewer completions are carried over to the next evaluation.
+     */
+    @Getter
+    private final int minSamples;
+    
+    /**
+     * The most recent latencies (a ring, indexed by the amount of recorded samples).
+     */
+    private final AtomicLongArray samples;
+    
+    /**
+     * The amount of recorded samples.
+     */
+    private final AtomicLong recorded = new AtomicLong();
+    
+    /**
+     * The time (of {@link System#nanoTime()}) of the next evaluation.
+     */
+    private final AtomicLong nextEvaluation;
+    
+    /**
+     * The listeners which are notified about every switch.
+     */
+    private final List<Consumer<TierSwitch>> listeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * The amount of switches.
+     */
+    private final LongAdder switches = new LongAdder();
+    
+    /**
+     * The index of the current profile.
+     */
+    private volatile int tier;
+    
+    /**
+     * The last switch or null if the tier never changed.
+     */
+    @Getter
+    private volatile TierSwitch lastSwitch;
+    
+    /**
+     * The amount of recorded samples which were evaluated, the amount at the last evaluation
+     * and the amount of intervals in a row which allowed a step up. Only used by the
+     * evaluating thread.
+     */
+    private long evaluated, observed;
+    
+    private int relaxedIntervals;
+    
+    /**
+     * Creates a new controller which starts with the best profile.
+     *
+     * @param profiles
+     *         the profiles, ordered from the best to the cheapest.
+     * @param latencyTarget
+     *         the latency the percentile of the captchas should stay below.
+     * @param percentile
+     *         the percentile which is compared with the target (0.9 by default).
+     * @param interval
+     *         the time between two evaluations (1 second by default).
+     * @param queueDepth
+     *         the supplier of the current queue depth or null if no queue is watched.
+     * @param maxQueueDepth
+     *         the queue depth above which the controller steps down (0 to ignore the
+     *         queue).
+     * @param stepUpRatio
+     *         the fraction of the target the percentile must stay below to step up (0.5 by
+     *         default).
+     * @param stepUpIntervals
+     *         the amount of intervals in a row which must allow a step up (3 by default).
+     * @param minSamples
+     *         the minimum amount of samples to compare the latency with the target (16 by
+     *         default).
+     * @param sampleCapacity
+     *         the amount of recent samples which are kept (1024 by default, rounded up to a
+     *         power of two).
+     */
+    @Builder
+    private QualityController(
+            final List<QualityProfile> profiles,
+            final Duration latencyTarget,
+            final double percentile,
+            final Duration interval,
+            final IntSupplier queueDepth,
+            final int maxQueueDepth,
+            final double stepUpRatio,
+            final int stepUpIntervals,
+            final int minSamples,
+            final int sampleCapacity
+    ) {
+        if (profiles == null || profiles.isEmpty())
+            throw new IllegalArgumentException("The controller needs at least one profile.");
+        if (latencyTarget == null || latencyTarget.isNegative() || latencyTarget.isZero())
+            throw new IllegalArgumentException("The latency target must be positive.");
+        
+        this.profiles = List.copyOf(profiles);
+        this.latencyTarget = latencyTarget;
+        this.percentile = percentile > 0 && percentile <= 1 ? percentile : 0.9;
+        this.interval = interval != null && !interval.isNegative() && !interval.isZero() ? interval : Duration.ofSeconds(1);
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = Math.max(0, maxQueueDepth);
+        this.stepUpRatio = stepUpRatio > 0 && stepUpRatio < 1 ? stepUpRatio : 0.5;
+        this.stepUpIntervals = stepUpIntervals > 0 ? stepUpIntervals : 3;
+        this.minSamples = minSamples > 0 ? minSamples : 16;
+        this.samples = new AtomicLongArray(Integer.highestOneBit(Math.max(this.minSamples, sampleCapacity > 0 ? sampleCapacity : 1024) * 2 - 1));
+        this.nextEvaluation = new AtomicLong(System.nanoTime() + this.interval.toNanos());
+    }
+    
+    /**
+     * Returns the index of the current tier (0 is the best quality).
+     *
+     * @return the index of the current tier.
+     */
+    public int getTier() {
+        return this.tier;
+    }
+    
+    /**
+     * Returns the profile of the current tier.
+     *
+     * @return the profile of the current tier.
+     */
+    public QualityProfile getProfile() {
+        return this.profiles.get(this.tier);
+    }
+    
+    /**
+     * Returns the amount of switches since the controller was created.
+     *
+     * @return the amount of switches.
+     */
+    public long getSwitchCount() {
+        return this.switches.sum();
+    }
+    
+    /**
+     * Adds a listener which is notified about every switch. It is called by the thread
+     * which evaluated the samples, so it should return quickly.
+     *
+     * @param listener
+     *         the listener which is notified about every switch.
+     */
+    public void addListener(final Consumer<TierSwitch> listener) {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener which was added by {@link #addListener(Consumer)}.
+     *
+     * @param listener
+     *         the listener which gets removed.
+     */
+    public void removeListener(final Consumer<TierSwitch> listener) {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Renders a captcha with the current profile, encodes it into a byte array and records
+     * its latency.
+     *
+     * @return the encoded captcha with its text.
+     */
+    public EncodedCaptcha encode() {
+        final QualityProfile profile = this.getProfile();
+        final long start = System.nanoTime();
+        final EncodedCaptcha encoded = profile.getEncoder().encode(profile.getCaptcha());
+        this.record(System.nanoTime() - start);
+        return encoded;
+    }
+    
+    /**
+     * Renders a captcha with the current profile, writes the encoded bytes to the output
+     * stream and records its latency.
+     *
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     *
+     * @return the text (answer) of the captcha.
+     */
+    public String encode(final OutputStream outputStream) {
+        final QualityProfile profile = this.getProfile();
+        final long start = System.nanoTime();
+        final String text = profile.getEncoder().encode(profile.getCaptcha(), outputStream);
+        this.record(System.nanoTime() - start);
+        return text;
+    }
+    
+    /**
+     * Records the latency of a captcha which was rendered with the current profile (e.g.
+     * from the start of the request) and evaluates the samples if the interval elapsed.
+     *
+     * @param nanos
+     *         the latency of the captcha in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long index = this.recorded.getAndIncrement();
+        this.samples.lazySet((int) (index & (this.samples.length() - 1)), nanos);
+        
+        final long now = System.nanoTime(), next = this.nextEvaluation.get();
+        if (now - next >= 0 && this.nextEvaluation.compareAndSet(next, now + this.interval.toNanos()))
+            this.evaluate();
+    }
+    
+    /**
+     * Evaluates the samples since the last evaluation and switches the tier if needed.
+     * This is called by {@link #record(long)} once per interval, but can also be called by
+     * a scheduler (e.g. to step up while no captchas are requested).
+     */
+    public synchronized void evaluate() {
+        final long recorded = this.recorded.get();
+        final int count = (int) Math.min(recorded - this.evaluated, this.samples.length());
+        final boolean idle = recorded == this.observed;
+        this.observed = recorded;
+        
+        long latency = -1;
+        if (count >= this.getMinSamples()) {
+            this.evaluated = recorded;
+            final long[] window = new long[count];
+            for (int index = 0; index < count; index++)
+                window[index] = this.samples.get((int) ((recorded - count + index) & (this.samples.length() - 1)));
+            Arrays.sort(window);
+            latency = window[Math.min(count - 1, (int) Math.ceil(this.getPercentile() * count) - 1)];
+        }
+        
+        final int depth = this.queueDepth != null ? this.queueDepth.getAsInt() : 0;
+        final long target = this.getLatencyTarget().toNanos();
+        final int tier = this.tier;
+        
+        if (this.getMaxQueueDepth() > 0 && depth > this.getMaxQueueDepth()) {
+            this.switchTier(tier + 1, TierSwitch.Reason.QUEUE_DEPTH, latency, depth);
+        } else if (latency > target) {
+            this.switchTier(tier + 1, TierSwitch.Reason.LATENCY, latency, depth);
+        } else if (latency == -1 && !idle) {
+            // Too few samples to judge the latency (e.g. slow renders), so they are kept for
+            // the next interval. The interval neither allows a step up nor breaks the streak.
+        } else if (latency < target * this.getStepUpRatio() && (this.getMaxQueueDepth() == 0 || depth <= this.getMaxQueueDepth() / 2)) {
+            // An interval without any samples counts as relaxed, so the quality is raised
+            // again once the traffic is gone.
+            if (++this.relaxedIntervals >= this.getStepUpIntervals())
+                this.switchTier(tier - 1, TierSwitch.Reason.RECOVERED, latency, depth);
+        } else {
+            this.relaxedIntervals = 0;
+        }
+    }
+    
+    /**
+     * Switches to another tier (if it exists) and notifies the listeners.
+     *
+     * @param tier
+     *         the index of the new tier.
+     * @param reason
+     *         the reason of the switch.
+     * @param latency
+     *         the latency percentile of the interval.
+     * @param depth
+     *         the queue depth.
+     */
+    private void switchTier(final int tier, final TierSwitch.Reason reason, final long latency, final int depth) {
+        this.relaxedIntervals = 0;
+        
+        final int from = this.tier;
+        if (tier < 0 || tier >= this.profiles.size() || tier == from)
+            return;
+        
+        this.tier = tier;
+        this.switches.increment();
+        
+        // The samples of the old tier don't tell anything about the new one.
+        this.evaluated = this.recorded.get();
+        
+        final TierSwitch event = new TierSwitch(from, tier, this.profiles.get(from), this.profiles.get(tier), reason, latency, depth, Instant.now());
+        this.lastSwitch = event;
+        for (final Consumer<TierSwitch> listener : this.listeners)
+            listener.accept(event);
+    }
+    
+}
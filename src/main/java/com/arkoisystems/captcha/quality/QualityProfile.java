@@ -0,0 +1,37 @@
+package com.arkoisystems.captcha.quality;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A quality tier of the {@link QualityController}: a captcha template (e.g. with or
+ * without noise, with less strokes) together with the encoder of its output format (e.g.
+ * a GIF with fewer frames or a PNG).
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class QualityProfile
+{
+    
+    /**
+     * The name of the profile (e.g. "full" or "png-only"), used by the switch events.
+     */
+    private final String name;
+    
+    /**
+     * The template of the captchas.
+     */
+    @ToString.Exclude
+    private final Captcha captcha;
+    
+    /**
+     * The encoder which renders and encodes the captchas.
+     */
+    @ToString.Exclude
+    private final CaptchaEncoder encoder;
+    
+}
@@ -0,0 +1,73 @@
+package com.arkoisystems.captcha.quality;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * An event of the {@link QualityController} which is published when it switched to
+ * another quality tier.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class TierSwitch
+{
+    
+    /**
+     * The index of the previous and the new tier (0 is the best quality).
+     */
+    private final int from, to;
+    
+    /**
+     * The previous and the new profile.
+     */
+    private final QualityProfile fromProfile, toProfile;
+    
+    /**
+     * The reason of the switch.
+     */
+    private final Reason reason;
+    
+    /**
+     * The latency percentile (in nanoseconds) of the interval which caused the switch or
+     * -1 if there weren't enough samples.
+     */
+    private final long latency;
+    
+    /**
+     * The queue depth when the switch happened (0 if no queue is watched).
+     */
+    private final int queueDepth;
+    
+    /**
+     * The time when the switch happened.
+     */
+    private final Instant time;
+    
+    /**
+     * The reasons of a switch.
+     */
+    public enum Reason
+    {
+        
+        /**
+         * The latency was above the target, so the quality was lowered.
+         */
+        LATENCY,
+        
+        /**
+         * The queue was deeper than allowed, so the quality was lowered.
+         */
+        QUEUE_DEPTH,
+        
+        /**
+         * The latency and the queue stayed low long enough, so the quality was raised.
+         */
+        RECOVERED
+        
+    }
+    
+}
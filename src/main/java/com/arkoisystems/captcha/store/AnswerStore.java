@@ -0,0 +1,564 @@
+package com.arkoisystems.captcha.store;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A store of the answers of issued captchas which can be verified exactly once. It is
+ * built to hold millions of captchas without putting pressure on the garbage collector:
+ * <ul>
+ *     <li>Answers are stored as keyed 64 bit hashes in primitive arrays, so no objects are
+ *     created per captcha.</li>
+ *     <li>The store is split into stripes with their own lock, which are selected by the
+ *     id of the captcha.</li>
+ *     <li>Expired answers are removed by a timer wheel per stripe while the stripe is
+ *     used anyway (or by {@link #expire()}).</li>
+ *     <li>The memory is allocated once and bounded by the capacity. If a stripe is full
+ *     the answer which expires next gets evicted.</li>
+ * </ul>
+ */
+public class AnswerStore
+{
+    
+    /**
+     * The amount of ticks of the timer wheel within one time to live. The wheel spans two
+     * times to live, so every entry fits into it.
+     */
+    private static final int TICKS_PER_TTL = 64, WHEEL_SIZE = TICKS_PER_TTL * 2;
+    
+    /**
+     * The maximum amount of answers the store holds.
+     */
+    @Getter
+    private final int capacity;
+    
+    /**
+     * The time after which an answer can't be verified anymore.
+     */
+    @Getter
+    private final Duration timeToLive;
+    
+    /**
+     * The flag if the answers are compared case-sensitive.
+     */
+    @Getter
+    private final boolean caseSensitive;
+    
+    /**
+     * The duration of one tick of the timer wheels in nanoseconds.
+     */
+    private final long tickNanos;
+    
+    /**
+     * The time (see {@link System#nanoTime()}) the store was created at, which is tick 0.
+     */
+    private final long origin = System.nanoTime();
+    
+    /**
+     * The random key mixed into every answer hash, so the hashes can't be precomputed.
+     */
+    private final long hashKey = new SecureRandom().nextLong();
+    
+    /**
+     * The generator of the ids. An id is the only secret of a pending captcha (an entry is
+     * removed by a wrong answer as well), so it must not be predictable from earlier ids.
+     */
+    private final SecureRandom random = new SecureRandom();
+    
+    /**
+     * The stripes of the store and the mask used to select one.
+     */
+    private final Stripe[] stripes;
+    
+    private final int stripeMask;
+    
+    /**
+     * The amount of answers which were evicted because a stripe was full.
+     */
+    private final LongAdder evictions = new LongAdder();
+    
+    /**
+     * Creates a new store and allocates all of its memory.
+     *
+     * @param capacity
+     *         the maximum amount of answers (defaults to 2^20).
+     * @param timeToLive
+     *         the time after which an answer can't be verified anymore (defaults to five
+     *         minutes).
+     * @param stripes
+     *         the amount of stripes, rounded up to a power of two (defaults to four per
+     *         processor, at least 16).
+     * @param caseSensitive
+     *         the flag if the answers are compared case-sensitive.
+     */
+    @Builder
+    private AnswerStore(final int capacity, final Duration timeToLive, final int stripes, final boolean caseSensitive) {
+        this.capacity = capacity > 0 ? capacity : 1 << 20;
+        this.timeToLive = timeToLive != null && !timeToLive.isNegative() && !timeToLive.isZero() ? timeToLive : Duration.ofMinutes(5);
+        this.caseSensitive = caseSensitive;
+        this.tickNanos = Math.max(1, this.timeToLive.toNanos() / TICKS_PER_TTL);
+        
+        final int requested = stripes > 0 ? stripes : Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        final int stripeCount = Integer.highestOneBit(Math.min(1 << 16, Math.max(1, requested) * 2 - 1));
+        this.stripeMask = stripeCount - 1;
+        
+        final int stripeCapacity = Math.max(1, (this.capacity + stripeCount - 1) / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int index = 0; index < stripeCount; index++)
+            this.stripes[index] = new Stripe(stripeCapacity);
+    }
+    
+    /**
+     * Stores an answer under a new id from a {@link SecureRandom}.
+     *
+     * @param answer
+     *         the answer of the captcha (e.g. {@link com.arkoisystems.captcha.CaptchaResult#getText()}).
+     *
+     * @return the id which is needed to verify the answer (never 0).
+     */
+    public long put(final String answer) {
+        final long hash = this.hash(answer);
+        while (true) {
+            final long id = this.random.nextLong();
+            if (id != 0 && this.getStripe(id).put(id, hash, this.currentTick(), false))
+                return id;
+        }
+    }
+    
+    /**
+     * Stores an answer under the provided id. An answer which was already stored under the
+     * id gets replaced.
+     *
+     * @param id
+     *         the id of the captcha (must not be 0).
+     * @param answer
+     *         the answer of the captcha.
+     */
+    public void put(final long id, final String answer) {
+        if (id == 0)
+            throw new IllegalArgumentException("The id 0 is reserved.");
+        this.getStripe(id).put(id, this.hash(answer), this.currentTick(), true);
+    }
+    
+    /**
+     * Stores an answer under the provided id unless the id is used already. This is e.g.
+     * used to remember which single-use tokens were spent until they expire.
+     *
+     * @param id
+     *         the id of the captcha (must not be 0).
+     * @param answer
+     *         the answer of the captcha.
+     *
+     * @return true if the answer was stored or false if the id is used already.
+     */
+    public boolean putIfAbsent(final long id, final String answer) {
+        if (id == 0)
+            throw new IllegalArgumentException("The id 0 is reserved.");
+        return this.getStripe(id).put(id, this.hash(answer), this.currentTick(), false);
+    }
+    
+    /**
+     * Verifies an answer and removes it, so every captcha can only be verified once (also
+     * if the answer was wrong).
+     *
+     * @param id
+     *         the id of the captcha.
+     * @param answer
+     *         the answer which should be verified.
+     *
+     * @return true if the answer is correct and didn't expire yet or false if not.
+     */
+    public boolean verify(final long id, final String answer) {
+        if (id == 0 || answer == null)
+            return false;
+        return this.getStripe(id).remove(id, this.hash(answer), this.currentTick());
+    }
+    
+    /**
+     * Removes the answer of a captcha without verifying it.
+     *
+     * @param id
+     *         the id of the captcha.
+     *
+     * @return true if an answer which didn't expire yet was removed or false if not.
+     */
+    public boolean remove(final long id) {
+        if (id == 0)
+            return false;
+        return this.getStripe(id).remove(id, 0, this.currentTick());
+    }
+    
+    /**
+     * Removes all expired answers. This happens automatically whenever a stripe is used,
+     * so this only needs to be called (e.g. by a scheduler) to free stripes which are
+     * rarely used.
+     */
+    public void expire() {
+        final int tick = this.currentTick();
+        for (final Stripe stripe : this.stripes)
+            stripe.expire(tick);
+    }
+    
+    /**
+     * Returns the amount of stored answers (including the expired ones which weren't
+     * removed yet).
+     *
+     * @return the amount of stored answers.
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : this.stripes)
+            size += stripe.getSize();
+        return size;
+    }
+    
+    /**
+     * Returns the amount of answers which were evicted because the store was full.
+     *
+     * @return the amount of answers which were evicted.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+    
+    /**
+     * Returns the current tick of the timer wheels.
+     *
+     * @return the current tick of the timer wheels.
+     */
+    private int currentTick() {
+        return (int) ((System.nanoTime() - this.origin) / this.tickNanos);
+    }
+    
+    /**
+     * Returns the stripe which holds the answer of a captcha.
+     *
+     * @param id
+     *         the id of the captcha.
+     *
+     * @return the stripe which holds the answer of the captcha.
+     */
+    private Stripe getStripe(final long id) {
+        return this.stripes[(int) mix(id) & this.stripeMask];
+    }
+    
+    /**
+     * Hashes an answer with the key of this store.
+     *
+     * @param answer
+     *         the answer which gets hashed.
+     *
+     * @return the 64 bit hash of the answer (never 0).
+     */
+    private long hash(final String answer) {
+        long hash = this.hashKey;
+        for (int index = 0; index < answer.length(); index++) {
+            final char character = answer.charAt(index);
+            hash = (hash ^ (this.isCaseSensitive() ? character : Character.toLowerCase(character))) * 0x100000001B3L;
+        }
+        
+        hash = mix(hash ^ answer.length());
+        return hash != 0 ? hash : 1;
+    }
+    
+    /**
+     * Mixes the bits of a value (the finalizer of MurmurHash3).
+     *
+     * @param value
+     *         the value whose bits are mixed.
+     *
+     * @return the mixed value.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+    
+    /**
+     * A part of the store with its own lock. The entries are kept in parallel arrays and
+     * are found by an open addressing index with linear probing. Every entry is also
+     * linked into the bucket of the timer wheel at which it expires.
+     */
+    private class Stripe
+    {
+        
+        /**
+         * The data of the entries: the id, the answer hash and the tick at which it
+         * expires.
+         */
+        private final long[] ids, hashes;
+        
+        private final int[] expiries;
+        
+        /**
+         * The links of the entries inside of their wheel bucket (or the free list), -1
+         * marks the end.
+         */
+        private final int[] next, previous;
+        
+        /**
+         * The first and last entry of every wheel bucket or -1 if the bucket is empty.
+         * New entries are appended, so the first entry is the oldest one.
+         */
+        private final int[] wheel = new int[WHEEL_SIZE], wheelTails = new int[WHEEL_SIZE];
+        
+        /**
+         * The index which maps ids to entries. It stores the entry + 1, so 0 marks an
+         * empty slot.
+         */
+        private final int[] index;
+        
+        private final int indexMask, indexShift;
+        
+        /**
+         * The first free entry or -1 if the stripe is full.
+         */
+        private int free;
+        
+        /**
+         * The amount of stored entries.
+         */
+        @Getter
+        private int size;
+        
+        /**
+         * The last tick which was processed by the timer wheel.
+         */
+        private int tick;
+        
+        /**
+         * Creates a new stripe and allocates all of its memory.
+         *
+         * @param capacity
+         *         the maximum amount of entries.
+         */
+        Stripe(final int capacity) {
+            this.ids = new long[capacity];
+            this.hashes = new long[capacity];
+            this.expiries = new int[capacity];
+            this.next = new int[capacity];
+            this.previous = new int[capacity];
+            
+            final int indexSize = Integer.highestOneBit(Math.max(2, capacity) * 4 - 1);
+            this.index = new int[indexSize];
+            this.indexMask = indexSize - 1;
+            this.indexShift = Long.numberOfLeadingZeros(indexSize - 1);
+            
+            Arrays.fill(this.wheel, -1);
+            Arrays.fill(this.wheelTails, -1);
+            for (int entry = 0; entry < capacity; entry++)
+                this.next[entry] = entry + 1 < capacity ? entry + 1 : -1;
+            this.free = 0;
+            this.tick = AnswerStore.this.currentTick();
+        }
+        
+        /**
+         * Stores an entry.
+         *
+         * @param id
+         *         the id of the captcha.
+         * @param hash
+         *         the hash of the answer.
+         * @param now
+         *         the current tick.
+         * @param replace
+         *         the flag if an existing entry with the same id should be replaced.
+         *
+         * @return true if the entry was stored or false if the id is already used.
+         */
+        synchronized boolean put(final long id, final long hash, final int now, final boolean replace) {
+            this.expire(now);
+            
+            final int slot = this.find(id);
+            if (this.index[slot] != 0) {
+                if (!replace)
+                    return false;
+                this.delete(slot);
+            }
+            
+            if (this.free == -1)
+                this.evict();
+            
+            final int entry = this.free;
+            this.free = this.next[entry];
+            
+            this.ids[entry] = id;
+            this.hashes[entry] = hash;
+            this.expiries[entry] = now + TICKS_PER_TTL;
+            this.link(entry);
+            
+            // The slot could have moved while evicting.
+            this.index[this.find(id)] = entry + 1;
+            this.size++;
+            return true;
+        }
+        
+        /**
+         * Removes an entry and compares its answer hash.
+         *
+         * @param id
+         *         the id of the captcha.
+         * @param hash
+         *         the hash of the answer or 0 if it shouldn't be compared.
+         * @param now
+         *         the current tick.
+         *
+         * @return true if the entry didn't expire yet and the hash matches or false if
+         *         not.
+         */
+        synchronized boolean remove(final long id, final long hash, final int now) {
+            this.expire(now);
+            
+            final int slot = this.find(id);
+            if (this.index[slot] == 0)
+                return false;
+            
+            final int entry = this.index[slot] - 1;
+            final boolean valid = this.expiries[entry] - now > 0 && (hash == 0 || this.hashes[entry] == hash);
+            this.delete(slot);
+            return valid;
+        }
+        
+        /**
+         * Advances the timer wheel to the provided tick and removes every entry of the
+         * passed buckets which is expired.
+         *
+         * @param now
+         *         the current tick.
+         */
+        synchronized void expire(final int now) {
+            if (now - this.tick <= 0)
+                return;
+            
+            final int steps = Math.min(now - this.tick, WHEEL_SIZE);
+            for (int step = 1; step <= steps; step++) {
+                int entry = this.wheel[(this.tick + step) & (WHEEL_SIZE - 1)];
+                while (entry != -1) {
+                    final int following = this.next[entry];
+                    if (this.expiries[entry] - now <= 0)
+                        this.delete(this.find(this.ids[entry]));
+                    entry = following;
+                }
+            }
+            this.tick = now;
+        }
+        
+        /**
+         * Evicts the oldest entry of the bucket which expires next to make room for a new
+         * one.
+         */
+        private void evict() {
+            for (int step = 1; step <= WHEEL_SIZE; step++) {
+                final int entry = this.wheel[(this.tick + step) & (WHEEL_SIZE - 1)];
+                if (entry == -1)
+                    continue;
+                
+                this.delete(this.find(this.ids[entry]));
+                AnswerStore.this.evictions.increment();
+                return;
+            }
+        }
+        
+        /**
+         * Searches the slot of an id in the index.
+         *
+         * @param id
+         *         the id which is searched.
+         *
+         * @return the slot containing the id or the empty slot where it would be
+         *         inserted.
+         */
+        private int find(final long id) {
+            int slot = this.home(id);
+            while (this.index[slot] != 0 && this.ids[this.index[slot] - 1] != id)
+                slot = (slot + 1) & this.indexMask;
+            return slot;
+        }
+        
+        /**
+         * Returns the preferred slot of an id in the index. It uses other bits than the
+         * selection of the stripe.
+         *
+         * @param id
+         *         the id whose slot is returned.
+         *
+         * @return the preferred slot of the id.
+         */
+        private int home(final long id) {
+            return (int) (mix(id) >>> this.indexShift);
+        }
+        
+        /**
+         * Removes the entry of an index slot. The following entries are shifted back
+         * instead of leaving a tombstone, so lookups never get slower.
+         *
+         * @param slot
+         *         the slot of the entry which gets removed.
+         */
+        private void delete(final int slot) {
+            final int entry = this.index[slot] - 1;
+            this.unlink(entry);
+            this.next[entry] = this.free;
+            this.free = entry;
+            this.size--;
+            
+            int hole = slot;
+            int current = (slot + 1) & this.indexMask;
+            while (this.index[current] != 0) {
+                final int home = this.home(this.ids[this.index[current] - 1]);
+                if (((current - home) & this.indexMask) >= ((current - hole) & this.indexMask)) {
+                    this.index[hole] = this.index[current];
+                    hole = current;
+                }
+                current = (current + 1) & this.indexMask;
+            }
+            this.index[hole] = 0;
+        }
+        
+        /**
+         * Appends an entry to the wheel bucket of its expiry.
+         *
+         * @param entry
+         *         the entry which gets linked.
+         */
+        private void link(final int entry) {
+            final int bucket = this.expiries[entry] & (WHEEL_SIZE - 1);
+            final int tail = this.wheelTails[bucket];
+            
+            this.previous[entry] = tail;
+            this.next[entry] = -1;
+            if (tail != -1)
+                this.next[tail] = entry;
+            else this.wheel[bucket] = entry;
+            this.wheelTails[bucket] = entry;
+        }
+        
+        /**
+         * Unlinks an entry from its wheel bucket.
+         *
+         * @param entry
+         *         the entry which gets unlinked.
+         */
+        private void unlink(final int entry) {
+            final int bucket = this.expiries[entry] & (WHEEL_SIZE - 1);
+            final int before = this.previous[entry], after = this.next[entry];
+            if (before != -1)
+                this.next[before] = after;
+            else this.wheel[bucket] = after;
+            if (after != -1)
+                this.previous[after] = before;
+            else this.wheelTails[bucket] = before;
+        }
+        
+    }
+    
+}
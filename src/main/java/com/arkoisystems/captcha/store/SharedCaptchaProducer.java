@@ -0,0 +1,161 @@
+package com.arkoisystems.captcha.store;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaCanvas;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The workers of a generator process, which keep a {@link SharedCaptchaRing} filled from a
+ * {@link Captcha} template. The consumers live in other processes and can't wake the
+ * workers up, so a worker sleeps for the idle time whenever the ring is full (or a captcha
+ * couldn't be added).
+ */
+public class SharedCaptchaProducer implements Closeable
+{
+    
+    /**
+     * The ring which is filled.
+     */
+    @Getter
+    private final SharedCaptchaRing ring;
+    
+    /**
+     * The template used to generate the captchas.
+     */
+    @Getter
+    private final Captcha captcha;
+    
+    /**
+     * The encoder used to render and encode the captchas.
+     */
+    @Getter
+    private final CaptchaEncoder encoder;
+    
+    /**
+     * The time a worker sleeps when the ring is full or a captcha couldn't be added.
+     */
+    @Getter
+    private final Duration idleTime;
+    
+    /**
+     * The background workers which fill the ring.
+     */
+    private final List<Thread> workers;
+    
+    /**
+     * The amount of captchas which were added to the ring.
+     */
+    private final LongAdder produced = new LongAdder();
+    
+    /**
+     * The amount of captchas which couldn't be generated or didn't fit into a slot.
+     */
+    private final LongAdder failures = new LongAdder();
+    
+    /**
+     * The flag if the producer is closed.
+     */
+    private volatile boolean closed;
+    
+    /**
+     * Creates a new producer and starts its workers, which begin to fill the ring
+     * immediately.
+     *
+     * @param ring
+     *         the ring which is filled.
+     * @param captcha
+     *         the template used to generate the captchas.
+     * @param encoder
+     *         the encoder used to render and encode the captchas (defaults to PNG). Its
+     *         mime type has to match the one of the ring.
+     * @param threads
+     *         the amount of background workers (defaults to one).
+     * @param idleTime
+     *         the time a worker sleeps when the ring is full or a captcha couldn't be added
+     *         (defaults to one millisecond).
+     */
+    @Builder
+    private SharedCaptchaProducer(final SharedCaptchaRing ring, final Captcha captcha, final CaptchaEncoder encoder, final int threads, final Duration idleTime) {
+        if (ring == null)
+            throw new NullPointerException("ring");
+        if (captcha == null)
+            throw new NullPointerException("captcha");
+        
+        this.ring = ring;
+        this.captcha = captcha;
+        this.encoder = encoder != null ? encoder : CaptchaEncoder.png();
+        this.idleTime = idleTime != null && !idleTime.isNegative() && !idleTime.isZero() ? idleTime : Duration.ofMillis(1);
+        if (!this.encoder.getMimeType().equals(ring.getMimeType()))
+            throw new IllegalArgumentException("The encoder writes \"" + this.encoder.getMimeType() + "\" but the ring holds \"" + ring.getMimeType() + "\".");
+        
+        final int workerCount = threads > 0 ? threads : 1;
+        this.workers = new ArrayList<>(workerCount);
+        for (int index = 0; index < workerCount; index++) {
+            final Thread worker = new Thread(this::produce, "captcha-ring-" + index);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+    
+    /**
+     * Returns the amount of captchas which were added to the ring.
+     *
+     * @return the amount of captchas which were added to the ring.
+     */
+    public long getProduced() {
+        return this.produced.sum();
+    }
+    
+    /**
+     * Returns the amount of captchas which couldn't be generated or didn't fit into a
+     * slot.
+     *
+     * @return the amount of captchas which couldn't be generated.
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+    
+    /**
+     * The loop of a worker. Every worker reuses its own canvas and renders straight into
+     * the slots of the ring.
+     */
+    private void produce() {
+        try (final CaptchaCanvas canvas = this.getCaptcha().createCanvas()) {
+            while (!this.closed) {
+                try {
+                    if (this.getRing().offer(this.getCaptcha(), canvas, this.getEncoder())) {
+                        this.produced.increment();
+                        continue;
+                    }
+                } catch (final IllegalStateException ignored) {
+                    // Backs off like on a full ring, so a captcha which never fits doesn't
+                    // make the workers spin.
+                    this.failures.increment();
+                }
+                
+                LockSupport.parkNanos(this, this.getIdleTime().toNanos());
+            }
+        }
+    }
+    
+    /**
+     * Stops all workers. The captchas in the ring can still be leased afterwards.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.workers.forEach(LockSupport::unpark);
+    }
+    
+}
@@ -0,0 +1,692 @@
+package com.arkoisystems.captcha.store;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaCanvas;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import com.arkoisystems.captcha.utils.ByteBufferOutputStream;
+import com.arkoisystems.captcha.utils.ChannelOutputStream;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ring of encoded captchas in a memory-mapped file, which lets one generator process
+ * supply the captchas of every serving process on the same host. The generator renders
+ * the captchas straight into the slots of the ring (see {@link #offer(Captcha,
+ * CaptchaCanvas, CaptchaEncoder)}) and the serving processes lease them with
+ * {@link #poll()}, whose bytes are a view of the mapped file and can be written to a
+ * channel without copying them onto the heap.
+ * <p>
+ * The ring follows the bounded queue of Dmitry Vyukov: every slot has a sequence number
+ * which tells whose turn it is, and the producers and consumers claim a position by a
+ * compare-and-set on the head respectively tail counter in the header of the file. All of
+ * these fields are accessed with a {@link VarHandle} on the mapped buffer, so they are
+ * atomic across processes and no lock is needed. A consumer holds its slot until the
+ * lease is released. If a consumer dies while holding a lease, the producer takes the
+ * slot back once the lease timeout elapsed.
+ * <p>
+ * Besides the bytes every slot holds the keyed hash of the answer (the text isn't stored),
+ * which is checked with {@link #verify(long, String)}.
+ * <p>
+ * A ring file is never truncated while it is mapped. A new ring is built next to the old
+ * one and moved over it, and the old ring is marked as replaced (see {@link
+ * #isReplaced()}), so the serving processes can open the path again at their own pace.
+ */
+public class SharedCaptchaRing implements Closeable
+{
+    
+    /**
+     * The atomic access to the longs of the mapped file. The file never leaves the host, so
+     * the native byte order is used.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    
+    /**
+     * The magic number ("CAPR") and the version of the file layout.
+     */
+    private static final int MAGIC = 0x43415052, VERSION = 2;
+    
+    /**
+     * The offsets of the fields of the file header. The head and tail counters have their
+     * own cache lines, so the producers and consumers don't contend on them.
+     */
+    private static final int MAGIC_OFFSET = 0, VERSION_OFFSET = 4, SLOT_COUNT_OFFSET = 8, SLOT_SIZE_OFFSET = 12, HASH_KEY_OFFSET = 16, LEASE_TIMEOUT_OFFSET = 24, FLAGS_OFFSET = 32, MIME_TYPE_LENGTH_OFFSET = 36, GENERATION_OFFSET = 40, REPLACED_BY_OFFSET = 48, MIME_TYPE_OFFSET = 56, HEAD_OFFSET = 128, TAIL_OFFSET = 192, HEADER_SIZE = 256;
+    
+    /**
+     * The maximum length of the mime type in bytes.
+     */
+    private static final int MAX_MIME_TYPE_LENGTH = HEAD_OFFSET - MIME_TYPE_OFFSET;
+    
+    /**
+     * The offsets of the fields of a slot header, which is followed by the bytes of the
+     * captcha.
+     */
+    private static final int SEQUENCE_OFFSET = 0, ANSWER_HASH_OFFSET = 8, LENGTH_OFFSET = 16, SLOT_HEADER_SIZE = 32;
+    
+    /**
+     * The flag which is set if the answers are compared case-sensitive.
+     */
+    private static final int CASE_SENSITIVE = 1;
+    
+    /**
+     * The channel of the mapped file.
+     */
+    private final FileChannel channel;
+    
+    /**
+     * The mapped file.
+     */
+    private final MappedByteBuffer buffer;
+    
+    /**
+     * The amount of slots (a power of two) and the mask used to select one.
+     */
+    @Getter
+    private final int slotCount;
+    
+    private final int slotMask;
+    
+    /**
+     * The maximum amount of bytes of an encoded captcha.
+     */
+    @Getter
+    private final int slotSize;
+    
+    /**
+     * The distance between two slots, which keeps every slot on its own cache lines.
+     */
+    private final int slotStride;
+    
+    /**
+     * The mime type of the encoded captchas.
+     */
+    @Getter
+    private final String mimeType;
+    
+    /**
+     * The flag if the answers are compared case-sensitive.
+     */
+    @Getter
+    private final boolean caseSensitive;
+    
+    /**
+     * The time after which the producer takes back a slot which wasn't released.
+     */
+    @Getter
+    private final Duration leaseTimeout;
+    
+    /**
+     * The generation of the ring, which is one higher than the one of the ring it replaced.
+     */
+    @Getter
+    private final long generation;
+    
+    /**
+     * The key mixed into every answer hash, which is shared by every process through the
+     * file.
+     */
+    private final long hashKey;
+    
+    /**
+     * The amount of leases which were taken back by this process.
+     */
+    private final LongAdder revocations = new LongAdder();
+    
+    /**
+     * The position the producers of this process wait for to be released and since when
+     * (see {@link System#nanoTime()}). Only used while the ring is full.
+     */
+    private long blockedPosition = -1, blockedSince;
+    
+    /**
+     * Maps a ring file and reads its layout from the header.
+     *
+     * @param channel
+     *         the channel of the ring file.
+     * @param buffer
+     *         the mapped ring file.
+     */
+    private SharedCaptchaRing(final FileChannel channel, final MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        this.slotMask = this.slotCount - 1;
+        this.slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+        this.slotStride = getSlotStride(this.slotSize);
+        this.hashKey = buffer.getLong(HASH_KEY_OFFSET);
+        this.generation = buffer.getLong(GENERATION_OFFSET);
+        this.leaseTimeout = Duration.ofMillis(buffer.getLong(LEASE_TIMEOUT_OFFSET));
+        this.caseSensitive = (buffer.getInt(FLAGS_OFFSET) & CASE_SENSITIVE) != 0;
+        
+        final byte[] mimeType = new byte[buffer.getInt(MIME_TYPE_LENGTH_OFFSET)];
+        buffer.get(MIME_TYPE_OFFSET, mimeType);
+        this.mimeType = new String(mimeType, StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Creates (or replaces) a ring file and maps it. This is done by the generator process
+     * before it starts to offer captchas. The ring is built in a temporary file in the same
+     * directory and atomically moved to the path, so processes which mapped an older ring
+     * from the path keep a valid mapping. The older ring is marked as replaced, after which
+     * they should open the path again.
+     *
+     * @param path
+     *         the path of the ring file (e.g. in /dev/shm to keep it off the disk).
+     * @param slotCount
+     *         the amount of slots, rounded up to a power of two.
+     * @param slotSize
+     *         the maximum amount of bytes of an encoded captcha.
+     * @param mimeType
+     *         the mime type of the encoded captchas.
+     * @param caseSensitive
+     *         the flag if the answers are compared case-sensitive.
+     * @param leaseTimeout
+     *         the time after which the producer takes back a slot which wasn't released
+     *         (e.g. because the consumer died).
+     *
+     * @return the mapped ring.
+     *
+     * @throws IllegalArgumentException
+     *         if the ring doesn't fit into a single mapping or the mime type is too long.
+     */
+    @SneakyThrows(IOException.class)
+    public static SharedCaptchaRing create(final Path path, final int slotCount, final int slotSize, final String mimeType, final boolean caseSensitive, final Duration leaseTimeout) {
+        final int slots = Integer.highestOneBit(Math.max(1, slotCount) * 2 - 1);
+        final long fileSize = HEADER_SIZE + (long) slots * getSlotStride(slotSize);
+        if (slotSize <= 0 || fileSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The ring of " + slots + " slots with " + slotSize + " bytes doesn't fit into a mapping.");
+        
+        final byte[] mimeTypeBytes = mimeType.getBytes(StandardCharsets.US_ASCII);
+        if (mimeTypeBytes.length > MAX_MIME_TYPE_LENGTH)
+            throw new IllegalArgumentException("The mime type \"" + mimeType + "\" is longer than " + MAX_MIME_TYPE_LENGTH + " bytes.");
+        
+        final Path directory = path.toAbsolutePath().getParent();
+        final Path temporary = Files.createTempFile(directory, path.getFileName() + ".", ".tmp");
+        final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final MappedByteBuffer previous = mapHeader(path);
+            final long generation = previous != null ? previous.getLong(GENERATION_OFFSET) + 1 : 1;
+            
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.nativeOrder());
+            
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(SLOT_COUNT_OFFSET, slots);
+            buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+            buffer.putLong(HASH_KEY_OFFSET, new SecureRandom().nextLong());
+            buffer.putLong(LEASE_TIMEOUT_OFFSET, leaseTimeout.toMillis());
+            buffer.putInt(FLAGS_OFFSET, caseSensitive ? CASE_SENSITIVE : 0);
+            buffer.putInt(MIME_TYPE_LENGTH_OFFSET, mimeTypeBytes.length);
+            buffer.putLong(GENERATION_OFFSET, generation);
+            buffer.put(MIME_TYPE_OFFSET, mimeTypeBytes);
+            for (int index = 0; index < slots; index++)
+                LONGS.setRelease(buffer, HEADER_SIZE + index * getSlotStride(slotSize) + SEQUENCE_OFFSET, (long) index);
+            
+            // The magic is written last, so a ring is never opened half initialized.
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.force();
+            
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (previous != null)
+                LONGS.setVolatile(previous, REPLACED_BY_OFFSET, generation);
+            return new SharedCaptchaRing(channel, buffer);
+        } catch (final IOException | RuntimeException exception) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw exception;
+        }
+    }
+    
+    /**
+     * Maps a ring file which was created by {@link #create(Path, int, int, String, boolean,
+     * Duration)}. This is done by the serving processes.
+     *
+     * @param path
+     *         the path of the ring file.
+     *
+     * @return the mapped ring.
+     *
+     * @throws IllegalStateException
+     *         if the file isn't an initialized ring.
+     */
+    @SneakyThrows(IOException.class)
+    public static SharedCaptchaRing open(final Path path) {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE)
+                throw new IllegalStateException("The file \"" + path + "\" isn't a captcha ring.");
+            
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION)
+                throw new IllegalStateException("The file \"" + path + "\" isn't an initialized captcha ring.");
+            return new SharedCaptchaRing(channel, buffer);
+        } catch (final IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+    
+    /**
+     * Maps the header of the ring file which is about to be replaced.
+     *
+     * @param path
+     *         the path of the ring file.
+     *
+     * @return the mapped header or null if there is no initialized ring at the path.
+     */
+    private static MappedByteBuffer mapHeader(final Path path) {
+        if (!Files.isRegularFile(path))
+            return null;
+        
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(VERSION_OFFSET) == VERSION ? buffer : null;
+        } catch (final IOException ignored) {
+            return null;
+        }
+    }
+    
+    /**
+     * Renders a captcha straight into the next free slot. If the captcha doesn't fit into
+     * the slot, the slot is published empty (and skipped by the consumers).
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param encoder
+     *         the encoder of the ring's mime type.
+     *
+     * @return true if a captcha was added or false if the ring is full.
+     *
+     * @throws IllegalStateException
+     *         if the encoded captcha is larger than a slot.
+     */
+    public boolean offer(final Captcha captcha, final CaptchaCanvas canvas, final CaptchaEncoder encoder) {
+        final long position = this.claimProducer();
+        if (position < 0)
+            return false;
+        
+        final int slot = this.getSlotOffset(position);
+        final ByteBuffer data = this.buffer.slice(slot + SLOT_HEADER_SIZE, this.getSlotSize());
+        try {
+            final String text = encoder.encode(captcha, canvas, new ByteBufferOutputStream(data));
+            this.publish(position, this.hash(text), data.position());
+            return true;
+        } catch (final Exception exception) {
+            // The encoders rethrow the overflow of the slot as an unchecked IOException.
+            this.publish(position, 0, 0);
+            throw new IllegalStateException("The captcha couldn't be written into a slot of " + this.getSlotSize() + " bytes.", exception);
+        }
+    }
+    
+    /**
+     * Copies an encoded captcha into the next free slot.
+     *
+     * @param data
+     *         the encoded bytes of the captcha.
+     * @param answer
+     *         the answer of the captcha.
+     *
+     * @return true if the captcha was added or false if the ring is full.
+     *
+     * @throws IllegalArgumentException
+     *         if the encoded captcha is larger than a slot.
+     */
+    public boolean offer(final byte[] data, final String answer) {
+        if (data.length > this.getSlotSize())
+            throw new IllegalArgumentException("The captcha of " + data.length + " bytes is larger than a slot (" + this.getSlotSize() + " bytes).");
+        
+        final long position = this.claimProducer();
+        if (position < 0)
+            return false;
+        
+        this.buffer.put(this.getSlotOffset(position) + SLOT_HEADER_SIZE, data);
+        this.publish(position, this.hash(answer), data.length);
+        return true;
+    }
+    
+    /**
+     * Leases the oldest captcha of the ring. Its bytes stay valid until the lease is
+     * released, so the lease should be released as soon as the bytes are sent.
+     *
+     * @return the lease of the captcha or null if the ring is empty.
+     */
+    public Lease poll() {
+        while (true) {
+            long position = (long) LONGS.getVolatile(this.buffer, TAIL_OFFSET);
+            while (true) {
+                final int slot = this.getSlotOffset(position);
+                final long sequence = (long) LONGS.getAcquire(this.buffer, slot + SEQUENCE_OFFSET);
+                if (sequence < position + 1)
+                    return null;
+                if (sequence > position + 1) {
+                    position = (long) LONGS.getVolatile(this.buffer, TAIL_OFFSET);
+                    continue;
+                }
+                if (LONGS.compareAndSet(this.buffer, TAIL_OFFSET, position, position + 1))
+                    break;
+                position = (long) LONGS.getVolatile(this.buffer, TAIL_OFFSET);
+            }
+            
+            final Lease lease = new Lease(position);
+            if (lease.getLength() > 0)
+                return lease;
+            
+            // The producer couldn't fill the slot.
+            lease.release();
+        }
+    }
+    
+    /**
+     * Verifies an answer against the hash of a leased captcha.
+     *
+     * @param answerHash
+     *         the hash of the answer (see {@link Lease#getAnswerHash()}).
+     * @param answer
+     *         the answer which should be verified.
+     *
+     * @return true if the answer is correct or false if not.
+     */
+    public boolean verify(final long answerHash, final String answer) {
+        return answer != null && answerHash != 0 && this.hash(answer) == answerHash;
+    }
+    
+    /**
+     * Returns the amount of captchas which weren't leased yet. The value is a snapshot and
+     * can be outdated as soon as it is returned.
+     *
+     * @return the amount of captchas which weren't leased yet.
+     */
+    public int size() {
+        final long tail = (long) LONGS.getVolatile(this.buffer, TAIL_OFFSET);
+        final long head = (long) LONGS.getVolatile(this.buffer, HEAD_OFFSET);
+        return (int) Math.max(0, Math.min(this.getSlotCount(), head - tail));
+    }
+    
+    /**
+     * Returns if a newer ring was created at the path of this ring. The captchas of this
+     * ring can still be leased, but no new ones are added, so a serving process should open
+     * the path again and close this ring once its leases are released.
+     *
+     * @return true if the ring was replaced or false if it is the current one.
+     */
+    public boolean isReplaced() {
+        return (long) LONGS.getVolatile(this.buffer, REPLACED_BY_OFFSET) != 0;
+    }
+    
+    /**
+     * Returns the amount of leases which were taken back by the producers of this process.
+     *
+     * @return the amount of leases which were taken back.
+     */
+    public long getRevocations() {
+        return this.revocations.sum();
+    }
+    
+    /**
+     * Closes the channel of the ring file. The mapping itself is released by the garbage
+     * collector, so leases must not be used afterwards.
+     */
+    @Override
+    @SneakyThrows(IOException.class)
+    public void close() {
+        this.channel.close();
+    }
+    
+    /**
+     * Claims the next position of the producers.
+     *
+     * @return the claimed position or -1 if the ring is full.
+     */
+    private long claimProducer() {
+        long position = (long) LONGS.getVolatile(this.buffer, HEAD_OFFSET);
+        while (true) {
+            final int slot = this.getSlotOffset(position);
+            final long sequence = (long) LONGS.getAcquire(this.buffer, slot + SEQUENCE_OFFSET);
+            if (sequence == position) {
+                if (LONGS.compareAndSet(this.buffer, HEAD_OFFSET, position, position + 1))
+                    return position;
+                position = (long) LONGS.getVolatile(this.buffer, HEAD_OFFSET);
+            } else if (sequence > position) {
+                position = (long) LONGS.getVolatile(this.buffer, HEAD_OFFSET);
+            } else if (!this.revokeLease(position, sequence)) {
+                return -1;
+            }
+        }
+    }
+    
+    /**
+     * Takes back the slot of a position if it is leased longer than the lease timeout.
+     *
+     * @param position
+     *         the position the producers wait for.
+     * @param sequence
+     *         the current sequence of the slot.
+     *
+     * @return true if the slot was taken back or false if the ring is full.
+     */
+    private synchronized boolean revokeLease(final long position, final long sequence) {
+        // The slot is leased (and not just full) if the consumers already passed it.
+        final long leased = position - this.getSlotCount();
+        if (sequence != leased + 1 || (long) LONGS.getVolatile(this.buffer, TAIL_OFFSET) <= leased)
+            return false;
+        
+        final long now = System.nanoTime();
+        if (this.blockedPosition != position) {
+            this.blockedPosition = position;
+            this.blockedSince = now;
+            return false;
+        }
+        if (now - this.blockedSince < this.getLeaseTimeout().toNanos())
+            return false;
+        
+        if (!LONGS.compareAndSet(this.buffer, this.getSlotOffset(position) + SEQUENCE_OFFSET, sequence, position))
+            return false;
+        
+        this.revocations.increment();
+        return true;
+    }
+    
+    /**
+     * Publishes the slot of a claimed position to the consumers.
+     *
+     * @param position
+     *         the claimed position.
+     * @param answerHash
+     *         the hash of the answer (0 for an empty slot).
+     * @param length
+     *         the amount of bytes of the captcha (0 for an empty slot).
+     */
+    private void publish(final long position, final long answerHash, final int length) {
+        final int slot = this.getSlotOffset(position);
+        this.buffer.putLong(slot + ANSWER_HASH_OFFSET, answerHash);
+        this.buffer.putInt(slot + LENGTH_OFFSET, length);
+        LONGS.setRelease(this.buffer, slot + SEQUENCE_OFFSET, position + 1);
+    }
+    
+    /**
+     * Returns the offset of the slot of a position in the file.
+     *
+     * @param position
+     *         the position of a producer or consumer.
+     *
+     * @return the offset of the slot in the file.
+     */
+    private int getSlotOffset(final long position) {
+        return HEADER_SIZE + (int) (position & this.slotMask) * this.slotStride;
+    }
+    
+    /**
+     * Returns the distance between two slots of the provided size.
+     *
+     * @param slotSize
+     *         the maximum amount of bytes of an encoded captcha.
+     *
+     * @return the distance between two slots, rounded up to a cache line.
+     */
+    private static int getSlotStride(final int slotSize) {
+        return (SLOT_HEADER_SIZE + slotSize + 63) & ~63;
+    }
+    
+    /**
+     * Hashes an answer with the key of the ring (like the {@link AnswerStore}).
+     *
+     * @param answer
+     *         the answer which gets hashed.
+     *
+     * @return the 64 bit hash of the answer (never 0).
+     */
+    private long hash(final String answer) {
+        long hash = this.hashKey;
+        for (int index = 0; index < answer.length(); index++) {
+            final char character = answer.charAt(index);
+            hash = (hash ^ (this.isCaseSensitive() ? character : Character.toLowerCase(character))) * 0x100000001B3L;
+        }
+        
+        hash ^= answer.length();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+    
+    /**
+     * A leased captcha of the ring. Its slot can't be reused until the lease is released
+     * (or revoked after the lease timeout).
+     */
+    public class Lease implements AutoCloseable
+    {
+        
+        /**
+         * The position of the leased slot.
+         */
+        private final long position;
+        
+        /**
+         * The offset of the leased slot in the file.
+         */
+        private final int slot;
+        
+        /**
+         * The hash of the answer of the captcha.
+         */
+        @Getter
+        private final long answerHash;
+        
+        /**
+         * The amount of bytes of the captcha.
+         */
+        @Getter
+        private final int length;
+        
+        /**
+         * Creates a lease of a claimed position.
+         *
+         * @param position
+         *         the claimed position.
+         */
+        private Lease(final long position) {
+            this.position = position;
+            this.slot = getSlotOffset(position);
+            this.answerHash = buffer.getLong(this.slot + ANSWER_HASH_OFFSET);
+            this.length = buffer.getInt(this.slot + LENGTH_OFFSET);
+        }
+        
+        /**
+         * Returns the mime type of the captcha.
+         *
+         * @return the mime type of the captcha.
+         */
+        public String getMimeType() {
+            return SharedCaptchaRing.this.getMimeType();
+        }
+        
+        /**
+         * Returns a read-only view of the bytes of the captcha in the mapped file.
+         *
+         * @return a read-only view of the bytes of the captcha.
+         */
+        public ByteBuffer getData() {
+            return buffer.slice(this.slot + SLOT_HEADER_SIZE, this.length).asReadOnlyBuffer();
+        }
+        
+        /**
+         * Writes the bytes of the captcha to a channel without copying them onto the heap.
+         *
+         * @param target
+         *         the blocking channel the bytes are written to.
+         *
+         * @throws IOException
+         *         if the bytes couldn't be written or the channel accepted none.
+         */
+        public void writeTo(final WritableByteChannel target) throws IOException {
+            ChannelOutputStream.writeFully(target, this.getData());
+        }
+        
+        /**
+         * Verifies an answer against the hash of this captcha.
+         *
+         * @param answer
+         *         the answer which should be verified.
+         *
+         * @return true if the answer is correct or false if not.
+         */
+        public boolean verify(final String answer) {
+            return SharedCaptchaRing.this.verify(this.answerHash, answer);
+        }
+        
+        /**
+         * Returns the flag if the lease is still held, i.e. it wasn't released or revoked.
+         * Checking it after the bytes were sent proves that they weren't overwritten in
+         * the meantime.
+         *
+         * @return true if the lease is still held or false if not.
+         */
+        public boolean isValid() {
+            return (long) LONGS.getAcquire(buffer, this.slot + SEQUENCE_OFFSET) == this.position + 1;
+        }
+        
+        /**
+         * Releases the slot, so the producer can reuse it.
+         *
+         * @return true if the lease was released or false if it was released or revoked
+         *         already.
+         */
+        public boolean release() {
+            return LONGS.compareAndSet(buffer, this.slot + SEQUENCE_OFFSET, this.position + 1, this.position + getSlotCount());
+        }
+        
+        @Override
+        public void close() {
+            this.release();
+        }
+        
+    }
+    
+}
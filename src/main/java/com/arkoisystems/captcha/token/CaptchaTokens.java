@@ -0,0 +1,341 @@
+package com.arkoisystems.captcha.token;
+
+import com.arkoisystems.captcha.Captcha;
+import com.arkoisystems.captcha.CaptchaCanvas;
+import com.arkoisystems.captcha.CaptchaEncoder;
+import com.arkoisystems.captcha.store.AnswerStore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Issues and verifies signed tokens for stateless captchas. Instead of storing the text of
+ * a captcha until it is verified, the token carries a random nonce and the expiry, signed
+ * by a HMAC. The seeds of the text and the image are derived from the nonce by a HMAC with
+ * the same key, so every node which knows the key can render the image (when it is
+ * fetched) and re-derive the text (when it is verified) without any shared state.
+ * <p>
+ * The seeds are never part of the token, otherwise the text could be computed from it.
+ * <p>
+ * Every token can only be verified once (also if the answer was wrong): the nonces of the
+ * verified tokens are kept in an {@link AnswerStore} until the tokens expired, so a solved
+ * captcha can't be replayed and an answer can't be guessed. The spent nonces are only
+ * known to the node which verified the token, so the verifications of a token should
+ * always be routed to the same node.
+ */
+public class CaptchaTokens
+{
+    
+    /**
+     * The algorithm used for the signature and the seeds.
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+    
+    /**
+     * The version of the token format.
+     */
+    private static final byte VERSION = 1;
+    
+    /**
+     * The length of the signed part (version, nonce and expiry), the truncated signature
+     * and the whole token in bytes.
+     */
+    private static final int PAYLOAD_LENGTH = 1 + 8 + 4, SIGNATURE_LENGTH = 16, TOKEN_LENGTH = PAYLOAD_LENGTH + SIGNATURE_LENGTH;
+    
+    /**
+     * The length of an encoded token (base64url without padding).
+     */
+    private static final int ENCODED_LENGTH = (TOKEN_LENGTH * 4 + 2) / 3;
+    
+    /**
+     * The prefixes which separate the HMAC of the signature from the one of the seeds.
+     */
+    private static final byte SIGNATURE_DOMAIN = 0, SEED_DOMAIN = 1;
+    
+    /**
+     * The time after which a token expires.
+     */
+    @Getter
+    private final Duration timeToLive;
+    
+    /**
+     * The flag if the answers are compared case-sensitive.
+     */
+    @Getter
+    private final boolean caseSensitive;
+    
+    /**
+     * The secret key of the HMAC.
+     */
+    private final SecretKeySpec key;
+    
+    /**
+     * The nonces of the verified tokens or null if a token can be verified until it
+     * expires.
+     */
+    private final AnswerStore spentNonces;
+    
+    /**
+     * The maximum amount of HMACs which are kept in the pool.
+     */
+    private static final int MAX_POOLED_MACS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    
+    /**
+     * The HMACs which are currently not used (a {@link Mac} isn't thread-safe). Unlike a
+     * thread local, the pool doesn't grow with the amount of (virtual) threads.
+     */
+    private final ConcurrentLinkedQueue<Mac> macs = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicInteger pooledMacs = new AtomicInteger();
+    
+    /**
+     * The generator of the nonces.
+     */
+    private final SecureRandom random = new SecureRandom();
+    
+    /**
+     * Creates new tokens which are signed with the provided key. Every node which should
+     * render or verify the captchas needs the same key.
+     *
+     * @param key
+     *         the secret key (at least 16 bytes) or null to generate one (only useful for a
+     *         single node).
+     * @param timeToLive
+     *         the time after which a token expires (5 minutes by default).
+     * @param caseSensitive
+     *         the flag if the answers are compared case-sensitive.
+     * @param replayable
+     *         the flag if a token can be verified any amount of times until it expires
+     *         instead of once (not recommended, a solved captcha could be replayed).
+     * @param spentCapacity
+     *         the maximum amount of verified tokens which are remembered within one time to
+     *         live (2^17 by default). If more tokens are verified, the oldest ones can be
+     *         verified again.
+     */
+    @Builder
+    private CaptchaTokens(final byte[] key, final Duration timeToLive, final boolean caseSensitive, final boolean replayable, final int spentCapacity) {
+        if (key != null && key.length < 16)
+            throw new IllegalArgumentException("The key must have at least 16 bytes.");
+        
+        this.key = new SecretKeySpec(key != null ? key.clone() : generateKey(), ALGORITHM);
+        this.timeToLive = timeToLive != null && !timeToLive.isNegative() && !timeToLive.isZero() ? timeToLive : Duration.ofMinutes(5);
+        this.caseSensitive = caseSensitive;
+        this.spentNonces = replayable ? null : AnswerStore.builder()
+                .capacity(spentCapacity > 0 ? spentCapacity : 1 << 17)
+                .timeToLive(this.timeToLive)
+                .build();
+    }
+    
+    /**
+     * Generates a new random key, which can be shared by every node (e.g. as base64).
+     *
+     * @return a new random key of 32 bytes.
+     */
+    public static byte[] generateKey() {
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+    
+    /**
+     * Issues a new token which expires after the time to live. Nothing is rendered or
+     * stored.
+     *
+     * @return the new token (URL-safe).
+     */
+    public String issue() {
+        final long expiry = System.currentTimeMillis() / 1000 + Math.max(1, this.getTimeToLive().toSeconds());
+        final ByteBuffer buffer = ByteBuffer.allocate(TOKEN_LENGTH);
+        buffer.put(VERSION);
+        long nonce;
+        do {
+            nonce = this.random.nextLong();
+        } while (nonce == 0);
+        buffer.putLong(nonce);
+        buffer.putInt((int) expiry);
+        
+        final byte[] token = buffer.array();
+        System.arraycopy(this.hmac(SIGNATURE_DOMAIN, token), 0, token, PAYLOAD_LENGTH, SIGNATURE_LENGTH);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+    
+    /**
+     * Checks the signature and expiry of a token and derives its seeds.
+     *
+     * @param token
+     *         the token which was issued by {@link #issue()}.
+     *
+     * @return the parsed token with its seeds.
+     *
+     * @throws IllegalArgumentException
+     *         if the token is malformed, wasn't signed with the key or expired.
+     */
+    public Token parse(final String token) {
+        if (token == null || token.length() != ENCODED_LENGTH)
+            throw new IllegalArgumentException("The token is malformed.");
+        
+        final byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != TOKEN_LENGTH || bytes[0] != VERSION)
+            throw new IllegalArgumentException("The token is malformed.");
+        
+        final byte[] signature = this.hmac(SIGNATURE_DOMAIN, bytes);
+        int difference = 0;
+        for (int index = 0; index < SIGNATURE_LENGTH; index++)
+            difference |= signature[index] ^ bytes[PAYLOAD_LENGTH + index];
+        if (difference != 0)
+            throw new IllegalArgumentException("The token has an invalid signature.");
+        
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, PAYLOAD_LENGTH - 1);
+        final long nonce = buffer.getLong();
+        final long expiry = Integer.toUnsignedLong(buffer.getInt());
+        if (System.currentTimeMillis() / 1000 >= expiry)
+            throw new IllegalArgumentException("The token expired.");
+        
+        final ByteBuffer seeds = ByteBuffer.wrap(this.hmac(SEED_DOMAIN, bytes));
+        return new Token(nonce, expiry, seeds.getLong(), seeds.getLong());
+    }
+    
+    /**
+     * Renders the captcha of a token into the canvas and writes the encoded bytes to the
+     * output stream. The same token always results in the same image.
+     *
+     * @param captcha
+     *         the {@link Captcha} used to generate the captcha from.
+     * @param encoder
+     *         the encoder which writes the image.
+     * @param canvas
+     *         the canvas the captcha is rendered into.
+     * @param token
+     *         the token which was issued by {@link #issue()}.
+     * @param outputStream
+     *         the output stream where the encoded captcha is getting stored.
+     *
+     * @throws IllegalArgumentException
+     *         if the token is malformed, wasn't signed with the key or expired.
+     */
+    public void write(final Captcha captcha, final CaptchaEncoder encoder, final CaptchaCanvas canvas, final String token, final OutputStream outputStream) {
+        final Token parsed = this.parse(token);
+        encoder.encode(captcha, canvas, captcha.nextText(parsed.getTextSeed()), parsed.getImageSeed(), outputStream);
+    }
+    
+    /**
+     * Verifies the answer of a token by deriving the text of its captcha again. Unless the
+     * tokens are replayable, the token is spent by this call (also if the answer is
+     * wrong).
+     *
+     * @param captcha
+     *         the {@link Captcha} the image was generated from (it must have the same text
+     *         settings).
+     * @param token
+     *         the token which was issued by {@link #issue()}.
+     * @param answer
+     *         the answer which gets verified.
+     *
+     * @return true if the token is valid, wasn't verified before and the answer is correct
+     *         or false if not.
+     */
+    public boolean verify(final Captcha captcha, final String token, final String answer) {
+        if (answer == null)
+            return false;
+        
+        final Token parsed;
+        try {
+            parsed = this.parse(token);
+        } catch (final IllegalArgumentException ignored) {
+            return false;
+        }
+        
+        // The spent nonces are kept for a whole time to live, which outlasts the token.
+        if (this.spentNonces != null && (parsed.getNonce() == 0 || !this.spentNonces.putIfAbsent(parsed.getNonce(), "")))
+            return false;
+        
+        final String text = captcha.nextText(parsed.getTextSeed());
+        if (text.length() != answer.length())
+            return false;
+        
+        // Compared in constant time, so the time doesn't reveal how many characters match.
+        int difference = 0;
+        for (int index = 0; index < text.length(); index++) {
+            final char expected = text.charAt(index), actual = answer.charAt(index);
+            difference |= this.isCaseSensitive() ? expected ^ actual : Character.toLowerCase(expected) ^ Character.toLowerCase(actual);
+        }
+        return difference == 0;
+    }
+    
+    /**
+     * Computes the HMAC of the signed part of a token.
+     *
+     * @param domain
+     *         the prefix which separates the signature from the seeds.
+     * @param token
+     *         the token whose signed part is used.
+     *
+     * @return the HMAC (32 bytes).
+     */
+    private byte[] hmac(final byte domain, final byte[] token) {
+        Mac mac = this.macs.poll();
+        if (mac != null)
+            this.pooledMacs.decrementAndGet();
+        else mac = this.createMac();
+        
+        mac.update(domain);
+        mac.update(token, 0, PAYLOAD_LENGTH);
+        final byte[] hmac = mac.doFinal();
+        
+        // doFinal() resets the HMAC, so it can be reused as it is.
+        if (this.pooledMacs.incrementAndGet() <= MAX_POOLED_MACS)
+            this.macs.offer(mac);
+        else this.pooledMacs.decrementAndGet();
+        return hmac;
+    }
+    
+    /**
+     * Creates a HMAC initialized with the key.
+     *
+     * @return a HMAC initialized with the key.
+     */
+    @SneakyThrows
+    private Mac createMac() {
+        final Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(this.key);
+        return mac;
+    }
+    
+    /**
+     * A token whose signature and expiry were checked.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Token
+    {
+        
+        /**
+         * The random nonce of the token.
+         */
+        private final long nonce;
+        
+        /**
+         * The time (in epoch seconds) when the token expires.
+         */
+        private final long expiry;
+        
+        /**
+         * The seed of the text (see {@link Captcha#nextText(long)}) and the seed of the
+         * image (see {@link Captcha#render(CaptchaCanvas, String, long)}).
+         */
+        private final long textSeed, imageSeed;
+        
+    }
+    
+}
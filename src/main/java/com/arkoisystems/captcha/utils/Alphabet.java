@@ -0,0 +1,208 @@
+package com.arkoisystems.captcha.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.random.RandomGenerator;
+
+/**
+ * A {@link TextGenerator} which picks every character of the text from a fixed table.
+ * Every character is picked with a single bounded draw of the random generator (instead of
+ * drawing from a wider range and filtering it) and written into a reusable buffer of a
+ * small shared pool, so generating a text allocates nothing but the text itself.
+ * <p>
+ * Besides the presets any set of characters can be used, e.g. to leave out characters
+ * which look alike once they are rotated and noised.
+ */
+public final class Alphabet implements TextGenerator
+{
+    
+    /**
+     * The digits and the latin letters in both cases (62 characters).
+     */
+    public static final Alphabet ALPHANUMERIC = of("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz");
+    
+    /**
+     * The alphanumeric characters without the ones which are easily confused (0, O, o, 1,
+     * I, i, l).
+     */
+    public static final Alphabet NO_CONFUSABLES = of("23456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghjkmnpqrstuvwxyz");
+    
+    /**
+     * The digits only.
+     */
+    public static final Alphabet NUMERIC = of("0123456789");
+    
+    /**
+     * The length of the pooled buffers. Longer texts are written into their own buffer.
+     */
+    private static final int BUFFER_SIZE = 32;
+    
+    /**
+     * The buffers which are currently not used by a text. A buffer is taken by clearing
+     * its slot, so unlike a queue (which allocates a node per offer) or a thread local
+     * (which allocates per virtual thread) the pool allocates nothing once it is filled.
+     */
+    private static final AtomicReferenceArray<char[]> BUFFERS = new AtomicReferenceArray<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    
+    /**
+     * The characters of the alphabet.
+     */
+    private final char[] table;
+    
+    /**
+     * Creates a new alphabet from a checked table.
+     *
+     * @param table
+     *         the characters of the alphabet.
+     */
+    private Alphabet(final char[] table) {
+        this.table = table;
+    }
+    
+    /**
+     * Creates an alphabet of the provided characters. Every character is picked with the
+     * same probability, so none may occur twice.
+     *
+     * @param characters
+     *         the characters of the alphabet.
+     *
+     * @return the alphabet of the provided characters.
+     *
+     * @throws IllegalArgumentException
+     *         if there are no characters or a character occurs twice.
+     */
+    public static Alphabet of(final String characters) {
+        if (characters == null || characters.isEmpty())
+            throw new IllegalArgumentException("The alphabet needs at least one character.");
+        
+        final char[] table = characters.toCharArray();
+        for (int index = 0; index < table.length; index++) {
+            if (characters.indexOf(table[index]) != index)
+                throw new IllegalArgumentException("The character \"" + table[index] + "\" occurs twice in the alphabet.");
+        }
+        return new Alphabet(table);
+    }
+    
+    /**
+     * Returns the preset with the provided name (e.g. "NO_CONFUSABLES") or an alphabet of
+     * the provided characters if there is no such preset.
+     *
+     * @param value
+     *         the name of a preset or the characters of the alphabet.
+     *
+     * @return the preset or the alphabet of the provided characters.
+     */
+    public static Alphabet valueOf(final String value) {
+        switch (value.toUpperCase(Locale.ROOT)) {
+            case "ALPHANUMERIC":
+                return ALPHANUMERIC;
+            case "NO_CONFUSABLES":
+                return NO_CONFUSABLES;
+            case "NUMERIC":
+                return NUMERIC;
+            default:
+                return of(value);
+        }
+    }
+    
+    /**
+     * Returns the characters of the alphabet.
+     *
+     * @return the characters of the alphabet.
+     */
+    public String getCharacters() {
+        return new String(this.table);
+    }
+    
+    /**
+     * Returns the amount of characters of the alphabet.
+     *
+     * @return the amount of characters of the alphabet.
+     */
+    public int size() {
+        return this.table.length;
+    }
+    
+    /**
+     * Writes random characters of the alphabet into the buffer.
+     *
+     * @param random
+     *         the random generator used to pick the characters.
+     * @param buffer
+     *         the buffer the characters are written to.
+     * @param offset
+     *         the index of the first character in the buffer.
+     * @param length
+     *         the amount of characters.
+     */
+    public void fill(final RandomGenerator random, final char[] buffer, final int offset, final int length) {
+        final char[] table = this.table;
+        for (int index = offset; index < offset + length; index++)
+            buffer[index] = table[random.nextInt(table.length)];
+    }
+    
+    /**
+     * Generates a new text of random characters of the alphabet.
+     *
+     * @param random
+     *         the random generator used to pick the characters.
+     * @param length
+     *         the length of the generated text.
+     *
+     * @return a new text with the provided length.
+     */
+    @Override
+    public String generate(final RandomGenerator random, final int length) {
+        if (length > BUFFER_SIZE) {
+            final char[] buffer = new char[length];
+            this.fill(random, buffer, 0, length);
+            return new String(buffer);
+        }
+        
+        final char[] buffer = acquireBuffer();
+        try {
+            this.fill(random, buffer, 0, length);
+            return new String(buffer, 0, length);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+    
+    /**
+     * Takes a buffer from the pool or creates a new one. The search starts at a slot which
+     * depends on the current thread, so concurrent threads rarely compete for a slot.
+     *
+     * @return a buffer of {@link #BUFFER_SIZE} characters which is only used by the caller.
+     */
+    private static char[] acquireBuffer() {
+        final int start = Thread.currentThread().hashCode() & Integer.MAX_VALUE;
+        for (int index = 0; index < BUFFERS.length(); index++) {
+            final int slot = (start + index) % BUFFERS.length();
+            final char[] buffer = BUFFERS.get(slot);
+            if (buffer != null && BUFFERS.compareAndSet(slot, buffer, null))
+                return buffer;
+        }
+        return new char[BUFFER_SIZE];
+    }
+    
+    /**
+     * Returns a buffer to the pool. If the pool is full the buffer is discarded.
+     *
+     * @param buffer
+     *         the buffer which isn't used anymore.
+     */
+    private static void releaseBuffer(final char[] buffer) {
+        final int start = Thread.currentThread().hashCode() & Integer.MAX_VALUE;
+        for (int index = 0; index < BUFFERS.length(); index++) {
+            final int slot = (start + index) % BUFFERS.length();
+            if (BUFFERS.get(slot) == null && BUFFERS.compareAndSet(slot, null, buffer))
+                return;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "Alphabet(" + this.getCharacters() + ")";
+    }
+    
+}
@@ -0,0 +1,188 @@
+package com.arkoisystems.captcha.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * An output stream which encodes the written bytes as Base64 on the fly and appends the
+ * characters to an {@link Appendable} (e.g. a {@link StringBuilder} or {@link Writer}) or
+ * writes them as ASCII bytes into a {@link ByteBuffer}. The bytes are collected in a small
+ * chunk whose length is a multiple of three, which is encoded as a whole by
+ * {@link Base64.Encoder#encode(byte[], byte[])} (an intrinsic of the JIT, unlike the
+ * stream of {@link Base64.Encoder#wrap(OutputStream)}). So an encoder can write a captcha
+ * straight into e.g. a page without holding the raw bytes or a second copy of the Base64
+ * text.
+ * <p>
+ * The last chunk is only written (with its padding) when the stream is closed. The target
+ * itself doesn't get closed.
+ */
+public class Base64OutputStream extends OutputStream
+{
+    
+    /**
+     * The size of the chunk of raw bytes (a multiple of three) and of its encoding.
+     */
+    private static final int CHUNK_SIZE = 3 * 1024, ENCODED_CHUNK_SIZE = CHUNK_SIZE / 3 * 4;
+    
+    /**
+     * The target of the encoded characters.
+     */
+    private final OutputStream target;
+    
+    /**
+     * The raw bytes which weren't encoded yet and their amount.
+     */
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    
+    private int chunkLength;
+    
+    /**
+     * The encoded characters of a full chunk.
+     */
+    private final byte[] encoded = new byte[ENCODED_CHUNK_SIZE];
+    
+    /**
+     * The flag if the stream is closed.
+     */
+    private boolean closed;
+    
+    /**
+     * Creates a new stream which appends the characters to an appendable.
+     *
+     * @param appendable
+     *         the appendable the characters are appended to.
+     */
+    public Base64OutputStream(final Appendable appendable) {
+        this.target = new AppendableTarget(appendable);
+    }
+    
+    /**
+     * Creates a new stream which writes the characters as ASCII bytes into a buffer. The
+     * position of the buffer is advanced by every written character.
+     *
+     * @param buffer
+     *         the buffer the characters are written to.
+     */
+    public Base64OutputStream(final ByteBuffer buffer) {
+        this.target = new ByteBufferOutputStream(buffer);
+    }
+    
+    /**
+     * Returns the amount of characters the Base64 encoding of the provided amount of bytes
+     * has, e.g. to size the target in advance.
+     *
+     * @param length
+     *         the amount of bytes.
+     *
+     * @return the amount of encoded characters (including the padding).
+     */
+    public static long encodedLength(final long length) {
+        return (length + 2) / 3 * 4;
+    }
+    
+    @Override
+    public void write(final int value) throws IOException {
+        this.ensureOpen();
+        this.chunk[this.chunkLength++] = (byte) value;
+        if (this.chunkLength == CHUNK_SIZE)
+            this.writeChunk();
+    }
+    
+    @Override
+    public void write(final byte[] bytes, int offset, int length) throws IOException {
+        this.ensureOpen();
+        while (length > 0) {
+            final int copied = Math.min(length, CHUNK_SIZE - this.chunkLength);
+            System.arraycopy(bytes, offset, this.chunk, this.chunkLength, copied);
+            this.chunkLength += copied;
+            offset += copied;
+            length -= copied;
+            
+            if (this.chunkLength == CHUNK_SIZE)
+                this.writeChunk();
+        }
+    }
+    
+    /**
+     * Encodes the last bytes with their padding and writes them to the target. The target
+     * itself doesn't get closed.
+     *
+     * @throws IOException
+     *         if the target can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        
+        this.closed = true;
+        if (this.chunkLength != 0) {
+            final int length = Base64.getEncoder().encode(Arrays.copyOf(this.chunk, this.chunkLength), this.encoded);
+            this.target.write(this.encoded, 0, length);
+        }
+    }
+    
+    /**
+     * Encodes the full chunk and writes it to the target.
+     *
+     * @throws IOException
+     *         if the target can't be written.
+     */
+    private void writeChunk() throws IOException {
+        Base64.getEncoder().encode(this.chunk, this.encoded);
+        this.target.write(this.encoded, 0, ENCODED_CHUNK_SIZE);
+        this.chunkLength = 0;
+    }
+    
+    /**
+     * Checks that the stream isn't closed yet.
+     *
+     * @throws IOException
+     *         if the stream is already closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (this.closed)
+            throw new IOException("The stream is already closed.");
+    }
+    
+    /**
+     * The target of the encoded characters which appends them to an appendable. Every
+     * chunk becomes a short Latin-1 string, which a {@link StringBuilder} or
+     * {@link Writer} copies as a whole instead of character by character.
+     */
+    private static class AppendableTarget extends OutputStream
+    {
+        
+        /**
+         * The appendable the characters are appended to.
+         */
+        private final Appendable appendable;
+        
+        /**
+         * Creates a new target of an appendable.
+         *
+         * @param appendable
+         *         the appendable the characters are appended to.
+         */
+        private AppendableTarget(final Appendable appendable) {
+            this.appendable = appendable;
+        }
+        
+        @Override
+        public void write(final int value) throws IOException {
+            this.appendable.append((char) (value & 0xFF));
+        }
+        
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            this.appendable.append(new String(bytes, offset, length, StandardCharsets.ISO_8859_1));
+        }
+        
+    }
+    
+}
@@ -0,0 +1,38 @@
+package com.arkoisystems.captcha.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream which writes into a {@link ByteBuffer} provided by the caller (e.g. a
+ * direct buffer of a network framework).
+ */
+@AllArgsConstructor
+public class ByteBufferOutputStream extends OutputStream
+{
+    
+    /**
+     * The buffer used to write the bytes to. Its position is advanced by every write.
+     */
+    @Getter
+    private final ByteBuffer buffer;
+    
+    @Override
+    public void write(final int value) throws IOException {
+        if (!this.buffer.hasRemaining())
+            throw new IOException("The buffer has no space left (capacity " + this.buffer.capacity() + ").");
+        this.buffer.put((byte) value);
+    }
+    
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (this.buffer.remaining() < length)
+            throw new IOException("The buffer has no space left (capacity " + this.buffer.capacity() + ").");
+        this.buffer.put(bytes, offset, length);
+    }
+    
+}
@@ -7,7 +7,11 @@ package com.arkoisystems.captcha.utils;
  *         the result type
  * @param <V>
  *         the parameter value type
+ *
+ * @deprecated the text of a captcha is generated by a {@link TextGenerator}, which gets
+ *         the random generator of the captcha. This interface isn't used anymore.
  */
+@Deprecated(forRemoval = true)
 public interface Callback<R, V>
 {
     
@@ -0,0 +1,201 @@
+package com.arkoisystems.captcha.utils;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An output stream which writes to a {@link WritableByteChannel} through a direct buffer.
+ * The direct buffers are kept in a small shared pool and borrowed by a stream until it
+ * gets closed, so writing a captcha to a channel doesn't allocate a new buffer. Unlike a
+ * buffer per thread, the pool neither allocates for every virtual thread nor pins direct
+ * memory to idle threads.
+ * <p>
+ * The channel has to be in blocking mode. A channel which accepts no bytes (like a
+ * non-blocking socket whose send buffer is full) fails the write instead of being retried
+ * in a busy loop.
+ */
+public class ChannelOutputStream extends OutputStream
+{
+    
+    /**
+     * The size of the direct buffers.
+     */
+    public static final int BUFFER_SIZE = 16 * 1024;
+    
+    /**
+     * The maximum amount of direct buffers which are kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    
+    /**
+     * The direct buffers which are currently not borrowed by a stream.
+     */
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+    
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+    
+    /**
+     * The channel used to write the bytes to.
+     */
+    @Getter
+    private final WritableByteChannel channel;
+    
+    /**
+     * The direct buffer borrowed by this stream.
+     */
+    private ByteBuffer buffer;
+    
+    /**
+     * Creates a new stream which writes to the provided channel.
+     *
+     * @param channel
+     *         the channel used to write the bytes to.
+     */
+    public ChannelOutputStream(final WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = acquire();
+    }
+    
+    @Override
+    public void write(final int value) throws IOException {
+        this.ensureOpen();
+        if (!this.buffer.hasRemaining())
+            this.drain();
+        this.buffer.put((byte) value);
+    }
+    
+    @Override
+    public void write(final byte[] bytes, int offset, int length) throws IOException {
+        this.ensureOpen();
+        while (length > 0) {
+            if (!this.buffer.hasRemaining())
+                this.drain();
+            
+            final int chunk = Math.min(length, this.buffer.remaining());
+            this.buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+    
+    /**
+     * Writes a whole buffer to the channel. The buffered bytes are written first.
+     *
+     * @param source
+     *         the buffer whose remaining bytes get written.
+     *
+     * @throws IOException
+     *         if the channel can't be written.
+     */
+    public void write(final ByteBuffer source) throws IOException {
+        this.ensureOpen();
+        this.drain();
+        writeFully(this.channel, source);
+    }
+    
+    /**
+     * Writes the remaining bytes of a buffer to a blocking channel.
+     *
+     * @param channel
+     *         the channel used to write the bytes to.
+     * @param source
+     *         the buffer whose remaining bytes get written.
+     *
+     * @throws IOException
+     *         if the channel can't be written or accepted no bytes (e.g. because it is in
+     *         non-blocking mode).
+     */
+    public static void writeFully(final WritableByteChannel channel, final ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            if (channel.write(source) == 0)
+                throw new IOException("The channel accepted no bytes, a blocking channel is required.");
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        this.ensureOpen();
+        this.drain();
+    }
+    
+    /**
+     * Flushes the buffered bytes and gives the direct buffer back to the pool. The channel
+     * itself doesn't get closed.
+     *
+     * @throws IOException
+     *         if the channel can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.buffer == null)
+            return;
+        
+        try {
+            this.drain();
+        } finally {
+            release(this.buffer);
+            this.buffer = null;
+        }
+    }
+    
+    /**
+     * Takes a direct buffer from the pool or allocates a new one.
+     *
+     * @return an empty direct buffer which is only used by the caller.
+     */
+    private static ByteBuffer acquire() {
+        final ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        
+        POOLED_BUFFERS.decrementAndGet();
+        return buffer;
+    }
+    
+    /**
+     * Returns a direct buffer to the pool. If the pool is full the buffer is discarded and
+     * its memory is freed by the garbage collector.
+     *
+     * @param buffer
+     *         the buffer which isn't used anymore.
+     */
+    private static void release(final ByteBuffer buffer) {
+        buffer.clear();
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+            return;
+        }
+        
+        POOLED_BUFFERS.decrementAndGet();
+    }
+    
+    /**
+     * Writes every buffered byte to the channel.
+     *
+     * @throws IOException
+     *         if the channel can't be written.
+     */
+    private void drain() throws IOException {
+        this.buffer.flip();
+        writeFully(this.channel, this.buffer);
+        this.buffer.clear();
+    }
+    
+    /**
+     * Checks that the stream isn't closed yet.
+     *
+     * @throws IOException
+     *         if the stream is already closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (this.buffer == null)
+            throw new IOException("The stream is already closed.");
+    }
+    
+}
@@ -0,0 +1,43 @@
+package com.arkoisystems.captcha.utils;
+
+import lombok.Getter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which counts the bytes written to another output stream.
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+    
+    /**
+     * The amount of bytes written until now.
+     */
+    @Getter
+    private long count;
+    
+    /**
+     * Creates a stream which counts the bytes written to the provided output stream.
+     *
+     * @param outputStream
+     *         the output stream the bytes are written to.
+     */
+    public CountingOutputStream(final OutputStream outputStream) {
+        super(outputStream);
+    }
+    
+    @Override
+    public void write(final int value) throws IOException {
+        this.out.write(value);
+        this.count++;
+    }
+    
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        this.out.write(bytes, offset, length);
+        this.count += length;
+    }
+    
+}
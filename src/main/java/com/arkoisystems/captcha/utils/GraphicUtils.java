@@ -24,4 +24,22 @@ public class GraphicUtils
         return (alpha << 24) + (red << 16) + (green << 8) + blue;
     }
     
+    /**
+     * Turns RGB values into a gray value. This uses the same weights as Java2D does when
+     * it draws onto a {@link java.awt.image.BufferedImage#TYPE_BYTE_GRAY} image, so
+     * pixels composited by hand match the ones drawn by a graphics.
+     *
+     * @param red
+     *         the red value of the color.
+     * @param green
+     *         the green value of the color.
+     * @param blue
+     *         the blue value of the color.
+     *
+     * @return the gray value (0-255) of the color.
+     */
+    public int toGray(final int red, final int green, final int blue) {
+        return (77 * red + 150 * green + 29 * blue + 128) >> 8;
+    }
+    
 }
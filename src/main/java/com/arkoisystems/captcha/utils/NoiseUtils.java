@@ -0,0 +1,195 @@
+package com.arkoisystems.captcha.utils;
+
+import lombok.experimental.UtilityClass;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+@UtilityClass
+public class NoiseUtils
+{
+    
+    /**
+     * The amount of precomputed gaussian samples (must be a power of two).
+     */
+    public final int GAUSSIAN_TABLE_SIZE = 1 << 16;
+    
+    /**
+     * The mask used to wrap an index into the gaussian table.
+     */
+    private final int GAUSSIAN_TABLE_MASK = GAUSSIAN_TABLE_SIZE - 1;
+    
+    /**
+     * Standard normal distributed samples (mean 0, sigma 1) which are computed once and
+     * then shared by every thread. Reading them is a lot cheaper than calling {@link
+     * Random#nextGaussian()} for every pixel.
+     */
+    private final float[] GAUSSIAN_TABLE = createGaussianTable();
+    
+    /**
+     * Fills the gaussian table with standard normal distributed samples.
+     *
+     * @return the filled gaussian table.
+     */
+    private float[] createGaussianTable() {
+        final Random random = new Random(new SecureRandom().nextLong());
+        final float[] table = new float[GAUSSIAN_TABLE_SIZE];
+        for (int index = 0; index < table.length; index++)
+            table[index] = (float) random.nextGaussian();
+        return table;
+    }
+    
+    /**
+     * Adds gaussian noise to the provided RGB pixels and turns them into grayscale. The
+     * pixels are walked row by row and no objects are allocated per pixel. Every row
+     * reads the gaussian table from a random start index with a random odd stride, so the
+     * rows don't repeat the same noise pattern.
+     *
+     * @param random
+     *         the random generator used to pick the start index and stride of every row.
+     * @param pixels
+     *         the RGB pixels (e.g. the data of a {@link java.awt.image.DataBufferInt}).
+     * @param width
+     *         the width of the image (which is also the scanline stride).
+     * @param height
+     *         the height of the image.
+     * @param mean
+     *         the mean of the gaussian noise.
+     * @param sigma
+     *         the sigma value of the gaussian noise.
+     */
+    public void gaussianNoise(final RandomGenerator random, final int[] pixels, final int width, final int height, final float mean, final float sigma) {
+        final float[] table = GAUSSIAN_TABLE;
+        
+        for (int y = 0; y < height; y++) {
+            int sample = random.nextInt(GAUSSIAN_TABLE_SIZE);
+            final int stride = random.nextInt(GAUSSIAN_TABLE_SIZE) | 1;
+            
+            final int end = (y + 1) * width;
+            for (int index = y * width; index < end; index++) {
+                final int rgb = pixels[index];
+                final int gray = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+                
+                float value = gray + table[sample & GAUSSIAN_TABLE_MASK] * sigma + mean;
+                sample += stride;
+                
+                if (value < 0f)
+                    value = 0f;
+                else if (value > 255f)
+                    value = 255f;
+                
+                final int newColor = (int) (value + 0.5f);
+                pixels[index] = (newColor << 16) | (newColor << 8) | newColor;
+            }
+        }
+    }
+    
+    /**
+     * Adds gaussian noise to the provided gray pixels. The noise is sampled the same way
+     * as by {@link #gaussianNoise(RandomGenerator, int[], int, int, float, float)}, but
+     * no channels need to be unpacked and packed again.
+     *
+     * @param random
+     *         the random generator used to pick the start index and stride of every row.
+     * @param pixels
+     *         the gray pixels (e.g. the data of a {@link java.awt.image.DataBufferByte}).
+     * @param width
+     *         the width of the image (which is also the scanline stride).
+     * @param height
+     *         the height of the image.
+     * @param mean
+     *         the mean of the gaussian noise.
+     * @param sigma
+     *         the sigma value of the gaussian noise.
+     */
+    public void gaussianNoise(final RandomGenerator random, final byte[] pixels, final int width, final int height, final float mean, final float sigma) {
+        final float[] table = GAUSSIAN_TABLE;
+        
+        for (int y = 0; y < height; y++) {
+            int sample = random.nextInt(GAUSSIAN_TABLE_SIZE);
+            final int stride = random.nextInt(GAUSSIAN_TABLE_SIZE) | 1;
+            
+            final int end = (y + 1) * width;
+            for (int index = y * width; index < end; index++) {
+                float value = (pixels[index] & 0xFF) + table[sample & GAUSSIAN_TABLE_MASK] * sigma + mean;
+                sample += stride;
+                
+                if (value < 0f)
+                    value = 0f;
+                else if (value > 255f)
+                    value = 255f;
+                
+                pixels[index] = (byte) (int) (value + 0.5f);
+            }
+        }
+    }
+    
+    /**
+     * Adds gaussian noise to the provided RGB pixels and turns them into grayscale. Unlike
+     * {@link #gaussianNoise(RandomGenerator, int[], int, int, float, float)} every sample
+     * is drawn from the random generator, so the noise only depends on it (e.g. on its
+     * seed) and not on the gaussian table of the process.
+     *
+     * @param random
+     *         the random generator used to sample the noise of every pixel.
+     * @param pixels
+     *         the RGB pixels (e.g. the data of a {@link java.awt.image.DataBufferInt}).
+     * @param width
+     *         the width of the image (which is also the scanline stride).
+     * @param height
+     *         the height of the image.
+     * @param mean
+     *         the mean of the gaussian noise.
+     * @param sigma
+     *         the sigma value of the gaussian noise.
+     */
+    public void sampledGaussianNoise(final RandomGenerator random, final int[] pixels, final int width, final int height, final float mean, final float sigma) {
+        final int length = width * height;
+        for (int index = 0; index < length; index++) {
+            final int rgb = pixels[index];
+            final int gray = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+            
+            float value = gray + (float) random.nextGaussian() * sigma + mean;
+            if (value < 0f)
+                value = 0f;
+            else if (value > 255f)
+                value = 255f;
+            
+            final int newColor = (int) (value + 0.5f);
+            pixels[index] = (newColor << 16) | (newColor << 8) | newColor;
+        }
+    }
+    
+    /**
+     * Adds gaussian noise to the provided gray pixels. Every sample is drawn from the
+     * random generator (see {@link #sampledGaussianNoise(RandomGenerator, int[], int, int,
+     * float, float)}).
+     *
+     * @param random
+     *         the random generator used to sample the noise of every pixel.
+     * @param pixels
+     *         the gray pixels (e.g. the data of a {@link java.awt.image.DataBufferByte}).
+     * @param width
+     *         the width of the image (which is also the scanline stride).
+     * @param height
+     *         the height of the image.
+     * @param mean
+     *         the mean of the gaussian noise.
+     * @param sigma
+     *         the sigma value of the gaussian noise.
+     */
+    public void sampledGaussianNoise(final RandomGenerator random, final byte[] pixels, final int width, final int height, final float mean, final float sigma) {
+        final int length = width * height;
+        for (int index = 0; index < length; index++) {
+            float value = (pixels[index] & 0xFF) + (float) random.nextGaussian() * sigma + mean;
+            if (value < 0f)
+                value = 0f;
+            else if (value > 255f)
+                value = 255f;
+            
+            pixels[index] = (byte) (int) (value + 0.5f);
+        }
+    }
+    
+}
@@ -0,0 +1,74 @@
+package com.arkoisystems.captcha.utils;
+
+import java.security.SecureRandom;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Describes where the random numbers of a captcha come from. Every strategy hands out
+ * one generator per thread, so threads never share (and contend on) the same state.
+ */
+public enum RandomStrategy
+{
+    
+    /**
+     * Uses {@link ThreadLocalRandom#current()}. Fast, but not suitable for secrets.
+     */
+    THREAD_LOCAL {
+        @Override
+        public RandomGenerator current() {
+            return ThreadLocalRandom.current();
+        }
+    },
+    
+    /**
+     * Uses a {@link SplittableRandom} per thread. Fast, but not suitable for secrets.
+     */
+    SPLITTABLE {
+        private final ThreadLocal<SplittableRandom> generators = ThreadLocal.withInitial(SplittableRandom::new);
+        
+        @Override
+        public RandomGenerator current() {
+            return this.generators.get();
+        }
+    },
+    
+    /**
+     * Uses a "Xoshiro256PlusPlus" generator per thread. Fast and with a very long period,
+     * but not suitable for secrets.
+     */
+    XOSHIRO {
+        private final RandomGeneratorFactory<RandomGenerator> factory = RandomGeneratorFactory.of("Xoshiro256PlusPlus");
+        
+        private final ThreadLocal<RandomGenerator> generators = ThreadLocal.withInitial(this.factory::create);
+        
+        @Override
+        public RandomGenerator current() {
+            return this.generators.get();
+        }
+    },
+    
+    /**
+     * Uses a {@link SecureRandom} per thread. A lot slower than the other strategies, but
+     * the values can't be predicted (e.g. used for the text of the captcha).
+     */
+    SECURE {
+        private final ThreadLocal<SecureRandom> generators = ThreadLocal.withInitial(SecureRandom::new);
+        
+        @Override
+        public RandomGenerator current() {
+            return this.generators.get();
+        }
+    };
+    
+    /**
+     * Returns the generator of the current thread. The returned generator must not be
+     * passed to other threads.
+     *
+     * @return the generator of the current thread.
+     */
+    public abstract RandomGenerator current();
+    
+}
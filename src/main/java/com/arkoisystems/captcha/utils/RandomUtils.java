@@ -3,34 +3,43 @@ package com.arkoisystems.captcha.utils;
 import lombok.experimental.UtilityClass;
 
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 @UtilityClass
 public class RandomUtils
 {
     
     /**
-     * The current Thread random used to generate numbers and strings.
+     * Generates a random alphanumeric string of n length using the {@link
+     * ThreadLocalRandom} of the current thread.
+     *
+     * @param length
+     *         the length of the generated string
+     *
+     * @return a random alphanumeric string of n length.
      */
-    protected ThreadLocalRandom RANDOM = ThreadLocalRandom.current();
+    public String randomAlphanumeric(final int length) {
+        return randomAlphanumeric(ThreadLocalRandom.current(), length);
+    }
     
     /**
-     * Generates a random alphanumeric string of n length.
+     * Generates a random alphanumeric string of n length (see {@link
+     * Alphabet#ALPHANUMERIC}).
      *
+     * @param random
+     *         the random generator used to pick the characters.
      * @param length
      *         the length of the generated string
      *
      * @return a random alphanumeric string of n length.
      */
-    public String randomAlphanumeric(final int length) {
-        return RANDOM.ints(48, 123)
-                .filter(index -> (index <= 57 || index >= 65) && (index <= 90 || index >= 97))
-                .limit(length)
-                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
-                .toString();
+    public String randomAlphanumeric(final RandomGenerator random, final int length) {
+        return Alphabet.ALPHANUMERIC.generate(random, length);
     }
     
     /**
-     * Generates a random float using a lower and upper bound.
+     * Generates a random float using a lower and upper bound and the {@link
+     * ThreadLocalRandom} of the current thread.
      *
      * @param lowerBound
      *         the lower bound of the random generator.
@@ -40,11 +49,28 @@ public class RandomUtils
      * @return a random float between the lower and upper bound.
      */
     public float nextFloat(final float lowerBound, final float upperBound) {
-        return (float) RANDOM.nextDouble(lowerBound, upperBound);
+        return nextFloat(ThreadLocalRandom.current(), lowerBound, upperBound);
     }
     
     /**
-     * Generates a random int using only a upperbound.
+     * Generates a random float using a lower and upper bound.
+     *
+     * @param random
+     *         the random generator used to generate the number.
+     * @param lowerBound
+     *         the lower bound of the random generator.
+     * @param upperBound
+     *         the upper bound of the random generator.
+     *
+     * @return a random float between the lower and upper bound.
+     */
+    public float nextFloat(final RandomGenerator random, final float lowerBound, final float upperBound) {
+        return (float) random.nextDouble(lowerBound, upperBound);
+    }
+    
+    /**
+     * Generates a random int using only a upperbound and the {@link ThreadLocalRandom} of
+     * the current thread.
      *
      * @param upperBound
      *         the upper bound of the random generator.
@@ -52,11 +78,26 @@ public class RandomUtils
      * @return a random int between 0 and the upper bound.
      */
     public float nextInt(final int upperBound) {
-        return nextInt(0, upperBound);
+        return nextInt(ThreadLocalRandom.current(), 0, upperBound);
     }
     
     /**
-     * Generates a random int using a lower and upper bound.
+     * Generates a random int using only a upperbound.
+     *
+     * @param random
+     *         the random generator used to generate the number.
+     * @param upperBound
+     *         the upper bound of the random generator.
+     *
+     * @return a random int between 0 and the upper bound.
+     */
+    public float nextInt(final RandomGenerator random, final int upperBound) {
+        return nextInt(random, 0, upperBound);
+    }
+    
+    /**
+     * Generates a random int using a lower and upper bound and the {@link
+     * ThreadLocalRandom} of the current thread.
      *
      * @param lowerBound
      *         the lower bound of the random generator.
@@ -66,16 +107,33 @@ public class RandomUtils
      * @return a random int between the lower and upper bound.
      */
     public float nextInt(final int lowerBound, final int upperBound) {
-        return (float) RANDOM.nextInt(lowerBound, upperBound);
+        return nextInt(ThreadLocalRandom.current(), lowerBound, upperBound);
+    }
+    
+    /**
+     * Generates a random int using a lower and upper bound.
+     *
+     * @param random
+     *         the random generator used to generate the number.
+     * @param lowerBound
+     *         the lower bound of the random generator.
+     * @param upperBound
+     *         the upper bound of the random generator.
+     *
+     * @return a random int between the lower and upper bound.
+     */
+    public float nextInt(final RandomGenerator random, final int lowerBound, final int upperBound) {
+        return (float) random.nextInt(lowerBound, upperBound);
     }
     
     /**
-     * Generates a gaussian value generated by the {@link #RANDOM}.
+     * Generates a gaussian value using the {@link ThreadLocalRandom} of the current
+     * thread.
      *
-     * @return a gaussian value generated by the {@link #RANDOM}.
+     * @return a gaussian value.
      */
     public double nextGaussian() {
-        return RANDOM.nextGaussian();
+        return ThreadLocalRandom.current().nextGaussian();
     }
     
 }
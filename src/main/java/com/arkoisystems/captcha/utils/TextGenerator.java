@@ -0,0 +1,24 @@
+package com.arkoisystems.captcha.utils;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A generator used to create the text (the answer) of a captcha.
+ */
+@FunctionalInterface
+public interface TextGenerator
+{
+    
+    /**
+     * Generates a new text with the provided length.
+     *
+     * @param random
+     *         the random generator which should be used to pick the characters.
+     * @param length
+     *         the length of the generated text.
+     *
+     * @return a new text with the provided length.
+     */
+    String generate(final RandomGenerator random, final int length);
+    
+}
@@ -0,0 +1,51 @@
+package com.arkoisystems.captcha.utils;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@UtilityClass
+public class ThreadUtils
+{
+    
+    /**
+     * The counter used to name the fallback threads.
+     */
+    private final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    
+    /**
+     * Creates an executor which starts a new virtual thread for every task. Virtual threads
+     * are only available on Java 21 or newer, so older runtimes get a cached pool of daemon
+     * threads instead.
+     *
+     * @return an executor which starts a new (virtual) thread for every task.
+     */
+    public ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException ignored) {
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "captcha-worker-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * Checks if the runtime supports virtual threads.
+     *
+     * @return true if the runtime supports virtual threads or false if not.
+     */
+    public boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (final NoSuchMethodException ignored) {
+            return false;
+        }
+    }
+    
+}